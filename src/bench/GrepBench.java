@@ -0,0 +1,165 @@
+package bench;
+
+import kernel.Kernel;
+import process.Shell;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Multi-pattern grep (grep -f) against a pipeline of greps, one per pattern. All of them run as command lines
+ * of a shell. The pipeline runs as processes (nofuse), each grep pays a process, a thread and a pipe, and fused
+ * into one thread if it is short enough. The patterns are excluded (-v), so all of them give the same lines -
+ * the lines containing none of the patterns. Log lines with ids are generated into the filesystem, patterns
+ * are ids, half of them in the lines. Pipelines of more processes than {@link Kernel#MAX_THREADS} cannot be started
+ * on pooled threads, they are reported as failed.
+ *
+ * Run from the folder with the filesystem: java -Xmx2g -cp build bench.GrepBench [lines]
+ *
+ * @author Radek Bouda
+ */
+public class GrepBench {
+    /** Default number of lines */
+    private static final int LINES = 20000;
+    /** Numbers of patterns */
+    private static final int[] PATTERNS = {10, 100, 1000, 10000};
+    /** Longest pipeline which is fused */
+    private static final int FUSED_STAGES = 256;
+    /** Rounds, the best one is printed, the first ones warm up */
+    private static final int ROUNDS = 3;
+    /** Words of the lines */
+    private static final String[] WORDS = {"log", "warn", "error", "alpha", "beta", "Gamma", "delta", "eps"};
+    /** Files of the benchmark in the filesystem */
+    private static final String LOG = "grepbench-log.txt", PATTERN_FILE = "grepbench-patterns.txt", SINGLE = "grepbench-f.txt", CHAINED = "grepbench-chain.txt";
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : LINES;
+        Shell shell = shell();
+        Random random = new Random(1);
+        List<String> ids = new ArrayList<String>(count);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            String id = String.format("ID%06d", random.nextInt(1000000));
+            ids.add(id);
+            text.append(WORDS[random.nextInt(WORDS.length)]).append(' ').append(id).append(' ')
+                    .append(WORDS[random.nextInt(WORDS.length)]).append(' ').append(WORDS[random.nextInt(WORDS.length)]).append('\n');
+        }
+        write(LOG, text.toString());
+
+        System.out.println("| Patterns | grep -v -f | grep -v p1 \\| grep -v p2 \\| ... fused | ... as processes | Lines |");
+        System.out.println("| --- | --- | --- | --- | --- |");
+        try {
+            for (int size : PATTERNS) {
+                StringBuilder patterns = new StringBuilder();
+                StringBuilder chain = new StringBuilder();
+                for (int i = 0; i < size; i++) {
+                    String id = i % 2 == 0 ? ids.get(random.nextInt(count)) : String.format("ID%06d", random.nextInt(1000000));
+                    patterns.append(id).append('\n');
+                    chain.append(i == 0 ? "grep -v " + id + " " + LOG : " | grep -v " + id);
+                }
+                write(PATTERN_FILE, patterns.toString());
+                long single = Long.MAX_VALUE;
+                long fused = Long.MAX_VALUE;
+                long processes = Long.MAX_VALUE;
+                boolean same = true;
+                boolean started = true;
+                for (int round = 0; round < ROUNDS; round++) {
+                    single = Math.min(single, run(shell, "grep -v -f " + PATTERN_FILE + " " + LOG + " > " + SINGLE));
+                    byte[] expected = read(SINGLE);
+                    if (size <= FUSED_STAGES) {
+                        fused = Math.min(fused, run(shell, chain + " > " + CHAINED));
+                        same &= Arrays.equals(expected, read(CHAINED));
+                    }
+                    processes = Math.min(processes, run(shell, "nofuse " + chain + " > " + CHAINED));
+                    if (Arrays.equals(expected, read(CHAINED))) continue;
+                    if (size > Kernel.MAX_THREADS) started = false;
+                    else same = false;
+                }
+                System.out.println("| " + size + " | " + millis(single) + " | " + (size <= FUSED_STAGES ? millis(fused) : "not fused")
+                        + " | " + (started ? millis(processes) : "failed after " + millis(processes)) + " | "
+                        + (same ? lines(read(SINGLE)) : "different lines") + " |");
+            }
+        } finally {
+            for (String name : new String[]{LOG, PATTERN_FILE, SINGLE, CHAINED}) new File(shell.getPath(name)).delete();
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Runs a command line and waits for its end.
+     *
+     * @param shell shell
+     * @param line command line
+     * @return nanoseconds
+     */
+    private static long run(Shell shell, String line) {
+        long start = System.nanoTime();
+        shell.executeCommand(line);
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Writes a file of the filesystem.
+     *
+     * @param name file name
+     * @param text content
+     */
+    private static void write(String name, String text) throws IOException {
+        OutputStream out = new FileOutputStream(new File("filesystem", name));
+        try {
+            out.write(text.getBytes());
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads a file of the filesystem.
+     *
+     * @param name file name
+     * @return content
+     */
+    private static byte[] read(String name) throws IOException {
+        return Files.readAllBytes(new File("filesystem", name).toPath());
+    }
+
+    /**
+     * Counts lines.
+     *
+     * @param data bytes
+     * @return number of newlines
+     */
+    private static int lines(byte[] data) {
+        int lines = 0;
+        for (byte b : data) if (b == '\n') lines++;
+        return lines;
+    }
+
+    /**
+     * Creates a shell process without a console.
+     *
+     * @return shell
+     */
+    private static Shell shell() throws Exception {
+        List<List<String>> commands = new ArrayList<List<String>>();
+        commands.add(new ArrayList<String>(Arrays.asList("bench")));
+        return new Shell(0, 0, null, commands, null);
+    }
+
+    /**
+     * Formats nanoseconds.
+     *
+     * @param nanos nanoseconds
+     * @return milliseconds
+     */
+    private static String millis(long nanos) {
+        return nanos / 1000000 + " ms";
+    }
+}
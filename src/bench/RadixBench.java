@@ -0,0 +1,68 @@
+package bench;
+
+import helpers.LineOrder;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Radix sort of the first keys against the comparison sort of the precomputed keys, the path of Sort before
+ * the radix sort. Lines of "&lt;10-digit timestamp&gt; id&lt;n&gt;" are generated and sorted numerically (-n),
+ * by a fixed-width part of the timestamp (-k 1.3,1.10 --radix) and by the ids (-k 2,2 --radix).
+ * Both paths must give the same lines.
+ *
+ * Run: java -Xmx2g -cp build bench.RadixBench [lines]
+ *
+ * @author Radek Bouda
+ */
+public class RadixBench {
+    /** Default number of lines */
+    private static final int LINES = 1000000;
+    /** Rounds, the best one is printed, the first ones warm up */
+    private static final int ROUNDS = 3;
+    /** Measured sorts - command line and key, null for the whole lines */
+    private static final String[][] SORTS = {{"sort -n", null}, {"sort -k 1.3,1.10 --radix", "1.3,1.10"}, {"sort -k 2,2 --radix", "2,2"}};
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : LINES;
+        Random random = new Random(1);
+        byte[][] lines = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            lines[i] = ((1600000000L + random.nextInt(100000000)) + " id" + random.nextInt(count)).getBytes();
+        }
+        System.out.println("| Sort | Comparison | Radix |");
+        System.out.println("| --- | --- | --- |");
+        for (String[] sort : SORTS) {
+            List<LineOrder.Key> keys = sort[1] == null ? Collections.<LineOrder.Key>emptyList() : Collections.singletonList(LineOrder.Key.parse(sort[1]));
+            LineOrder order = new LineOrder(LineOrder.BLANKS, keys, sort[1] == null, false, null, true);
+            long comparison = Long.MAX_VALUE;
+            long radix = Long.MAX_VALUE;
+            byte[][] compared = null;
+            byte[][] radixed = null;
+            for (int round = 0; round < ROUNDS; round++) {
+                compared = lines.clone();
+                long start = System.nanoTime();
+                order.comparisonSort(compared, false);
+                comparison = Math.min(comparison, System.nanoTime() - start);
+                radixed = lines.clone();
+                start = System.nanoTime();
+                order.sort(radixed, false);
+                radix = Math.min(radix, System.nanoTime() - start);
+            }
+            System.out.println("| " + sort[0] + " | " + millis(comparison) + " | " + millis(radix)
+                    + (Arrays.equals(compared, radixed) ? "" : " (different lines)") + " |");
+        }
+    }
+
+    /**
+     * Formats nanoseconds.
+     *
+     * @param nanos nanoseconds
+     * @return milliseconds
+     */
+    private static String millis(long nanos) {
+        return nanos / 1000000 + " ms";
+    }
+}
@@ -0,0 +1,149 @@
+package bench;
+
+import helpers.ByteScan;
+
+import java.util.Random;
+
+/**
+ * Newline scanning of {@link ByteScan} against the byte loops it replaced. Blocks of 64 KB are scanned as
+ * by the line framing - find collects the newline positions of a block, count counts them. Lines of random
+ * letters are generated, short and long ones. Both scans must find the same newlines.
+ *
+ * Run: java -cp build bench.ScanBench [megabytes]
+ *
+ * @author Radek Bouda
+ */
+public class ScanBench {
+    /** Default size of the scanned bytes in MB */
+    private static final int MEGABYTES = 16;
+    /** Lengths of the lines */
+    private static final int[] LENGTHS = {8, 40, 200, 4000};
+    /** Size of a scanned block */
+    private static final int BLOCK = 65536;
+    /** Size of the array of found positions */
+    private static final int POSITIONS = 4096;
+    /** Passes over the bytes in a round */
+    private static final int PASSES = 5;
+    /** Rounds, the best one is printed, the first ones warm up */
+    private static final int ROUNDS = 20;
+
+    public static void main(String[] args) {
+        int size = (args.length > 0 ? Integer.parseInt(args[0]) : MEGABYTES) * 1024 * 1024;
+        System.out.println("| Scan | Line length | Byte loop | ByteScan |");
+        System.out.println("| --- | --- | --- | --- |");
+        for (int length : LENGTHS) {
+            byte[] data = data(size, length);
+            long[] loop = measure(data, true, false);
+            long[] scan = measure(data, false, false);
+            System.out.println("| find | " + length + " B | " + millis(loop[0]) + " | " + millis(scan[0]) + check(loop, scan) + " |");
+        }
+        for (int length : LENGTHS) {
+            byte[] data = data(size, length);
+            long[] loop = measure(data, true, true);
+            long[] scan = measure(data, false, true);
+            System.out.println("| count | " + length + " B | " + millis(loop[0]) + " | " + millis(scan[0]) + check(loop, scan) + " |");
+        }
+    }
+
+    /**
+     * Generates lines of random letters.
+     *
+     * @param size number of bytes
+     * @param length length of the lines without the newlines
+     * @return bytes
+     */
+    private static byte[] data(int size, int length) {
+        Random random = new Random(1);
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) data[i] = (byte) ('a' + random.nextInt(26));
+        for (int i = length; i < size; i += length + 1) data[i] = '\n';
+        return data;
+    }
+
+    /**
+     * Scans the bytes in blocks.
+     *
+     * @param data bytes
+     * @param loop byte loop instead of ByteScan
+     * @param count newlines are counted instead of found
+     * @return best nanoseconds of the rounds and the checksum of the found newlines
+     */
+    private static long[] measure(byte[] data, boolean loop, boolean count) {
+        int[] positions = new int[POSITIONS];
+        long best = Long.MAX_VALUE;
+        long sum = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            sum = 0;
+            long start = System.nanoTime();
+            for (int pass = 0; pass < PASSES; pass++) {
+                for (int off = 0; off < data.length; off += BLOCK) {
+                    int to = Math.min(off + BLOCK, data.length);
+                    if (count) {
+                        sum += loop ? countLoop(data, off, to, '\n') : ByteScan.count(data, off, to, '\n');
+                        continue;
+                    }
+                    for (int from = off, found; from < to; from = positions[found - 1] + 1) {
+                        found = loop ? findLoop(data, from, to, '\n', positions) : ByteScan.find(data, from, to, '\n', positions);
+                        if (found == 0) break;
+                        for (int i = 0; i < found; i++) sum += positions[i];
+                        if (found < positions.length) break;
+                    }
+                }
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return new long[]{best, sum};
+    }
+
+    /**
+     * Finds the positions of a byte one byte at a time.
+     *
+     * @param data bytes
+     * @param from first byte
+     * @param to end of the bytes
+     * @param b searched byte
+     * @param positions found positions
+     * @return number of found positions
+     */
+    private static int findLoop(byte[] data, int from, int to, int b, int[] positions) {
+        int found = 0;
+        for (int i = from; i < to && found < positions.length; i++) if (data[i] == b) positions[found++] = i;
+        return found;
+    }
+
+    /**
+     * Counts a byte one byte at a time.
+     *
+     * @param data bytes
+     * @param from first byte
+     * @param to end of the bytes
+     * @param b counted byte
+     * @return number of the bytes
+     */
+    private static int countLoop(byte[] data, int from, int to, int b) {
+        int count = 0;
+        for (int i = from; i < to; i++) if (data[i] == b) count++;
+        return count;
+    }
+
+    /**
+     * Compares the checksums of the scans.
+     *
+     * @param loop result of the byte loop
+     * @param scan result of ByteScan
+     * @return empty text if the scans found the same newlines
+     */
+    private static String check(long[] loop, long[] scan) {
+        return loop[1] == scan[1] ? "" : " (different newlines)";
+    }
+
+    /**
+     * Formats nanoseconds.
+     *
+     * @param nanos nanoseconds
+     * @return milliseconds
+     */
+    private static String millis(long nanos) {
+        return nanos / 1000000 + " ms";
+    }
+}
@@ -0,0 +1,113 @@
+package bench;
+
+import helpers.LineOrder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Scaling of the parallel sort with the number of threads. Every thread count runs in its own JVM with the common
+ * fork-join pool of that parallelism, {@link LineOrder#sort} uses the pool for the keys and the sort. Lines of
+ * "&lt;word&gt; &lt;id&gt; &lt;word&gt;" are generated and sorted by the whole lines and by the second field (-k 2,2).
+ *
+ * Run: java -Xmx2g -cp build bench.SortScaling [lines] [threads]
+ *
+ * @author Radek Bouda
+ */
+public class SortScaling {
+    /** Default number of lines */
+    private static final int LINES = 1000000;
+    /** Rounds, the best one is printed, the first ones warm up */
+    private static final int ROUNDS = 3;
+    /** Words of the lines */
+    private static final String[] WORDS = {"log", "warn", "error", "alpha", "beta", "Gamma", "delta", "eps"};
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length > 0 && args[0].equals("--child")) {
+            child(Integer.parseInt(args[1]));
+            return;
+        }
+        int lines = args.length > 0 ? Integer.parseInt(args[0]) : LINES;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        System.out.println("Cores: " + Runtime.getRuntime().availableProcessors() + ", lines: " + lines);
+        System.out.println("| Threads | sort | sort -k 2,2 |");
+        System.out.println("| --- | --- | --- |");
+        for (int k = 1; k <= threads; k++) System.out.println("| " + k + " | " + run(k, lines) + " |");
+    }
+
+    /**
+     * Runs the sorts in a JVM with the given parallelism.
+     *
+     * @param threads parallelism of the common pool
+     * @param lines number of lines
+     * @return times of the sorts, separated by " | "
+     */
+    private static String run(int threads, int lines) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<String>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.add("-Xmx" + Runtime.getRuntime().maxMemory() / (1024 * 1024) + "m");
+        command.add("-Djava.util.concurrent.ForkJoinPool.common.parallelism=" + threads);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(SortScaling.class.getName());
+        command.add("--child");
+        command.add(String.valueOf(lines));
+        Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+        String result = reader.readLine();
+        reader.close();
+        process.waitFor();
+        return result == null ? "failed | failed" : result;
+    }
+
+    /**
+     * Generates the lines and prints the best times of the sorts.
+     *
+     * @param count number of lines
+     */
+    private static void child(int count) {
+        Random random = new Random(1);
+        byte[][] lines = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            lines[i] = (WORDS[random.nextInt(WORDS.length)] + " ID" + String.format("%07d", random.nextInt(10000000)) + " "
+                    + WORDS[random.nextInt(WORDS.length)]).getBytes();
+        }
+        LineOrder plain = new LineOrder(LineOrder.BLANKS, Collections.<LineOrder.Key>emptyList(), false, false, null, false);
+        LineOrder keyed = new LineOrder(LineOrder.BLANKS, Collections.singletonList(LineOrder.Key.parse("2,2")), false, false, null, false);
+        System.out.println(millis(best(plain, lines)) + " | " + millis(best(keyed, lines)));
+    }
+
+    /**
+     * Sorts copies of the lines.
+     *
+     * @param order order
+     * @param lines lines, kept unsorted
+     * @return best nanoseconds of the rounds
+     */
+    private static long best(LineOrder order, byte[][] lines) {
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            byte[][] copy = lines.clone();
+            long start = System.nanoTime();
+            order.sort(copy, false);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    /**
+     * Formats nanoseconds.
+     *
+     * @param nanos nanoseconds
+     * @return milliseconds
+     */
+    private static String millis(long nanos) {
+        return nanos / 1000000 + " ms";
+    }
+}
@@ -0,0 +1,179 @@
+package bench;
+
+import helpers.BBPipedInputStream;
+import kernel.Kernel;
+import kernel.ProcessRegistry;
+import process.AbstractProcess;
+import process.Shell;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Spawn latency of processes. Creating a process by reflection on every command (Class.forName, getConstructor
+ * and newInstance, as the kernel did before the registry) is compared with the factories resolved once by
+ * {@link ProcessRegistry}. The whole {@link Kernel#newProcess} with the removal of the process is measured too.
+ * Processes are created only, they are not started.
+ *
+ * Run from the folder with the filesystem: java -cp build bench.SpawnBench [iterations]
+ *
+ * @author Radek Bouda
+ */
+public class SpawnBench {
+    /** Default number of spawns of a command in a round */
+    private static final int ITERATIONS = 200000;
+    /** Rounds, the best one is printed, the first ones warm up */
+    private static final int ROUNDS = 5;
+    /** Measured commands - no options, options, unknown name */
+    private static final String[][] COMMANDS = {{"ls"}, {"head", "-n", "5"}, {"nosuchprocess"}};
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : ITERATIONS;
+        Kernel kernel = Kernel.getInstance();
+        Shell shell = shell();
+        System.out.println("| Command | Reflection | Registry | newProcess + removal |");
+        System.out.println("| --- | --- | --- | --- |");
+        for (String[] command : COMMANDS) {
+            long reflection = Long.MAX_VALUE;
+            long registry = Long.MAX_VALUE;
+            long spawn = Long.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++) {
+                reflection = Math.min(reflection, reflection(command, shell, iterations));
+                registry = Math.min(registry, registry(kernel, command, shell, iterations));
+                spawn = Math.min(spawn, spawn(kernel, command, shell, iterations));
+            }
+            System.out.println("| " + join(command) + " | " + reflection + " ns | " + registry + " ns | " + spawn + " ns |");
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Creates processes by reflection.
+     *
+     * @param command command with arguments
+     * @param shell parent shell
+     * @param iterations number of processes
+     * @return nanoseconds per process
+     */
+    private static long reflection(String[] command, Shell shell, int iterations) throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) reflect(command[0], arguments(command, shell));
+        return (System.nanoTime() - start) / iterations;
+    }
+
+    /**
+     * Creates processes by the factories of the registry.
+     *
+     * @param kernel kernel
+     * @param command command with arguments
+     * @param shell parent shell
+     * @param iterations number of processes
+     * @return nanoseconds per process
+     */
+    private static long registry(Kernel kernel, String[] command, Shell shell, int iterations) throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            ProcessRegistry.Entry entry = kernel.getRegistry().lookup(command[0]);
+            if (entry != null) entry.newInstance(arguments(command, shell));
+        }
+        return (System.nanoTime() - start) / iterations;
+    }
+
+    /**
+     * Creates processes by the kernel and removes them from the process table.
+     *
+     * @param kernel kernel
+     * @param command command with arguments
+     * @param shell parent shell
+     * @param iterations number of processes
+     * @return nanoseconds per process
+     */
+    private static long spawn(Kernel kernel, String[] command, Shell shell, int iterations) {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            int pid = kernel.newProcess(command[0], arguments(command, shell));
+            AbstractProcess process = pid < 0 ? null : kernel.getProcess(pid);
+            if (process != null) kernel.removeReference(process);
+        }
+        return (System.nanoTime() - start) / iterations;
+    }
+
+    /**
+     * Creates a process by reflection. Processes with options have a String[] constructor.
+     *
+     * @param name process name
+     * @param arguments constructor parameters
+     * @return process or null if there is no such a process
+     */
+    private static AbstractProcess reflect(String name, Object[] arguments) throws InvocationTargetException, InstantiationException, IllegalAccessException {
+        Class<?> type;
+        try {
+            type = Class.forName(Kernel.PACKAGE + "." + name.substring(0, 1).toUpperCase() + name.substring(1).toLowerCase());
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+        Class<?>[] types = new Class<?>[arguments.length];
+        types[0] = int.class;
+        types[1] = int.class;
+        types[2] = BBPipedInputStream.class;
+        types[3] = List.class;
+        types[4] = Shell.class;
+        for (int i = 5; i < arguments.length; i++) types[i] = arguments[i].getClass();
+        try {
+            return (AbstractProcess) type.getConstructor(types).newInstance(arguments);
+        } catch (NoSuchMethodException e) {
+            Class<?>[] packed = Arrays.copyOf(types, 6);
+            packed[5] = String[].class;
+            Object[] options = Arrays.copyOf(arguments, 6);
+            options[5] = Arrays.copyOfRange(arguments, 5, arguments.length, String[].class);
+            try {
+                return (AbstractProcess) type.getConstructor(packed).newInstance(options);
+            } catch (NoSuchMethodException wrong) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Gets constructor parameters of a command. The process writes into no pipe.
+     *
+     * @param command command with arguments
+     * @param shell parent shell
+     * @return pid, parent pid, input, commands, shell and options
+     */
+    private static Object[] arguments(String[] command, Shell shell) {
+        Object[] arguments = new Object[command.length + 4];
+        arguments[0] = 0;
+        arguments[1] = 0;
+        arguments[2] = null;
+        arguments[3] = new ArrayList<List<String>>();
+        arguments[4] = shell;
+        System.arraycopy(command, 1, arguments, 5, command.length - 1);
+        return arguments;
+    }
+
+    /**
+     * Creates a shell process without a console.
+     *
+     * @return shell
+     */
+    private static Shell shell() throws Exception {
+        List<List<String>> commands = new ArrayList<List<String>>();
+        commands.add(new ArrayList<String>(Arrays.asList("bench")));
+        return new Shell(0, 0, null, commands, null);
+    }
+
+    /**
+     * Joins a command.
+     *
+     * @param command command with arguments
+     * @return command line
+     */
+    private static String join(String[] command) {
+        StringBuilder line = new StringBuilder();
+        for (String part : command) line.append(line.length() > 0 ? " " : "").append(part);
+        return line.toString();
+    }
+}
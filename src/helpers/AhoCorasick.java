@@ -0,0 +1,212 @@
+package helpers;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Aho-Corasick automaton searching many byte patterns in one pass. States are numbered breadth first,
+ * so the children of a state have consecutive numbers sorted by their bytes and the goto function
+ * needs no table - a child is found by a binary search of the children. The first states, the shortest
+ * prefixes where most of the text is matched, also have a full row of transitions, so a byte costs
+ * one table lookup there. Deeper states follow their failure links. The memory grows with the length
+ * of the patterns, not with their number times the alphabet. Bytes which are not in any pattern share
+ * one class. Case of ASCII letters can be ignored.
+ *
+ * @author Radek Bouda
+ */
+public class AhoCorasick {
+    /** Maximal size of the table of the first states */
+    private static final int DENSE_TRANSITIONS = 1 << 18;
+
+    /** Number of byte classes */
+    private final int classes;
+    /** Class of each byte */
+    private final int[] classOf = new int[256];
+    /** Number of the first states with a full row of transitions */
+    private final int dense;
+    /** Transitions of the first states, state * classes + class */
+    private final int[] delta;
+    /** First child of each state, the children of a state end at the first child of the next one */
+    private final int[] children;
+    /** Class of the byte leading to each state */
+    private final byte[] label;
+    /** Failure link of each state - the state of the longest proper suffix */
+    private final int[] fail;
+    /** States ending a pattern, also through a suffix */
+    private final boolean[] accepting;
+    /** Some pattern is empty, every text matches */
+    private final boolean matchesAll;
+
+    /**
+     * Builds the automaton.
+     *
+     * @param patterns patterns
+     * @param ignoreCase ignore case of ASCII letters
+     */
+    public AhoCorasick(List<byte[]> patterns, boolean ignoreCase) {
+        int count = 0;
+        int[] folded = new int[256];
+        for (int b = 0; b < 256; b++) folded[b] = ignoreCase && b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b;
+        Arrays.fill(classOf, -1);
+        for (byte[] pattern : patterns) {
+            for (byte b : pattern) {
+                int f = folded[b & 0xFF];
+                if (classOf[f] < 0) classOf[f] = count++;
+            }
+        }
+        for (int b = 0; b < 256; b++) classOf[b] = classOf[folded[b]] < 0 ? count : classOf[folded[b]];
+        this.classes = count + 1;                       // Last class - bytes of no pattern
+
+        byte[][] words = new byte[patterns.size()][];   // Patterns as classes, sorted
+        boolean empty = false;
+        long length = 0;
+        for (int i = 0; i < words.length; i++) {
+            byte[] pattern = patterns.get(i);
+            words[i] = new byte[pattern.length];
+            for (int j = 0; j < pattern.length; j++) words[i][j] = (byte) classOf[pattern[j] & 0xFF];
+            empty |= pattern.length == 0;
+            length += pattern.length;
+        }
+        this.matchesAll = empty;
+        Arrays.sort(words, new Comparator<byte[]>() {
+            @Override
+            public int compare(byte[] a, byte[] b) {
+                for (int i = 0, n = Math.min(a.length, b.length); i < n; i++) {
+                    if (a[i] != b[i]) return (a[i] & 0xFF) - (b[i] & 0xFF);
+                }
+                return a.length - b.length;
+            }
+        });
+
+        if (length >= Integer.MAX_VALUE) throw new IllegalArgumentException("Patterns are too long");
+        int size = (int) length + 1;
+        int[] firstChild = new int[size];               // Trie of the sorted patterns, the children of a node in order
+        int[] lastChild = new int[size];
+        int[] sibling = new int[size];
+        byte[] edge = new byte[size];
+        boolean[] ends = new boolean[size];
+        Arrays.fill(firstChild, -1);
+        int nodes = 1;                                  // Node 0 - root
+        for (byte[] word : words) {
+            int node = 0;
+            for (byte c : word) {
+                int last = lastChild[node];
+                if (firstChild[node] >= 0 && edge[last] == c) {
+                    node = last;                        // Sorted, a shared prefix ends in the last child
+                    continue;
+                }
+                int child = nodes++;
+                edge[child] = c;
+                sibling[child] = -1;
+                if (firstChild[node] < 0) firstChild[node] = child;
+                else sibling[last] = child;
+                lastChild[node] = child;
+                node = child;
+            }
+            ends[node] = true;
+        }
+
+        int[] order = new int[nodes];                   // Breadth first numbering
+        int[] parents = new int[nodes];
+        this.children = new int[nodes + 1];
+        this.label = new byte[nodes];
+        this.accepting = new boolean[nodes];
+        int tail = 1;
+        for (int state = 0; state < nodes; state++) {
+            int node = order[state];
+            accepting[state] = ends[node];
+            children[state] = tail;
+            for (int child = firstChild[node]; child >= 0; child = sibling[child]) {
+                label[tail] = edge[child];
+                parents[tail] = state;
+                order[tail++] = child;
+            }
+        }
+        children[nodes] = tail;
+
+        this.dense = Math.min(nodes, Math.max(1, DENSE_TRANSITIONS / classes));
+        this.delta = new int[dense * classes];
+        this.fail = new int[nodes];
+        fillRow(0);
+        for (int state = 1; state < nodes; state++) {   // Failures of shorter states are ready
+            int parent = parents[state];
+            fail[state] = parent == 0 ? 0 : step(fail[parent], label[state] & 0xFF);
+            accepting[state] |= accepting[fail[state]];
+            if (state < dense) fillRow(state);
+        }
+    }
+
+    /**
+     * Fills the full row of transitions of a first state. The row of its failure state must be ready.
+     *
+     * @param state state
+     */
+    private void fillRow(int state) {
+        for (int c = 0; c < classes; c++) delta[state * classes + c] = state == 0 ? 0 : delta[fail[state] * classes + c];
+        for (int child = children[state]; child < children[state + 1]; child++) delta[state * classes + (label[child] & 0xFF)] = child;
+    }
+
+    /**
+     * Gets the child of a state by a byte class.
+     *
+     * @param state state
+     * @param c byte class
+     * @return child or -1 if there is none
+     */
+    private int child(int state, int c) {
+        int low = children[state], high = children[state + 1] - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int found = label[middle] & 0xFF;
+            if (found < c) low = middle + 1;
+            else if (found > c) high = middle - 1;
+            else return middle;
+        }
+        return -1;
+    }
+
+    /**
+     * Moves from a state by a byte class.
+     *
+     * @param state state
+     * @param c byte class
+     * @return next state
+     */
+    private int step(int state, int c) {
+        while (state >= dense) {
+            int next = child(state, c);
+            if (next >= 0) return next;
+            state = fail[state];
+        }
+        return delta[state * classes + c];
+    }
+
+    /**
+     * Checks if the text contains some pattern.
+     *
+     * @param data bytes
+     * @param off start of the text
+     * @param len length of the text
+     * @return true/false
+     */
+    public boolean matches(byte[] data, int off, int len) {
+        if (matchesAll) return true;
+        int state = 0;
+        for (int i = off, end = off + len; i < end; i++) {
+            int c = classOf[data[i] & 0xFF];
+            state = state < dense ? delta[state * classes + c] : step(state, c);
+            if (accepting[state]) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Gets the number of states.
+     *
+     * @return number of states
+     */
+    public int getStates() {
+        return accepting.length;
+    }
+}
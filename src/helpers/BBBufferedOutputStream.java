@@ -0,0 +1,166 @@
+package helpers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * @author Radek Bouda
+ * Pipe output with a buffer owned by the writing process. Small writes are collected and passed
+ * to the pipe at once, so the reader is not woken up for every piece. A pipe read by a user
+ * (see {@link BBPipedInputStream#isInteractive()}) gets every line as soon as it is complete,
+ * other pipes get whole blocks. The buffer is flushed by flush and close of the writer.
+ *
+ * Records written to a record pipe are not buffered here, the pipe batches them itself.
+ * Only the writer touches the buffer, a killed process flushes it when it closes its output at its end.
+ */
+public class BBBufferedOutputStream extends BBPipedOutputStream {
+    /** Size of the buffer */
+    public static final int BLOCK_SIZE = 16384;
+
+    /** Buffered bytes, allocated by the first write */
+    private byte[] buffer;
+    private int count = 0;
+    /** Flush every line */
+    private final boolean lineFlush;
+    /** Pipe frames records itself */
+    private final boolean records;
+    /** Thread which writes into the buffer */
+    private Thread owner;
+
+    /**
+     * Creates a buffered output connected to a pipe.
+     *
+     * @param snk pipe
+     * @throws IOException if the pipe is already connected
+     */
+    public BBBufferedOutputStream(BBPipedInputStream snk) throws IOException {
+        super(snk);
+        this.lineFlush = snk.isInteractive();
+        this.records = snk instanceof BBRecordInputStream;
+    }
+
+    /**
+     * Writes a byte into the buffer.
+     *
+     * @param b byte
+     * @throws IOException if the pipe is closed
+     */
+    @Override
+    public void write(int b) throws IOException {
+        if (count == 0) ensureBuffer();
+        buffer[count++] = (byte) b;
+        if (count == buffer.length || (lineFlush && b == '\n')) flushBuffer();
+    }
+
+    /**
+     * Writes bytes into the buffer. Writes longer than the buffer go straight to the pipe.
+     *
+     * @param b the data
+     * @param off the start offset in the data
+     * @param len the number of bytes to write
+     * @throws IOException if the pipe is closed
+     */
+    @Override
+    public void write(byte b[], int off, int len) throws IOException {
+        if (len >= BLOCK_SIZE) {
+            flushBuffer();
+            super.write(b, off, len);
+            return;
+        }
+        if (count == 0) ensureBuffer();
+        else if (len > buffer.length - count) flushBuffer();
+        System.arraycopy(b, off, buffer, count, len);
+        count += len;
+        if (lineFlush && hasNewline(b, off, len)) flushBuffer();
+    }
+
+    /**
+     * Writes a line record. A record pipe gets it as a record, other pipes get the bytes and the newline.
+     *
+     * @param b the data
+     * @param off the start offset of the record
+     * @param len the length of the record without the newline
+     * @throws IOException if the pipe is closed
+     */
+    @Override
+    public void writeRecord(byte b[], int off, int len) throws IOException {
+        if (records || len >= BLOCK_SIZE) {
+            flushBuffer();
+            super.writeRecord(b, off, len);
+            return;
+        }
+        if (count == 0) ensureBuffer();
+        else if (len + 1 > buffer.length - count) flushBuffer();
+        System.arraycopy(b, off, buffer, count, len);
+        count += len;
+        buffer[count++] = '\n';
+        if (lineFlush) flushBuffer();
+    }
+
+    /**
+     * Gets an empty chunk of the pipe. Buffered bytes go first.
+     *
+     * @return empty chunk
+     * @throws IOException if the pipe is closed
+     */
+    @Override
+    public ByteBuffer acquireChunk() throws IOException {
+        flushBuffer();
+        return super.acquireChunk();
+    }
+
+    /**
+     * Passes buffered bytes to the pipe and wakes up the reader.
+     *
+     * @throws IOException if the pipe is closed
+     */
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        super.flush();
+    }
+
+    /**
+     * Closes the output. The writer flushes the buffer first, others (the fallback of a kill) only close the pipe.
+     *
+     * @throws IOException if the pipe is closed
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (Thread.currentThread() == owner) flushBuffer();
+        } finally {
+            super.close();
+        }
+    }
+
+    /**
+     * Passes buffered bytes to the pipe.
+     *
+     * @throws IOException if the pipe is closed
+     */
+    private void flushBuffer() throws IOException {
+        if (count == 0) return;
+        int amount = count;
+        count = 0;
+        super.write(buffer, 0, amount);
+    }
+
+    /**
+     * Allocates the buffer and takes the ownership of it.
+     */
+    private void ensureBuffer() {
+        if (buffer == null) buffer = new byte[BLOCK_SIZE];
+        owner = Thread.currentThread();
+    }
+
+    /**
+     * Checks if there is a newline in the data.
+     */
+    private static boolean hasNewline(byte b[], int off, int len) {
+        for (int i = off + len - 1; i >= off; i--) {
+            if (b[i] == '\n') return true;
+        }
+        return false;
+    }
+}
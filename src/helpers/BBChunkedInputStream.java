@@ -0,0 +1,241 @@
+package helpers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * @author Radek Bouda
+ * Pipe which passes whole chunks instead of bytes. The writer gets an empty chunk, fills it
+ * and publishes it, the reader takes the very same chunk and gives it back when it is consumed.
+ * Consumed chunks are recycled, so there is no copy between the processes using the chunk API
+ * (f.e. Cat reading a file straight into a chunk). Stream reads and writes are adapters over
+ * the chunks. Chunks are segments taken lazily from the SegmentPool, up to the capacity of the pipe,
+ * and they are given back when both sides are finished.
+ *
+ * A partially filled chunk of the stream adapter is published when the reader has nothing to do,
+ * on flush and on close.
+ */
+public class BBChunkedInputStream extends BBPipedInputStream {
+    /** Maximal number of chunks of the pipe */
+    private final int maxChunks;
+    /** Chunks filled by the writer, waiting for the reader */
+    private final SpscQueue<ByteBuffer> filled;
+    /** Chunks consumed by the reader, waiting for the writer */
+    private final SpscQueue<ByteBuffer> recycled;
+
+    /** Number of allocated chunks. Owned by the writer. */
+    private int allocated = 0;
+    /** Free chunk kept by the writer. Owned by the writer. */
+    private ByteBuffer spare;
+    /** Chunk being filled by the stream adapter. Owned by the writer. */
+    private ByteBuffer writing;
+    /** Chunk being read by the stream adapter. Owned by the reader. */
+    private ByteBuffer reading;
+
+    /**
+     * Creates a new chunked pipe. Chunks have the size of a pool segment.
+     *
+     * @param pipeSize capacity of the pipe
+     */
+    public BBChunkedInputStream(int pipeSize) {
+        super(pipeSize, false);
+        if (pipeSize <= 0) {
+            throw new IllegalArgumentException("Pipe Size <= 0");
+        }
+        this.maxChunks = Math.max(2, pipeSize / segmentSize);
+        this.filled = new SpscQueue<ByteBuffer>(maxChunks);
+        this.recycled = new SpscQueue<ByteBuffer>(maxChunks);
+    }
+
+    @Override
+    ByteBuffer acquireChunk() throws IOException {
+        checkStateForReceive();
+        markWriter();
+        if (writing != null) publishWriting();          // Keeps the order with stream writes
+        return nextFree();
+    }
+
+    @Override
+    void publishChunk(ByteBuffer chunk) throws IOException {
+        checkStateForReceive();
+        chunk.flip();
+        if (chunk.hasRemaining()) filled.put(chunk);
+        else spare = chunk;
+    }
+
+    @Override
+    protected void receive(int b) throws IOException {
+        checkStateForReceive();
+        markWriter();
+        if (writing == null) writing = nextFree();
+        writing.put((byte) b);
+        if (!writing.hasRemaining() || filled.size() == 0) publishWriting();
+    }
+
+    @Override
+    void receive(byte b[], int off, int len) throws IOException {
+        checkStateForReceive();
+        markWriter();
+        while (len > 0) {
+            if (writing == null) writing = nextFree();
+            int amount = Math.min(len, writing.remaining());
+            writing.put(b, off, amount);
+            off += amount;
+            len -= amount;
+            if (!writing.hasRemaining()) publishWriting();
+        }
+        if (writing != null && filled.size() == 0) publishWriting();     // Reader is idle
+    }
+
+    /**
+     * Remembers the writer thread. Avoids a volatile write on every call.
+     */
+    private void markWriter() {
+        Thread current = Thread.currentThread();
+        if (writeSide != current) writeSide = current;
+    }
+
+    /**
+     * Gets a free chunk. Recycled first, then a new one, then waits for the reader.
+     *
+     * @return empty chunk
+     * @throws IOException if the pipe is closed by the reader
+     */
+    private ByteBuffer nextFree() throws IOException {
+        ByteBuffer chunk = spare;
+        spare = null;
+        if (chunk == null) chunk = recycled.poll();
+        if (chunk == null) {
+            if (allocated < maxChunks) {
+                allocated++;
+                chunk = ByteBuffer.wrap(pool.acquire());
+            } else {
+                chunk = recycled.take();
+                if (chunk == null) throw new IOException("Pipe closed");
+            }
+        }
+        chunk.clear();
+        return chunk;
+    }
+
+    /**
+     * Publishes the chunk of the stream adapter.
+     *
+     * @throws IOException if the pipe is closed
+     */
+    private void publishWriting() throws IOException {
+        ByteBuffer chunk = writing;
+        writing = null;
+        chunk.flip();
+        filled.put(chunk);
+    }
+
+    @Override
+    void signalReader() throws IOException {
+        if (Thread.currentThread() == writeSide && writing != null) publishWriting();
+    }
+
+    @Override
+    void receivedLast() {
+        try {
+            if (Thread.currentThread() == writeSide && writing != null) publishWriting();
+        } catch (IOException e) {
+            // Closed by reader, nothing to deliver
+        }
+        closedByWriter = true;
+        filled.close();
+        writerClosed();
+    }
+
+    /**
+     * Makes sure the stream adapter has a chunk with some data.
+     *
+     * @return false in case of end of the stream
+     * @throws IOException if the reader is interrupted
+     */
+    private boolean nextReadable() throws IOException {
+        while (reading == null || !reading.hasRemaining()) {
+            if (reading != null) releaseChunk(reading);
+            reading = filled.take();
+            if (reading == null) {
+                readerClosed();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkStateForRead();
+        if (!nextReadable()) return -1;
+        return reading.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte b[], int off, int len) throws IOException {
+        if (b == null) {
+            throw new NullPointerException();
+        } else if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        } else if (len == 0) {
+            return 0;
+        }
+        checkStateForRead();
+        if (!nextReadable()) return -1;
+        int amount = Math.min(len, reading.remaining());
+        reading.get(b, off, amount);
+        return amount;
+    }
+
+    @Override
+    public ByteBuffer takeChunk() throws IOException {
+        checkStateForRead();
+        if (!nextReadable()) return null;
+        ByteBuffer chunk = reading;
+        reading = null;
+        return chunk;
+    }
+
+    @Override
+    public void releaseChunk(ByteBuffer chunk) {
+        try {
+            recycled.put(chunk);                        // Never full, there are at most maxChunks chunks
+        } catch (IOException e) {
+            // Closed by reader, chunk is garbage
+        }
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (closedByReader || reading == null) return 0;
+        return reading.remaining();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closedByReader = true;
+        recycled.close();                               // Wakes up the writer waiting for a chunk
+        readerClosed();
+    }
+
+    @Override
+    protected void releaseSegments() {
+        release(spare);
+        release(writing);
+        release(reading);
+        spare = writing = reading = null;
+        ByteBuffer chunk;
+        while ((chunk = filled.poll()) != null) release(chunk);
+        while ((chunk = recycled.poll()) != null) release(chunk);
+    }
+
+    /**
+     * Gives a chunk back to the pool.
+     *
+     * @param chunk chunk or null
+     */
+    private void release(ByteBuffer chunk) {
+        if (chunk != null) pool.release(chunk.array());
+    }
+}
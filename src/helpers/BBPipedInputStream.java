@@ -2,29 +2,51 @@ package helpers;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * @author Radek Bouda (originally James Gosling)
  * This class is used to realize pipes which are used to communicate between processes.
- * This class is actually a copy of PipedInputStream created by James Gosling.
- * Only difference is, that BBPipedInputStream uses 10ms wait on calling read().
- * Original PipedInputStream uses 1000ms wait, what is way too long.
+ * It started as a copy of PipedInputStream created by James Gosling, now it is a lock-free
+ * single-producer/single-consumer ring buffer. Head and tail are padded sequences owned by
+ * the reader and the writer, no monitor is taken per byte. A blocked side is parked and
+ * woken up explicitly by the other side, so an idle pipe costs no wakeups at all.
+ *
+ * The buffer is a chain of small segments from the kernel-wide SegmentPool. The writer takes
+ * a segment only when it needs one and the reader gives consumed segments back, so the pipe
+ * holds just what the reader is behind. The pipe size is only the limit of buffered bytes.
+ * Remaining segments are given back when both sides are finished.
  */
 public class BBPipedInputStream extends InputStream {
 
-    boolean closedByWriter = false;
+    volatile boolean closedByWriter = false;
     volatile boolean closedByReader = false;
-    boolean connected = false;
+    volatile boolean connected = false;
 
-    /* REMIND: identification of the read and write sides needs to be
-       more sophisticated.  Either using thread groups (but what about
-       pipes within a thread?) or using finalization (but it may be a
-       long time until the next GC). */
-    Thread readSide;
-    Thread writeSide;
+    /** Threads on both sides of the pipe. Needed to unpark them. */
+    volatile Thread readSide;
+    volatile Thread writeSide;
+
+    /** Parked flags. Each is written only by its own side before parking. */
+    volatile boolean readerParked = false;
+    volatile boolean writerParked = false;
+
+    /** Reader shows the data to a user, buffered writers flush every line */
+    private volatile boolean interactive = false;
+
+    /** File the reader copies the pipe into, writers may write straight into it */
+    private volatile FileChannel fileSink;
 
     private static final int DEFAULT_PIPE_SIZE = 1024;
 
+    /** Finished sides of the pipe */
+    private static final int WRITER_FINISHED = 1;
+    private static final int READER_FINISHED = 2;
+
     /**
      * The default size of the pipe's circular input buffer.
      * @since   JDK1.1
@@ -34,27 +56,90 @@ public class BBPipedInputStream extends InputStream {
     // for backward compatibility.
     protected static final int PIPE_SIZE = DEFAULT_PIPE_SIZE;
 
-    /**
-     * The circular buffer into which incoming data is placed.
-     * @since   JDK1.1
-     */
-    protected byte buffer[];
+    /** Pool of segments shared by all the pipes */
+    protected final SegmentPool pool = SegmentPool.getInstance();
 
-    /**
-     * The index of the position in the circular buffer at which the
-     * next byte of data will be stored when received from the connected
-     * piped output stream. <code>in&lt;0</code> implies the buffer is empty,
-     * <code>in==out</code> implies the buffer is full
-     * @since   JDK1.1
-     */
-    protected int in = -1;
+    /** Maximal number of buffered bytes */
+    protected long capacity;
+
+    /** Size of a segment and its mask. */
+    protected final int segmentSize = pool.getSegmentSize();
+    protected final int segmentMask = segmentSize - 1;
+
+    /** Finished sides, both finished means nobody touches the segments anymore. */
+    private final AtomicInteger finished = new AtomicInteger();
+
+    /** Position of the next byte to be read. Owned by the reader. */
+    protected final Sequence head = new Sequence();
+
+    /** Position of the next byte to be written. Owned by the writer. */
+    protected final Sequence tail = new Sequence();
+
+    /** First segment. Written once by the writer before publishing the first byte. */
+    private volatile Segment first;
+
+    /** Segment being written and position of its end. Owned by the writer. */
+    private Segment writeSegment;
+    private long writeEnd = 0;
+    /** Chunk acquired by the writer and its position. Owned by the writer. */
+    private ByteBuffer writeChunk;
+    private long writeChunkAt;
+
+    /** Segment being read and position of its end. Owned by the reader. */
+    private Segment readSegment;
+    private long readEnd = 0;
+    /** Chunk taken by the reader and its position. Owned by the reader. */
+    private ByteBuffer readChunk;
+    private long readChunkAt;
 
     /**
-     * The index of the position in the circular buffer at which the next
-     * byte of data will be read by this piped input stream.
-     * @since   JDK1.1
+     * Segment of the pipe. Bytes from the pool and link to the next one.
+     * Subclasses may keep the bytes elsewhere, f.e. in a mapped file.
      */
-    protected int out = 0;
+    static class Segment {
+        final byte[] data;
+        volatile Segment next;
+
+        Segment(byte[] data) {
+            this.data = data;
+        }
+
+        void put(int index, byte b) {
+            data[index] = b;
+        }
+
+        byte get(int index) {
+            return data[index];
+        }
+
+        void write(int index, byte[] b, int off, int len) {
+            System.arraycopy(b, off, data, index, len);
+        }
+
+        void read(int index, byte[] b, int off, int len) {
+            System.arraycopy(data, index, b, off, len);
+        }
+
+        /**
+         * Gets a view of the segment used as a chunk.
+         *
+         * @param index start of the view
+         * @param len length of the view
+         * @return view
+         */
+        ByteBuffer view(int index, int len) {
+            return ByteBuffer.wrap(data, index, len).slice();
+        }
+
+        /**
+         * Gives the bytes of the segment back. Called once the segment is consumed or the pipe finished.
+         *
+         * @param pool pool of the pipe
+         */
+        void release(SegmentPool pool) {
+            pool.release(data);
+        }
+    }
 
     /**
      * Creates a <code>PipedInputStream</code> so
@@ -92,10 +177,9 @@ public class BBPipedInputStream extends InputStream {
 
     /**
      * Creates a <code>PipedInputStream</code> so
-     * connected}.
-     * It must be {@linkplain java.io.PipedOutputStream#connect(
-     * java.io.PipedInputStream) connected} to a
-     * <code>PipedOutputStream</code> before being used.
+     * that it is not yet connected.
+     * It must be connected to a
+     * <code>BBPipedOutputStream</code> before being used.
      */
     public BBPipedInputStream() {
         initPipe(DEFAULT_PIPE_SIZE);
@@ -103,12 +187,10 @@ public class BBPipedInputStream extends InputStream {
 
     /**
      * Creates a <code>PipedInputStream</code> so that it is not yet
-     * uses the specified pipe size for the pipe's buffer.
-     * It must be {@linkplain java.io.PipedOutputStream#connect(
-     * java.io.PipedInputStream)
-     * connected} to a <code>PipedOutputStream</code> before being used.
+     * connected and uses the specified pipe size for the pipe's buffer.
+     * It must be connected to a <code>BBPipedOutputStream</code> before being used.
      *
-     * @param      pipeSize the size of the pipe's buffer.
+     * @param      pipeSize maximal number of bytes buffered by the pipe.
      * @exception  IllegalArgumentException if {@code pipeSize <= 0}.
      * @since      1.6
      */
@@ -116,11 +198,27 @@ public class BBPipedInputStream extends InputStream {
         initPipe(pipeSize);
     }
 
+    /**
+     * Creates a pipe which does not allocate the byte ring. Used by subclasses
+     * which keep their data in other structures and override both sides of the pipe.
+     *
+     * @param      pipeSize the size of the pipe
+     * @param      ring whether to allocate the byte ring
+     */
+    protected BBPipedInputStream(int pipeSize, boolean ring) {
+        if (ring) initPipe(pipeSize);
+    }
+
+    /**
+     * Sets the limit of the pipe. No memory is taken until the first write.
+     *
+     * @param pipeSize maximal number of buffered bytes
+     */
     private void initPipe(int pipeSize) {
         if (pipeSize <= 0) {
             throw new IllegalArgumentException("Pipe Size <= 0");
         }
-        buffer = new byte[pipeSize];
+        capacity = pipeSize;
     }
 
     /**
@@ -151,99 +249,267 @@ public class BBPipedInputStream extends InputStream {
     }
 
     /**
-     * Receives a byte of data.  This method will block if no input is
-     * available.
+     * Receives a byte of data.  This method will block if there is
+     * no free space in the buffer.
      * @param b the byte being received
      * @exception IOException If the pipe is <a href="#BROKEN"> <code>broken</code></a>,
      *          closed, or if an I/O error occurs.
      * @since     JDK1.1
      */
-    protected synchronized void receive(int b) throws IOException {
+    protected void receive(int b) throws IOException {
         checkStateForReceive();
-        writeSide = Thread.currentThread();
-        if (in == out)
-            awaitSpace();
-        if (in < 0) {
-            in = 0;
-            out = 0;
-        }
-        buffer[in++] = (byte)(b & 0xFF);
-        if (in >= buffer.length) {
-            in = 0;
-        }
+        long t = tail.get();
+        writable(t);
+        writeSegment.put((int) t & segmentMask, (byte)(b & 0xFF));
+        publish(t + 1);
     }
 
     /**
      * Receives data into an array of bytes.  This method will
-     * block until some input is available.
+     * block until all the bytes are placed into the buffer.
      * @param b the buffer into which the data is received
      * @param off the start offset of the data
      * @param len the maximum number of bytes received
      * @exception IOException If the pipe is <a href="#BROKEN"> broken</a>,
      *           closed,or if an I/O error occurs.
      */
-    synchronized void receive(byte b[], int off, int len)  throws IOException {
+    void receive(byte b[], int off, int len)  throws IOException {
         checkStateForReceive();
-        writeSide = Thread.currentThread();
-        int bytesToTransfer = len;
-        while (bytesToTransfer > 0) {
-            if (in == out)
-                awaitSpace();
-            int nextTransferAmount = 0;
-            if (out < in) {
-                nextTransferAmount = buffer.length - in;
-            } else if (in < out) {
-                if (in == -1) {
-                    in = out = 0;
-                    nextTransferAmount = buffer.length - in;
-                } else {
-                    nextTransferAmount = out - in;
-                }
-            }
-            if (nextTransferAmount > bytesToTransfer)
-                nextTransferAmount = bytesToTransfer;
-            assert(nextTransferAmount > 0);
-            System.arraycopy(b, off, buffer, in, nextTransferAmount);
-            bytesToTransfer -= nextTransferAmount;
-            off += nextTransferAmount;
-            in += nextTransferAmount;
-            if (in >= buffer.length) {
-                in = 0;
-            }
+        while (len > 0) {
+            long t = tail.get();
+            int amount = Math.min(len, writable(t));
+            writeSegment.write((int) t & segmentMask, b, off, amount);
+            off += amount;
+            len -= amount;
+            publish(t + amount);
+        }
+    }
+
+    /**
+     * Receives a line record. A byte pipe just adds the newline,
+     * record pipes keep the frame.
+     *
+     * @param b the buffer with the record
+     * @param off the start offset of the record
+     * @param len the length of the record without the newline
+     * @exception IOException If the pipe is closed or if an I/O error occurs.
+     */
+    void receiveRecord(byte b[], int off, int len) throws IOException {
+        if (len > 0) receive(b, off, len);
+        receive('\n');
+    }
+
+    /**
+     * Makes sure there is some free space for the writer. Waits while the pipe is full
+     * and takes a new segment when the current one is full.
+     *
+     * @param t current tail
+     * @return number of bytes which can be written into the current segment
+     * @throws IOException if the pipe is closed or the writer is interrupted
+     */
+    private int writable(long t) throws IOException {
+        if (t - tail.getCached() >= capacity) {
+            tail.setCached(head.get());
+            if (t - tail.getCached() >= capacity) awaitSpace(t);
+        }
+        if (t == writeEnd) {
+            Thread current = Thread.currentThread();
+            if (writeSide != current) writeSide = current;
+            Segment segment = newSegment(t);
+            if (writeSegment == null) first = segment;
+            else writeSegment.next = segment;        // Linked before any byte of it is published
+            writeSegment = segment;
+            writeEnd = t + segmentSize;
         }
+        return (int) Math.min(writeEnd - t, capacity - (t - tail.getCached()));
+    }
+
+    /**
+     * Creates the next segment of the pipe. Called by the writer when the current segment is full.
+     *
+     * @param t position of the first byte of the segment
+     * @return empty segment
+     * @throws IOException if the segment cannot be created
+     */
+    protected Segment newSegment(long t) throws IOException {
+        return new Segment(pool.acquire());
+    }
+
+    /**
+     * Publishes written bytes to the reader and wakes it up if it is parked.
+     *
+     * @param t new tail
+     */
+    private void publish(long t) {
+        tail.set(t);                                // Volatile write before reading the flag
+        if (readerParked) LockSupport.unpark(readSide);
     }
 
-    private void checkStateForReceive() throws IOException {
+    void checkStateForReceive() throws IOException {
         if (!connected) {
             throw new IOException("Pipe not connected");
         } else if (closedByWriter || closedByReader) {
             throw new IOException("Pipe closed");
-        } else if (readSide != null && !readSide.isAlive()) {
-            throw new IOException("Read end dead");
         }
     }
 
-    private void awaitSpace() throws IOException {
-        while (in == out) {
+    /**
+     * Parks the writer until there is some free space.
+     * Refreshes the writer's cached head.
+     *
+     * @param t current tail
+     * @throws IOException if the pipe is closed or the writer is interrupted
+     */
+    private void awaitSpace(long t) throws IOException {
+        long h = head.get();
+        while (t - h >= capacity) {
             checkStateForReceive();
-
-            /* full: kick any waiting readers */
-            notifyAll();
-            try {
-                wait(1000);
-            } catch (InterruptedException ex) {
-                throw new java.io.InterruptedIOException();
-            }
+            writeSide = Thread.currentThread();
+            writerParked = true;                    // Volatile write before re-reading head
+            h = head.get();
+            if (t - h >= capacity && !closedByReader) LockSupport.park(this);
+            writerParked = false;
+            if (Thread.interrupted()) throw new InterruptedIOException();
+            h = head.get();
         }
+        tail.setCached(h);
     }
 
     /**
-     * Notifies all waiting threads that the last byte of data has been
+     * Notifies the reader that the last byte of data has been
      * received.
      */
-    synchronized void receivedLast() {
+    void receivedLast() {
         closedByWriter = true;
-        notifyAll();
+        LockSupport.unpark(readSide);
+        writerClosed();
+    }
+
+    /**
+     * Finishes the writer side if the pipe is closed by the writer itself. When a process is killed,
+     * its output is closed by someone else while the writer may still touch its segment,
+     * the writer finishes later when it closes the pipe by itself.
+     */
+    void writerClosed() {
+        Thread writer = writeSide;
+        if (writer == null || writer == Thread.currentThread()) finish(WRITER_FINISHED);
+    }
+
+    /**
+     * Finishes the reader side.
+     */
+    void readerClosed() {
+        finish(READER_FINISHED);
+    }
+
+    /**
+     * Marks a side of the pipe as finished. The side which finishes last gives
+     * the remaining segments back to the pool.
+     *
+     * @param side WRITER_FINISHED or READER_FINISHED
+     */
+    private void finish(int side) {
+        int state;
+        do {
+            state = finished.get();
+            if ((state & side) != 0) return;        // Finished before
+        } while (!finished.compareAndSet(state, state | side));
+        if ((state | side) == (WRITER_FINISHED | READER_FINISHED)) releaseSegments();
+    }
+
+    /**
+     * Gives all the remaining segments back to the pool. Called when both sides are finished.
+     */
+    protected void releaseSegments() {
+        Segment segment = readSegment != null ? readSegment : first;
+        while (segment != null) {
+            segment.release(pool);
+            segment = segment.next;
+        }
+        first = null;
+        readSegment = null;
+        writeSegment = null;
+    }
+
+    /**
+     * Wakes up the reader if it is parked. Data are always published eagerly,
+     * so this is needed only by flush.
+     *
+     * @exception IOException if the pipe is closed
+     */
+    void signalReader() throws IOException {
+        if (readerParked) LockSupport.unpark(readSide);
+    }
+
+    /**
+     * Parks the reader until some data are available or the writer closes the pipe.
+     * Refreshes the reader's cached tail.
+     *
+     * @param h current head
+     * @return true if some data are available, false in case of end of the stream
+     * @throws IOException if the pipe is closed or the reader is interrupted
+     */
+    private boolean awaitData(long h) throws IOException {
+        long t = tail.get();
+        while (t == h) {
+            if (closedByWriter) {
+                t = tail.get();                     // Data published just before close
+                if (t == h) {
+                    readerClosed();
+                    return false;
+                }
+                break;
+            }
+            readSide = Thread.currentThread();
+            readerParked = true;                    // Volatile write before re-reading tail
+            t = tail.get();
+            if (t == h && !closedByWriter) LockSupport.park(this);
+            readerParked = false;
+            if (Thread.interrupted()) throw new InterruptedIOException(); //This is why I had to duplicate PipedInputStream and PipedOutputStream
+            t = tail.get();
+        }
+        head.setCached(t);
+        return true;
+    }
+
+    /**
+     * Makes sure there are some data for the reader. Waits while the pipe is empty
+     * and gives the current segment back when it is consumed.
+     *
+     * @param h current head
+     * @return number of bytes which can be read from the current segment, -1 in case of end of the stream
+     * @throws IOException if the reader is interrupted
+     */
+    private int readable(long h) throws IOException {
+        if (h == head.getCached() && !awaitData(h)) return -1;
+        if (readSegment == null) {
+            readSegment = first;
+            readEnd = segmentSize;
+        } else if (h == readEnd) {
+            Segment consumed = readSegment;
+            readSegment = consumed.next;            // Writer moved on, linked it before publishing
+            readEnd += segmentSize;
+            consumed.release(pool);
+        }
+        return (int) Math.min(readEnd - h, head.getCached() - h);
+    }
+
+    /**
+     * Consumes bytes and wakes up the writer if it is parked.
+     *
+     * @param h new head
+     */
+    private void consume(long h) {
+        head.set(h);                                // Volatile write before reading the flag
+        if (writerParked) LockSupport.unpark(writeSide);
+    }
+
+    void checkStateForRead() throws IOException {
+        if (!connected) {
+            throw new IOException("Pipe not connected");
+        } else if (closedByReader) {
+            throw new IOException("Pipe closed");
+        }
     }
 
     /**
@@ -259,43 +525,12 @@ public class BBPipedInputStream extends InputStream {
      *           <a href="#BROKEN"> <code>broken</code></a>, closed,
      *           or if an I/O error occurs.
      */
-    public synchronized int read()  throws IOException {
-        if (!connected) {
-            throw new IOException("Pipe not connected");
-        } else if (closedByReader) {
-            throw new IOException("Pipe closed");
-        } else if (writeSide != null && !writeSide.isAlive()
-                && !closedByWriter && (in < 0)) {
-            throw new IOException("Write end dead");
-        }
-
-        readSide = Thread.currentThread();
-        int trials = 2;
-        while (in < 0) {
-            if (closedByWriter) {
-                /* closed by writer, return EOF */
-                return -1;
-            }
-            if ((writeSide != null) && (!writeSide.isAlive()) && (--trials < 0)) {
-                throw new IOException("Pipe broken");
-            }
-            /* might be a writer waiting */
-            notifyAll();
-            try {
-                wait(10);
-            } catch (InterruptedException ex) {
-                throw new java.io.InterruptedIOException(); //This is why I had to duplicate PipedInputStream and PipedOutputStream
-            }
-        }
-        int ret = buffer[out++] & 0xFF;
-        if (out >= buffer.length) {
-            out = 0;
-        }
-        if (in == out) {
-            /* now empty */
-            in = -1;
-        }
-
+    public int read()  throws IOException {
+        checkStateForRead();
+        long h = head.get();
+        if (readable(h) < 0) return -1;
+        int ret = readSegment.get((int) h & segmentMask) & 0xFF;
+        consume(h + 1);
         return ret;
     }
 
@@ -322,7 +557,7 @@ public class BBPipedInputStream extends InputStream {
      * @exception  IOException if the pipe is <a href="#BROKEN"> <code>broken</code></a>,
      *           closed, or if an I/O error occurs.
      */
-    public synchronized int read(byte b[], int off, int len)  throws IOException {
+    public int read(byte b[], int off, int len)  throws IOException {
         if (b == null) {
             throw new NullPointerException();
         } else if (off < 0 || len < 0 || len > b.length - off) {
@@ -330,42 +565,85 @@ public class BBPipedInputStream extends InputStream {
         } else if (len == 0) {
             return 0;
         }
+        checkStateForRead();
 
         /* possibly wait on the first character */
-        int c = read();
-        if (c < 0) {
-            return -1;
-        }
-        b[off] = (byte) c;
-        int rlen = 1;
-        while ((in >= 0) && (len > 1)) {
+        long h = head.get();
+        int amount = readable(h);
+        if (amount < 0) return -1;
+        int rlen = 0;
+        do {                                        // Everything available, segment by segment
+            amount = Math.min(len - rlen, amount);
+            readSegment.read((int) h & segmentMask, b, off + rlen, amount);
+            rlen += amount;
+            h += amount;
+        } while (rlen < len && h < head.getCached() && (amount = readable(h)) > 0);
+        consume(h);
+        return rlen;
+    }
 
-            int available;
+    /**
+     * Gets an empty chunk which the writer fills and passes back by {@link #publishChunk(ByteBuffer)}.
+     * On a ring the chunk is a view of the free space of the current segment, so publishing
+     * just moves the tail. Chunked pipes hand over whole chunks.
+     *
+     * @return empty chunk
+     * @exception IOException if the pipe is closed or the writer is interrupted
+     */
+    ByteBuffer acquireChunk() throws IOException {
+        checkStateForReceive();
+        long t = tail.get();
+        int amount = writable(t);
+        writeChunk = writeSegment.view((int) t & segmentMask, amount);
+        writeChunkAt = t;
+        return writeChunk;
+    }
 
-            if (in > out) {
-                available = Math.min((buffer.length - out), (in - out));
-            } else {
-                available = buffer.length - out;
-            }
+    /**
+     * Publishes a chunk filled by the writer. Bytes from the start of the chunk
+     * up to its position are passed to the reader.
+     *
+     * @param chunk chunk got by {@link #acquireChunk()}
+     * @exception IOException if the pipe is closed or the writer is interrupted
+     */
+    void publishChunk(ByteBuffer chunk) throws IOException {
+        chunk.flip();
+        if (chunk == writeChunk) {
+            writeChunk = null;
+            checkStateForReceive();
+            if (chunk.hasRemaining()) publish(writeChunkAt + chunk.remaining());
+        } else if (chunk.hasRemaining()) {
+            receive(chunk.array(), chunk.arrayOffset() + chunk.position(), chunk.remaining());
+        }
+    }
 
-            // A byte is read beforehand outside the loop
-            if (available > (len - 1)) {
-                available = len - 1;
-            }
-            System.arraycopy(buffer, out, b, off + rlen, available);
-            out += available;
-            rlen += available;
-            len -= available;
+    /**
+     * Takes the next chunk of data. Blocks until some data are available. The chunk is readable
+     * from its position to its limit and it has to be returned by {@link #releaseChunk(ByteBuffer)}
+     * before the next one is taken. On a ring the chunk is a view of the current segment.
+     *
+     * @return chunk or null in case of end of the stream
+     * @exception IOException if the pipe is closed or the reader is interrupted
+     */
+    public ByteBuffer takeChunk() throws IOException {
+        checkStateForRead();
+        long h = head.get();
+        int amount = readable(h);
+        if (amount < 0) return null;
+        readChunk = readSegment.view((int) h & segmentMask, amount);
+        readChunkAt = h;
+        return readChunk;
+    }
 
-            if (out >= buffer.length) {
-                out = 0;
-            }
-            if (in == out) {
-                /* now empty */
-                in = -1;
-            }
-        }
-        return rlen;
+    /**
+     * Returns a chunk got by {@link #takeChunk()} to the pipe. The whole chunk is consumed.
+     *
+     * @param chunk consumed chunk
+     */
+    public void releaseChunk(ByteBuffer chunk) {
+        if (chunk != readChunk) return;
+        readChunk = null;
+        consume(readChunkAt + chunk.capacity());
     }
 
     /**
@@ -380,28 +658,69 @@ public class BBPipedInputStream extends InputStream {
      * @exception  IOException  if an I/O error occurs.
      * @since   JDK1.0.2
      */
-    public synchronized int available() throws IOException {
-        if(in < 0)
-            return 0;
-        else if(in == out)
-            return buffer.length;
-        else if (in > out)
-            return in - out;
-        else
-            return in + buffer.length - out;
+    public int available() throws IOException {
+        if (closedByReader) return 0;
+        return (int) Math.min(Integer.MAX_VALUE, tail.get() - head.get());
+    }
+
+    /**
+     * Marks the pipe as read by a user. Set before the writer connects.
+     *
+     * @param interactive true if the reader shows the data to a user
+     */
+    public void setInteractive(boolean interactive) {
+        this.interactive = interactive;
+    }
+
+    /**
+     * Checks if the pipe is read by a user.
+     *
+     * @return true/false
+     */
+    public boolean isInteractive() {
+        return interactive;
+    }
+
+    /**
+     * Marks the pipe as copied into a file by its reader. Set before the writer connects.
+     * A writer moving bytes between files (f.e. cat by FileChannel.transferTo) writes straight
+     * into the file then, bytes written into the pipe are copied after them.
+     *
+     * @param fileSink channel of the file or null
+     */
+    public void setFileSink(FileChannel fileSink) {
+        this.fileSink = fileSink;
+    }
+
+    /**
+     * Gets the file the reader copies the pipe into.
+     *
+     * @return channel of the file or null if the pipe is not copied into a file
+     */
+    public FileChannel getFileSink() {
+        return fileSink;
+    }
+
+    /**
+     * Returns the number of bytes buffered by the pipe.
+     *
+     * @return buffered bytes
+     */
+    public long getBuffered() {
+        return tail.get() - head.get();
     }
 
     /**
      * Closes this piped input stream and releases any system resources
-     * associated with the stream.
+     * associated with the stream. A writer blocked on a full buffer
+     * is woken up and gets an exception.
      *
      * @exception  IOException  if an I/O error occurs.
      */
     public void close()  throws IOException {
         closedByReader = true;
-        synchronized (this) {
-            in = -1;
-        }
+        LockSupport.unpark(writeSide);
+        readerClosed();
     }
 
 }
@@ -2,6 +2,8 @@ package helpers;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * @author Radek Bouda (originally James Gosling)
@@ -64,8 +66,6 @@ public class BBPipedOutputStream extends OutputStream {
             throw new IOException("Already connected");
         }
         sink = snk;
-        snk.in = -1;
-        snk.out = 0;
         snk.connected = true;
     }
 
@@ -113,18 +113,74 @@ public class BBPipedOutputStream extends OutputStream {
         sink.receive(b, off, len);
     }
 
+    /**
+     * Writes a line record, the newline is added by the pipe. A record pipe passes the record
+     * to the reader as it is, so the reader does not look for the newline again.
+     *
+     * @param      b     the data.
+     * @param      off   the start offset of the record.
+     * @param      len   the length of the record without the newline.
+     * @exception IOException if the pipe is closed or not connected
+     */
+    public void writeRecord(byte b[], int off, int len) throws IOException {
+        if (sink == null) {
+            throw new IOException("Pipe not connected");
+        } else if ((off < 0) || (len < 0) || (off + len > b.length)) {
+            throw new IndexOutOfBoundsException();
+        }
+        sink.receiveRecord(b, off, len);
+    }
+
+    /**
+     * Gets an empty chunk of the pipe. The writer fills it (f.e. straight from a file channel)
+     * and passes it back by {@link #publishChunk(ByteBuffer)}. In chunk mode the very same
+     * buffer is handed to the reader, no bytes are copied.
+     *
+     * @return empty chunk
+     * @exception IOException if the pipe is closed or not connected
+     */
+    public ByteBuffer acquireChunk() throws IOException {
+        if (sink == null) {
+            throw new IOException("Pipe not connected");
+        }
+        return sink.acquireChunk();
+    }
+
+    /**
+     * Publishes a chunk got by {@link #acquireChunk()}. Bytes from the start
+     * of the chunk up to its position are passed to the reader.
+     *
+     * @param chunk filled chunk
+     * @exception IOException if the pipe is closed or not connected
+     */
+    public void publishChunk(ByteBuffer chunk) throws IOException {
+        if (sink == null) {
+            throw new IOException("Pipe not connected");
+        }
+        sink.publishChunk(chunk);
+    }
+
+    /**
+     * Gets the file the reader of the pipe copies it into. Bytes written straight into it
+     * come before the bytes written into the pipe later.
+     *
+     * @return channel of the file or null if the pipe is not copied into a file
+     */
+    public FileChannel fileSink() {
+        return sink == null ? null : sink.getFileSink();
+    }
+
     /**
      * Flushes this output stream and forces any buffered output bytes
      * to be written out.
-     * This will notify any readers that bytes are waiting in the pipe.
+     * A ring publishes bytes on every write, so this only wakes up a parked
+     * reader. A chunked pipe publishes its partially filled chunk.
      *
      * @exception IOException if an I/O error occurs.
      */
-    public synchronized void flush() throws IOException {
+    public void flush() throws IOException {
         if (sink != null) {
-            synchronized (sink) {
-                sink.notifyAll();
-            }
+            sink.signalReader();
         }
     }
 
@@ -0,0 +1,293 @@
+package helpers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * @author Radek Bouda
+ * Pipe which passes batches of line records instead of bytes. It is created for line-aware readers,
+ * a line-aware writer passes whole records by {@link BBPipedOutputStream#writeRecord(byte[], int, int)},
+ * bytes of other writers are framed into records once on the way in. The reader takes the batches
+ * by {@link #takeRecords()}, so nobody splits the text into lines again. Plain stream reads
+ * put the newlines back.
+ *
+ * Batches are recycled like chunks of BBChunkedInputStream, their buffers are segments of the pool.
+ * Complete records are published when the reader has nothing to do, on flush and on close.
+ */
+public class BBRecordInputStream extends BBPipedInputStream {
+    /** Maximal number of batches of the pipe */
+    private final int maxBatches;
+    /** Batches filled by the writer, waiting for the reader */
+    private final SpscQueue<RecordBatch> filled;
+    /** Batches consumed by the reader, waiting for the writer */
+    private final SpscQueue<RecordBatch> recycled;
+    /** Frames writes into batches. Owned by the writer. */
+    private final RecordFramer framer;
+
+    /** Number of allocated batches. Owned by the writer. */
+    private int allocated = 0;
+    /** Free batch kept by the writer. Owned by the writer. */
+    private RecordBatch spare;
+
+    /** Batch being read by the stream adapter, its record and position in it. Owned by the reader. */
+    private RecordBatch reading;
+    private int record;
+    private int recordAt;
+    /** Buffer of the stream adapter chunks. Owned by the reader. */
+    private byte[] readBuffer;
+    /** Batch taken by the reader. Owned by the reader. */
+    private RecordBatch taken;
+
+    /**
+     * Creates a new record pipe.
+     *
+     * @param pipeSize capacity of the pipe
+     */
+    public BBRecordInputStream(int pipeSize) {
+        super(pipeSize, false);
+        if (pipeSize <= 0) {
+            throw new IllegalArgumentException("Pipe Size <= 0");
+        }
+        this.maxBatches = Math.max(2, pipeSize / segmentSize);
+        this.filled = new SpscQueue<RecordBatch>(maxBatches);
+        this.recycled = new SpscQueue<RecordBatch>(maxBatches);
+        this.framer = new RecordFramer() {
+            @Override
+            RecordBatch emptyBatch() throws IOException {
+                return nextFree();
+            }
+
+            @Override
+            void publish(RecordBatch full) throws IOException {
+                filled.put(full);
+            }
+
+            @Override
+            void drop(RecordBatch empty) {
+                spare = empty;
+            }
+        };
+    }
+
+    /**
+     * Gets an empty batch. Recycled first, then a new one, then waits for the reader.
+     *
+     * @return empty batch
+     * @throws IOException if the pipe is closed by the reader
+     */
+    private RecordBatch nextFree() throws IOException {
+        RecordBatch batch = spare;
+        spare = null;
+        if (batch == null) batch = recycled.poll();
+        if (batch == null) {
+            if (allocated < maxBatches) {
+                allocated++;
+                batch = new RecordBatch(pool.acquire(), true);
+            } else {
+                batch = recycled.take();
+                if (batch == null) throw new IOException("Pipe closed");
+            }
+        }
+        batch.clear();
+        return batch;
+    }
+
+    /**
+     * Remembers the writer thread. Avoids a volatile write on every call.
+     */
+    private void markWriter() {
+        Thread current = Thread.currentThread();
+        if (writeSide != current) writeSide = current;
+    }
+
+    @Override
+    protected void receive(int b) throws IOException {
+        checkStateForReceive();
+        markWriter();
+        framer.frame(b);
+        if (b == '\n' && filled.size() == 0) framer.flush();           // Reader is idle
+    }
+
+    @Override
+    void receive(byte b[], int off, int len) throws IOException {
+        checkStateForReceive();
+        markWriter();
+        framer.frame(b, off, len);
+        if (filled.size() == 0) framer.flush();
+    }
+
+    @Override
+    void receiveRecord(byte b[], int off, int len) throws IOException {
+        checkStateForReceive();
+        markWriter();
+        framer.record(b, off, len);
+        if (filled.size() == 0) framer.flush();
+    }
+
+    @Override
+    ByteBuffer acquireChunk() throws IOException {
+        checkStateForReceive();
+        return ByteBuffer.allocate(segmentSize);        // Framed by publishChunk, bytes are copied anyway
+    }
+
+    @Override
+    void signalReader() throws IOException {
+        if (Thread.currentThread() == writeSide) framer.flush();
+    }
+
+    @Override
+    void receivedLast() {
+        try {
+            if (Thread.currentThread() == writeSide) framer.finish();
+        } catch (IOException e) {
+            // Closed by reader, nothing to deliver
+        }
+        closedByWriter = true;
+        filled.close();
+        writerClosed();
+    }
+
+    /**
+     * Takes the next batch of records. Blocks until some records are available.
+     * The batch has to be returned by {@link #releaseRecords(RecordBatch)} before the next one is taken.
+     *
+     * @return batch or null in case of end of the stream
+     * @throws IOException if the pipe is closed or the reader is interrupted
+     */
+    public RecordBatch takeRecords() throws IOException {
+        checkStateForRead();
+        RecordBatch batch = reading;
+        reading = null;
+        if (batch != null && (record > 0 || recordAt > 0)) batch.skip(record, recordAt);   // Partially read by the stream adapter
+        if (batch != null && batch.count == 0) releaseRecords(batch);
+        if (batch == null || batch.count == 0) batch = filled.take();
+        record = recordAt = 0;
+        if (batch == null) readerClosed();
+        taken = batch;
+        return batch;
+    }
+
+    /**
+     * Returns a batch got by {@link #takeRecords()} to the pipe.
+     *
+     * @param batch consumed batch
+     */
+    public void releaseRecords(RecordBatch batch) {
+        if (batch == taken) taken = null;
+        try {
+            recycled.put(batch);                        // Never full, there are at most maxBatches batches
+        } catch (IOException e) {
+            // Closed by reader, batch is garbage
+        }
+    }
+
+    /**
+     * Makes sure the stream adapter has a record to read.
+     *
+     * @return false in case of end of the stream
+     * @throws IOException if the reader is interrupted
+     */
+    private boolean nextReadable() throws IOException {
+        while (reading == null || record == reading.count) {
+            if (reading != null) releaseRecords(reading);
+            reading = filled.take();
+            record = recordAt = 0;
+            if (reading == null) {
+                readerClosed();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkStateForRead();
+        if (!nextReadable()) return -1;
+        if (recordAt < reading.lengths[record]) return reading.data[reading.offsets[record] + recordAt++] & 0xFF;
+        boolean terminated = reading.isTerminated(record);
+        record++;
+        recordAt = 0;
+        return terminated ? '\n' : read();
+    }
+
+    @Override
+    public int read(byte b[], int off, int len) throws IOException {
+        if (b == null) {
+            throw new NullPointerException();
+        } else if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        } else if (len == 0) {
+            return 0;
+        }
+        checkStateForRead();
+        if (!nextReadable()) return -1;
+        int rlen = 0;
+        while (rlen < len && record < reading.count) {
+            int length = reading.lengths[record];
+            if (recordAt < length) {
+                int amount = Math.min(len - rlen, length - recordAt);
+                System.arraycopy(reading.data, reading.offsets[record] + recordAt, b, off + rlen, amount);
+                rlen += amount;
+                recordAt += amount;
+            } else {
+                if (reading.isTerminated(record)) b[off + rlen++] = '\n';
+                record++;
+                recordAt = 0;
+            }
+        }
+        return rlen;
+    }
+
+    @Override
+    public ByteBuffer takeChunk() throws IOException {
+        if (readBuffer == null) readBuffer = new byte[segmentSize];
+        int amount = read(readBuffer, 0, readBuffer.length);
+        if (amount < 0) return null;
+        return ByteBuffer.wrap(readBuffer, 0, amount);
+    }
+
+    @Override
+    public void releaseChunk(ByteBuffer chunk) {
+        // Bytes were copied by takeChunk
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (closedByReader || reading == null || record == reading.count) return 0;
+        return reading.used - reading.offsets[record] - recordAt;
+    }
+
+    @Override
+    public long getBuffered() {
+        return (long) filled.size() * segmentSize;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closedByReader = true;
+        recycled.close();                               // Wakes up the writer waiting for a batch
+        readerClosed();
+    }
+
+    @Override
+    protected void releaseSegments() {
+        release(spare);
+        release(framer.batch);
+        release(reading);
+        release(taken);
+        spare = reading = taken = framer.batch = null;
+        RecordBatch batch;
+        while ((batch = filled.poll()) != null) release(batch);
+        while ((batch = recycled.poll()) != null) release(batch);
+    }
+
+    /**
+     * Gives a buffer of a batch back to the pool.
+     *
+     * @param batch batch or null
+     */
+    private void release(RecordBatch batch) {
+        if (batch != null) batch.release(pool);
+    }
+}
@@ -0,0 +1,227 @@
+package helpers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * @author Radek Bouda
+ * Pipe which does not block a fast writer. Up to the pipe size the bytes are kept in pooled segments
+ * as in the ordinary pipe. When the reader is further behind, new segments are carved from regions
+ * of a memory-mapped temporary file, so the writer goes on at the speed of memory copies and the reader
+ * reads the spilled segments transparently in the same chain. Once the reader catches up, the writer
+ * gets pooled segments again.
+ *
+ * Consumed regions are reused, so the file is as big as the biggest backlog. It is created with
+ * the first spilled segment and deleted when both sides are finished. Spilled bytes (counted by segments)
+ * and the time spent by spilling (mapping the regions and copying into them) are kept per pipe.
+ */
+public class BBSpillingInputStream extends BBPipedInputStream {
+    /** Maximal number of spilled bytes, the writer waits when the file is full. 1GB */
+    public static final long SPILL_LIMIT = 1L << 30;
+    /** Size of a mapped region of the file. 4MB */
+    private static final int REGION_SIZE = 4194304;
+
+    /** Number of bytes kept in memory before spilling */
+    private final long threshold;
+    /** Directory of the spill file */
+    private final File directory;
+    /** Number of segments in a region */
+    private final int segmentsPerRegion;
+    /** Consumed regions, passed from the reader back to the writer */
+    private final SpscQueue<Region> freeRegions;
+
+    /** Spill file and its channel. Created by the writer with the first spilled segment. */
+    private volatile File spillFile;
+    private RandomAccessFile spillAccess;
+    /** End of the mapped part of the file. Owned by the writer. */
+    private long fileEnd = 0;
+    /** Region being carved and number of carved segments. Owned by the writer. */
+    private Region region;
+    private int carved;
+
+    /** Statistics. Written only by the writer. */
+    private volatile long spilledBytes = 0;
+    private volatile long spillNanos = 0;
+    private volatile long maxSpillNanos = 0;
+
+    /**
+     * Mapped part of the spill file.
+     */
+    private static final class Region {
+        final MappedByteBuffer buffer;
+        /** Number of consumed segments. Owned by the reader. */
+        int consumed = 0;
+
+        Region(MappedByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * Segment carved from a region of the spill file.
+     */
+    private final class SpilledSegment extends Segment {
+        final Region region;
+        final ByteBuffer bytes;
+        /** Own views of both sides, positions are not shared */
+        final ByteBuffer writeView;
+        final ByteBuffer readView;
+
+        SpilledSegment(Region region, ByteBuffer bytes) {
+            super(null);
+            this.region = region;
+            this.bytes = bytes;
+            this.writeView = bytes.duplicate();
+            this.readView = bytes.duplicate();
+        }
+
+        @Override
+        void put(int index, byte b) {
+            bytes.put(index, b);
+        }
+
+        @Override
+        byte get(int index) {
+            return bytes.get(index);
+        }
+
+        @Override
+        void write(int index, byte[] b, int off, int len) {
+            long start = System.nanoTime();
+            writeView.position(index);
+            writeView.put(b, off, len);
+            spilled(0, System.nanoTime() - start);
+        }
+
+        @Override
+        void read(int index, byte[] b, int off, int len) {
+            readView.position(index);
+            readView.get(b, off, len);
+        }
+
+        @Override
+        ByteBuffer view(int index, int len) {
+            ByteBuffer view = bytes.duplicate();
+            view.position(index);
+            view.limit(index + len);
+            return view.slice();
+        }
+
+        @Override
+        void release(SegmentPool pool) {
+            if (++region.consumed < segmentsPerRegion) return;
+            region.consumed = 0;
+            try {
+                freeRegions.put(region);                // Never full, there are at most all the regions
+            } catch (IOException e) {
+                // Pipe finished, region is garbage
+            }
+        }
+    }
+
+    /**
+     * Creates a new spilling pipe.
+     *
+     * @param pipeSize number of bytes kept in memory
+     * @param directory directory of the spill file
+     */
+    public BBSpillingInputStream(int pipeSize, File directory) {
+        super(pipeSize);
+        this.threshold = pipeSize;
+        this.capacity = pipeSize + SPILL_LIMIT;
+        this.directory = directory;
+        this.segmentsPerRegion = REGION_SIZE / segmentSize;
+        this.freeRegions = new SpscQueue<Region>((int) (SPILL_LIMIT / REGION_SIZE) + 1);
+    }
+
+    /**
+     * Takes a pooled segment while the reader is less than the threshold behind,
+     * otherwise carves a segment from the spill file.
+     */
+    @Override
+    protected Segment newSegment(long t) throws IOException {
+        if (t - head.get() < threshold) return super.newSegment(t);
+        if (region == null || carved == segmentsPerRegion) {
+            long start = System.nanoTime();
+            region = nextRegion();
+            carved = 0;
+            spilled(0, System.nanoTime() - start);
+        }
+        spilled(segmentSize, 0);
+        ByteBuffer bytes = region.buffer.duplicate();
+        bytes.position(carved * segmentSize);
+        bytes.limit(++carved * segmentSize);
+        return new SpilledSegment(region, bytes.slice());
+    }
+
+    /**
+     * Gets a consumed region or maps a new one at the end of the file.
+     *
+     * @return empty region
+     * @throws IOException if the file cannot be created or mapped
+     */
+    private Region nextRegion() throws IOException {
+        Region free = freeRegions.poll();
+        if (free != null) return free;
+        if (spillAccess == null) {
+            File file = File.createTempFile(".pipe", ".spill", directory);
+            file.deleteOnExit();
+            spillAccess = new RandomAccessFile(file, "rw");
+            spillFile = file;
+        }
+        MappedByteBuffer buffer = spillAccess.getChannel().map(FileChannel.MapMode.READ_WRITE, fileEnd, REGION_SIZE);
+        fileEnd += REGION_SIZE;
+        return new Region(buffer);
+    }
+
+    /**
+     * Counts spilled bytes and the time spent by spilling them.
+     *
+     * @param bytes number of spilled bytes
+     * @param nanos time spent
+     */
+    private void spilled(long bytes, long nanos) {
+        spilledBytes += bytes;
+        spillNanos += nanos;
+        if (nanos > maxSpillNanos) maxSpillNanos = nanos;
+    }
+
+    /**
+     * Gives the segments back and deletes the spill file.
+     */
+    @Override
+    protected void releaseSegments() {
+        super.releaseSegments();
+        freeRegions.close();
+        region = null;
+        while (freeRegions.poll() != null) ;
+        try {
+            if (spillAccess != null) spillAccess.close();
+        } catch (IOException e) {
+            // Nothing to do, file is deleted anyway
+        }
+        File file = spillFile;
+        if (file != null) file.delete();                // Mapped regions are unmapped by the GC
+    }
+
+    // Getters
+    public long getThreshold() {
+        return threshold;
+    }
+    public long getSpilledBytes() {
+        return spilledBytes;
+    }
+    public long getSpillNanos() {
+        return spillNanos;
+    }
+    public long getMaxSpillNanos() {
+        return maxSpillNanos;
+    }
+    public File getSpillFile() {
+        return spillFile;
+    }
+}
@@ -0,0 +1,86 @@
+package helpers;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Finds and counts bytes (newlines, field separators) in byte buffers eight bytes at a time.
+ * Every long word of the buffer is compared to the searched byte at once, bytes equal to it
+ * become the high bits of a mask (SWAR - SIMD within a register). Only the bytes behind the last
+ * whole word are compared one by one.
+ *
+ * @author Radek Bouda
+ */
+public final class ByteScan {
+    /** Low bit of every byte of a word */
+    private static final long ONES = 0x0101010101010101L;
+    /** Low seven bits of every byte of a word */
+    private static final long LOWS = 0x7F7F7F7F7F7F7F7FL;
+    /** Shorter bytes are compared one by one, the words would not pay off */
+    private static final int SHORT = 64;
+
+    private ByteScan() {
+    }
+
+    /**
+     * Finds the positions of a byte in order. Stops when the array of positions is full,
+     * the search continues behind the last found position then.
+     *
+     * @param data bytes
+     * @param from first byte
+     * @param to end of the bytes
+     * @param b searched byte
+     * @param positions found positions
+     * @return number of found positions, all of them are found if it is less than the length of the positions
+     */
+    public static int find(byte[] data, int from, int to, int b, int[] positions) {
+        ByteBuffer words = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        long pattern = (b & 0xFFL) * ONES;
+        int found = 0;
+        int last = positions.length - Long.SIZE / Byte.SIZE;            // Room for a word full of matches
+        int i = from;
+        for (; i <= to - 8 && found <= last; i += 8) {
+            long matches = matches(words.getLong(i) ^ pattern);
+            while (matches != 0) {
+                positions[found++] = i + (Long.numberOfTrailingZeros(matches) >>> 3);
+                matches &= matches - 1;
+            }
+        }
+        for (; i < to && found < positions.length; i++) if (data[i] == b) positions[found++] = i;
+        return found;
+    }
+
+    /**
+     * Counts a byte.
+     *
+     * @param data bytes
+     * @param from first byte
+     * @param to end of the bytes
+     * @param b counted byte
+     * @return number of the bytes
+     */
+    public static int count(byte[] data, int from, int to, int b) {
+        int count = 0;
+        if (to - from < SHORT) {
+            for (int i = from; i < to; i++) if (data[i] == b) count++;
+            return count;
+        }
+        ByteBuffer words = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        long pattern = (b & 0xFFL) * ONES;
+        int i = from;
+        for (; i <= to - 8; i += 8) count += Long.bitCount(matches(words.getLong(i) ^ pattern));
+        for (; i < to; i++) if (data[i] == b) count++;
+        return count;
+    }
+
+    /**
+     * Gets the high bits of the zero bytes of a word. Exact, without the false matches of the shorter
+     * (x - ONES) & ~x form behind the first zero byte.
+     *
+     * @param word word
+     * @return mask
+     */
+    private static long matches(long word) {
+        return ~(((word & LOWS) + LOWS) | word | LOWS);
+    }
+}
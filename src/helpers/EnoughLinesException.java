@@ -0,0 +1,22 @@
+package helpers;
+
+import java.io.IOException;
+
+/**
+ * Thrown by an operator which needs no more lines, f.e. head after its lines. The operator has finished
+ * the next ones already. Stages above it stop pushing, processes close their inputs, so writers of the pipes
+ * get closed pipes and stop too - the close travels upstream like SIGPIPE.
+ *
+ * @author Radek Bouda
+ */
+public class EnoughLinesException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates the exception.
+     */
+    public EnoughLinesException() {
+        super("Enough lines");
+    }
+}
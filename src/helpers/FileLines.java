@@ -0,0 +1,151 @@
+package helpers;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Pushes lines of a file into an operator. Small files are read at once, large files are memory-mapped
+ * and their lines are taken through one reused window, so neither is read by small blocks.
+ * The last lines of a file are found by reading its end backwards.
+ *
+ * @author Radek Bouda
+ */
+public final class FileLines {
+    /** Files of this size and larger are mapped */
+    public static final int MAP_THRESHOLD = 1 << 20;
+    /** Size of the window of mapped files, grows for longer lines */
+    private static final int WINDOW_SIZE = 1 << 20;
+    /** Size of one mapped region */
+    private static final long REGION_SIZE = 1 << 30;
+    /** Size of the blocks read backwards by tail */
+    private static final int BLOCK_SIZE = 65536;
+    /** Number of newlines found by one scan */
+    private static final int SCAN = 256;
+
+    private FileLines() {
+    }
+
+    /**
+     * Pushes all the lines of a file into an operator and finishes it.
+     *
+     * @param file file
+     * @param operator first operator of the chain
+     * @throws IOException if the file cannot be read or the output is closed
+     */
+    public static void push(File file, LineOperator operator) throws IOException {
+        push(file, 0, operator);
+    }
+
+    /**
+     * Pushes the lines of a file from a position into an operator and finishes it.
+     *
+     * @param file file
+     * @param from position of the first line
+     * @param operator first operator of the chain
+     * @throws IOException if the file cannot be read or the output is closed
+     */
+    public static void push(File file, long from, LineOperator operator) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            long size = Math.max(0, channel.size() - from);
+            if (size < MAP_THRESHOLD) {
+                ByteBuffer data = ByteBuffer.allocate((int) size);
+                channel.position(from);
+                while (data.hasRemaining() && channel.read(data) >= 0) ;
+                int length = data.position();
+                int end = pushLines(data.array(), 0, length, operator);
+                if (end < length) operator.push(data.array(), end, length - end, false);
+            } else {
+                byte[] window = new byte[WINDOW_SIZE];
+                int carry = 0;                          // Start of a line from the previous window
+                for (long at = 0; at < size; at += REGION_SIZE) {
+                    MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, from + at, Math.min(REGION_SIZE, size - at));
+                    while (region.hasRemaining()) {
+                        if (carry == window.length) window = Arrays.copyOf(window, window.length * 2);
+                        int amount = Math.min(window.length - carry, region.remaining());
+                        region.get(window, carry, amount);
+                        int filled = carry + amount;
+                        int end = pushLines(window, 0, filled, operator);
+                        carry = filled - end;
+                        System.arraycopy(window, end, window, 0, carry);
+                    }
+                }
+                if (carry > 0) operator.push(window, 0, carry, false);
+            }
+        } finally {
+            in.close();
+        }
+        operator.finish();
+    }
+
+    /**
+     * Finds the start of the last lines of a file. The file is read backwards by blocks,
+     * only its end is read.
+     *
+     * @param file file
+     * @param lines number of the last lines
+     * @return position of the first of the lines
+     * @throws IOException if the file cannot be read
+     */
+    public static long lastLines(File file, int lines) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            if (lines == 0) return size;
+            ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+            int newlines = 0;
+            for (long end = size; end > 0; ) {
+                long start = Math.max(0, end - BLOCK_SIZE);
+                block.clear().limit((int) (end - start));
+                while (block.hasRemaining() && channel.read(block, start + block.position()) >= 0) ;
+                byte[] data = block.array();
+                int length = (int) (end - start);
+                int inBlock = ByteScan.count(data, 0, length, '\n') - (end == size && data[length - 1] == '\n' ? 1 : 0);
+                if (newlines + inBlock < lines) {               // Whole block is skipped
+                    newlines += inBlock;
+                    end = start;
+                    continue;
+                }
+                for (int i = length - 1; i >= 0; i--) {
+                    if (data[i] != '\n' || start + i == size - 1) continue;       // Newline of the last line
+                    if (++newlines == lines) return start + i + 1;
+                }
+                end = start;
+            }
+            return 0;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Pushes the complete lines of bytes.
+     *
+     * @param data bytes
+     * @param start first byte
+     * @param end end of the bytes
+     * @param operator operator
+     * @return end of the last complete line
+     * @throws IOException if the output is closed
+     */
+    private static int pushLines(byte[] data, int start, int end, LineOperator operator) throws IOException {
+        int[] newlines = new int[SCAN];
+        int line = start;
+        int found;
+        do {
+            found = ByteScan.find(data, line, end, '\n', newlines);
+            for (int k = 0; k < found; k++) {
+                operator.push(data, line, newlines[k] - line, true);
+                line = newlines[k] + 1;
+            }
+        } while (found == SCAN);
+        return line;
+    }
+}
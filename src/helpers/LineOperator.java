@@ -0,0 +1,31 @@
+package helpers;
+
+import java.io.IOException;
+
+/**
+ * Line-oriented stage of a pipeline. Lines are pushed one by one by a function call, so a chain
+ * of operators runs on one thread without pipes between the stages. Processes use the same
+ * operators over their pipes, fused pipelines chain them directly.
+ *
+ * @author Radek Bouda
+ */
+public interface LineOperator {
+
+    /**
+     * Pushes a line. Bytes are valid only during the call.
+     *
+     * @param data bytes of the line
+     * @param off start of the line
+     * @param len length of the line without the newline
+     * @param terminated whether the line ended with a newline
+     * @throws IOException if the output is closed
+     */
+    void push(byte[] data, int off, int len, boolean terminated) throws IOException;
+
+    /**
+     * Ends the input. Operators holding lines push them now, then finish the next operator.
+     *
+     * @throws IOException if the output is closed
+     */
+    void finish() throws IOException;
+}
@@ -0,0 +1,509 @@
+package helpers;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.IntFunction;
+import java.util.function.IntToLongFunction;
+
+/**
+ * Order of lines for sort. Lines are compared by keys - fields (-k) split by a separator (-t) or by blanks,
+ * as bytes, numbers (-n) or by a locale collation, each key possibly reversed (-r). Lines with equal keys
+ * are compared by their bytes at last, except for distinct keys (-u) where the first line of equal ones is kept.
+ * Keys of a sorted array are computed once per line, not in every
+ * comparison, and the array is sorted in parallel. Numeric first keys, and byte ones in the radix mode,
+ * are projected to longs and sorted by a stable LSD radix sort, only lines of equal longs are compared then.
+ *
+ * @author Radek Bouda
+ */
+public class LineOrder implements Comparator<byte[]> {
+    /** No separator, fields are split by blanks */
+    public static final int BLANKS = -1;
+    /** Bits of a digit of the radix sort */
+    private static final int RADIX_BITS = 16;
+
+    /** Separator of the fields or BLANKS */
+    private final int separator;
+    /** Keys, a whole line is the only key if none are given */
+    private final List<Key> keys;
+    /** Last comparison of the whole lines is reversed */
+    private final boolean reverse;
+    /** Collator of the locale or null for bytes */
+    private final Collator collator;
+    /** Collators of the threads computing keys, collators are not thread-safe */
+    private final ThreadLocal<Collator> collators;
+    /** Lines are sorted by a radix sort of their first keys */
+    private final boolean radix;
+
+    /**
+     * Creates an order.
+     *
+     * @param separator separator of the fields or BLANKS
+     * @param keys keys, empty for the whole lines
+     * @param numeric global numeric comparison, for keys without own flags
+     * @param reverse global reverse order, for keys without own flags and the last comparison
+     * @param locale locale of the collation or null to compare bytes
+     * @param radix radix sort of the first 8 bytes of the first key, numeric keys are radix sorted always
+     */
+    public LineOrder(int separator, List<Key> keys, boolean numeric, boolean reverse, Locale locale, boolean radix) {
+        this.separator = separator;
+        this.reverse = reverse;
+        this.keys = new ArrayList<Key>();
+        if (keys.isEmpty()) this.keys.add(new Key(1, 1, 0, 0, numeric, reverse, false, true));
+        for (Key key : keys) this.keys.add(key.hasFlags ? key : new Key(key.startField, key.startChar, key.endField, key.endChar, numeric, reverse, key.blanks, false));
+        this.collator = locale == null ? null : Collator.getInstance(locale);
+        this.collators = collator == null ? null : new ThreadLocal<Collator>() {
+            @Override
+            protected Collator initialValue() {
+                return (Collator) collator.clone();
+            }
+        };
+        this.radix = collator == null && (radix || this.keys.get(0).numeric);
+    }
+
+    /**
+     * Checks if lines are equal in the order only when their bytes are.
+     *
+     * @return true if the order compares only the bytes of the whole lines
+     */
+    public boolean isPlain() {
+        Key key = keys.get(0);
+        return keys.size() == 1 && key.isWholeLine() && !key.numeric && collator == null;
+    }
+
+    /**
+     * Checks if the last comparison of the whole lines is reversed.
+     *
+     * @return true in case of -r
+     */
+    public boolean isReversed() {
+        return reverse;
+    }
+
+    /**
+     * Compares lines by their keys and then by their bytes.
+     */
+    @Override
+    public int compare(byte[] a, byte[] b) {
+        if (isPlain()) return reverse ? compareBytes(b, 0, b.length, a, 0, a.length) : compareBytes(a, 0, a.length, b, 0, b.length);
+        return compareKeyed(new Keyed(a), new Keyed(b), true);
+    }
+
+    /**
+     * Compares a line with a kept one.
+     *
+     * @param data bytes
+     * @param off start of the line
+     * @param len length of the line
+     * @param kept kept line
+     * @return comparison
+     */
+    public int compare(byte[] data, int off, int len, byte[] kept) {
+        if (!isPlain()) return compare(Arrays.copyOfRange(data, off, off + len), kept);
+        return reverse ? compareBytes(kept, 0, kept.length, data, off, len) : compareBytes(data, off, len, kept, 0, kept.length);
+    }
+
+    /**
+     * Gets the comparison of the keys only, equal lines in it are duplicates for -u.
+     *
+     * @return comparator
+     */
+    public Comparator<byte[]> keysOnly() {
+        if (isPlain()) return this;
+        return new Comparator<byte[]>() {
+            @Override
+            public int compare(byte[] a, byte[] b) {
+                return compareKeyed(new Keyed(a), new Keyed(b), false);
+            }
+        };
+    }
+
+    /**
+     * Estimates the memory of the precomputed keys of a line.
+     *
+     * @param length length of the line
+     * @return bytes
+     */
+    public int keyMemory(int length) {
+        if (isPlain()) return 0;
+        return 48 + keys.size() * 16 + (collator == null ? 0 : 2 * length + 32);
+    }
+
+    /**
+     * Sorts lines in parallel. Keys are computed once per line. The sort is stable.
+     *
+     * @param lines lines, sorted in place
+     * @param unique lines with equal keys are kept once, the first of them
+     * @return number of the sorted lines at the start of the array
+     */
+    public int sort(final byte[][] lines, final boolean unique) {
+        if (isPlain()) {
+            Arrays.parallelSort(lines, this);
+            if (!unique) return lines.length;
+            int count = 0;
+            for (int i = 0; i < lines.length; i++) {
+                if (count == 0 || compare(lines[count - 1], lines[i]) != 0) lines[count++] = lines[i];
+            }
+            return count;
+        }
+        return radix ? radixSort(lines, unique) : comparisonSort(lines, unique);
+    }
+
+    /**
+     * Sorts lines in parallel by comparisons of their keys, computed once per line. Orders without a radix sort
+     * use it always. The sort is stable.
+     *
+     * @param lines lines, sorted in place
+     * @param unique lines with equal keys are kept once, the first of them
+     * @return number of the sorted lines at the start of the array
+     */
+    public int comparisonSort(final byte[][] lines, final boolean unique) {
+        Keyed[] keyed = new Keyed[lines.length];
+        Arrays.parallelSetAll(keyed, new IntFunction<Keyed>() {
+            @Override
+            public Keyed apply(int i) {
+                return new Keyed(lines[i]);
+            }
+        });
+        Arrays.parallelSort(keyed, new Comparator<Keyed>() {
+            @Override
+            public int compare(Keyed a, Keyed b) {
+                return compareKeyed(a, b, !unique);         // Equal keys stay in the input order
+            }
+        });
+        int count = 0;
+        for (int i = 0; i < keyed.length; i++) {
+            if (unique && i > 0 && compareKeyed(keyed[i - 1], keyed[i], false) == 0) continue;
+            lines[count++] = keyed[i].line;
+        }
+        return count;
+    }
+
+    /**
+     * Sorts lines by a radix sort of the first keys projected to longs, lines of equal longs are sorted
+     * by their keys then. Equal longs keep the input order, so the first of equal lines is kept for -u.
+     *
+     * @param lines lines, sorted in place
+     * @param unique lines with equal keys are kept once, the first of them
+     * @return number of the sorted lines at the start of the array
+     */
+    private int radixSort(final byte[][] lines, final boolean unique) {
+        final long[] projected = new long[lines.length];
+        Arrays.parallelSetAll(projected, new IntToLongFunction() {
+            @Override
+            public long applyAsLong(int i) {
+                return project(lines[i]);
+            }
+        });
+        int[] order = radixSort(projected);
+        byte[][] sorted = new byte[lines.length][];
+        for (int i = 0; i < lines.length; i++) sorted[i] = lines[order[i]];
+        Comparator<Keyed> comparator = new Comparator<Keyed>() {
+            @Override
+            public int compare(Keyed a, Keyed b) {
+                return compareKeyed(a, b, !unique);
+            }
+        };
+        int count = 0;
+        for (int start = 0, end; start < sorted.length; start = end) {
+            end = start + 1;
+            while (end < sorted.length && projected[end] == projected[start]) end++;
+            if (end - start == 1) {
+                lines[count++] = sorted[start];
+                continue;
+            }
+            Keyed[] group = new Keyed[end - start];     // Equal longs, compared by the keys
+            for (int i = start; i < end; i++) group[i - start] = new Keyed(sorted[i]);
+            Arrays.sort(group, comparator);
+            for (int i = 0; i < group.length; i++) {
+                if (unique && i > 0 && compareKeyed(group[i - 1], group[i], false) == 0) continue;
+                lines[count++] = group[i].line;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Projects the first key of a line to a long, compared as unsigned. Lines with equal first keys have equal longs,
+     * a lower long means a lower key - a numeric key as the bits of its number, other keys as their first 8 bytes.
+     */
+    private long project(byte[] line) {
+        Key key = keys.get(0);
+        int start = key.start(line, separator);
+        int end = Math.max(start, key.end(line, separator));
+        long value = 0;
+        if (key.numeric) {
+            long bits = Double.doubleToLongBits(parseNumber(line, start, end) + 0.0);        // No -0
+            value = bits < 0 ? ~bits : bits ^ Long.MIN_VALUE;
+        } else {
+            for (int i = 0; i < 8; i++) value = value << 8 | (start + i < end ? line[start + i] & 0xFF : 0);
+        }
+        return key.reverse ? ~value : value;
+    }
+
+    /**
+     * Sorts longs by a stable LSD radix sort. Digits which are the same in all the longs are skipped.
+     *
+     * @param values longs compared as unsigned, sorted in place
+     * @return original indexes of the sorted values
+     */
+    private static int[] radixSort(long[] values) {
+        int digits = 64 / RADIX_BITS, mask = (1 << RADIX_BITS) - 1;
+        int[][] counts = new int[digits][1 << RADIX_BITS];
+        for (long value : values) {
+            for (int d = 0; d < digits; d++) counts[d][(int) (value >>> (d * RADIX_BITS)) & mask]++;
+        }
+        int[] order = new int[values.length], other = new int[values.length];
+        long[] sorted = values, moved = new long[values.length];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        for (int d = 0; d < digits; d++) {
+            int[] count = counts[d];
+            int shift = d * RADIX_BITS;
+            if (values.length == 0 || count[(int) (values[0] >>> shift) & mask] == values.length) continue;
+            for (int b = 0, sum = 0; b < count.length; b++) {    // Starts of the buckets
+                int amount = count[b];
+                count[b] = sum;
+                sum += amount;
+            }
+            for (int i = 0; i < values.length; i++) {
+                int to = count[(int) (values[i] >>> shift) & mask]++;
+                moved[to] = values[i];
+                other[to] = order[i];
+            }
+            long[] swapValues = values;
+            values = moved;
+            moved = swapValues;
+            int[] swap = order;
+            order = other;
+            other = swap;
+        }
+        if (values != sorted) System.arraycopy(values, 0, sorted, 0, values.length);   // Odd number of passes
+        return order;
+    }
+
+    /**
+     * Compares lines with computed keys.
+     *
+     * @param a first line
+     * @param b second line
+     * @param lastResort compare the bytes of lines with equal keys
+     * @return comparison
+     */
+    private int compareKeyed(Keyed a, Keyed b, boolean lastResort) {
+        for (int k = 0; k < keys.size(); k++) {
+            Key key = keys.get(k);
+            int result;
+            if (key.numeric) {
+                double x = a.numbers[k], y = b.numbers[k];
+                result = x < y ? -1 : x > y ? 1 : 0;
+            } else if (collator != null) {
+                result = a.collated[k].compareTo(b.collated[k]);
+            } else {
+                result = compareBytes(a.line, a.bounds[2 * k], a.bounds[2 * k + 1] - a.bounds[2 * k], b.line, b.bounds[2 * k], b.bounds[2 * k + 1] - b.bounds[2 * k]);
+            }
+            if (result != 0) return key.reverse ? -result : result;
+        }
+        if (!lastResort) return 0;
+        int result = compareBytes(a.line, 0, a.line.length, b.line, 0, b.line.length);
+        return reverse ? -result : result;
+    }
+
+    /**
+     * Compares bytes as unsigned.
+     */
+    private static int compareBytes(byte[] a, int aOff, int aLen, byte[] b, int bOff, int bLen) {
+        int length = Math.min(aLen, bLen);
+        for (int i = 0; i < length; i++) {
+            int diff = (a[aOff + i] & 0xFF) - (b[bOff + i] & 0xFF);
+            if (diff != 0) return diff;
+        }
+        return aLen - bLen;
+    }
+
+    /**
+     * Line with its computed keys.
+     */
+    private final class Keyed {
+        private final byte[] line;
+        /** Start and end of each key */
+        private final int[] bounds;
+        /** Numbers of numeric keys */
+        private final double[] numbers;
+        /** Collation keys of the other keys */
+        private final CollationKey[] collated;
+
+        Keyed(byte[] line) {
+            this.line = line;
+            this.bounds = new int[2 * keys.size()];
+            double[] numbers = null;
+            CollationKey[] collated = null;
+            for (int k = 0; k < keys.size(); k++) {
+                Key key = keys.get(k);
+                int start = key.start(line, separator);
+                int end = Math.max(start, key.end(line, separator));
+                bounds[2 * k] = start;
+                bounds[2 * k + 1] = end;
+                if (key.numeric) {
+                    if (numbers == null) numbers = new double[keys.size()];
+                    numbers[k] = parseNumber(line, start, end);
+                } else if (collator != null) {
+                    if (collated == null) collated = new CollationKey[keys.size()];
+                    collated[k] = collators.get().getCollationKey(new String(line, start, end - start, RecordBatch.CHARSET));
+                }
+            }
+            this.numbers = numbers;
+            this.collated = collated;
+        }
+    }
+
+    /**
+     * Parses a leading number - blanks, an optional minus, digits and an optional fraction. Other text is 0.
+     */
+    private static double parseNumber(byte[] line, int start, int end) {
+        int i = start;
+        while (i < end && isBlank(line[i])) i++;
+        boolean negative = i < end && line[i] == '-';
+        if (negative) i++;
+        double value = 0;
+        while (i < end && line[i] >= '0' && line[i] <= '9') value = value * 10 + (line[i++] - '0');
+        if (i < end && line[i] == '.') {
+            double scale = 0.1;
+            for (i++; i < end && line[i] >= '0' && line[i] <= '9'; i++, scale /= 10) value += (line[i] - '0') * scale;
+        }
+        return negative ? -value : value;
+    }
+
+    private static boolean isBlank(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    /**
+     * Key of a sort, from the start field and character to the end field and character, as in -k F[.C][,F[.C]][flags].
+     */
+    public static final class Key {
+        private final int startField;
+        private final int startChar;
+        /** End field, 0 for the end of the line */
+        private final int endField;
+        /** End character, 0 for the end of the field */
+        private final int endChar;
+        private final boolean numeric;
+        private final boolean reverse;
+        /** Leading blanks of the fields are skipped */
+        private final boolean blanks;
+        /** Flags of the key override the global ones */
+        private final boolean hasFlags;
+
+        private Key(int startField, int startChar, int endField, int endChar, boolean numeric, boolean reverse, boolean blanks, boolean hasFlags) {
+            this.startField = startField;
+            this.startChar = startChar;
+            this.endField = endField;
+            this.endChar = endChar;
+            this.numeric = numeric;
+            this.reverse = reverse;
+            this.blanks = blanks;
+            this.hasFlags = hasFlags;
+        }
+
+        /**
+         * Parses a key.
+         *
+         * @param spec F[.C][,F[.C]] with flags n, r and b after the positions
+         * @return key
+         * @throws IllegalArgumentException in case of a wrong key
+         */
+        public static Key parse(String spec) {
+            int[] position = new int[4];
+            boolean numeric = false, reverse = false, blanks = false, hasFlags = false;
+            int part = 0;                               // Start field, start char, end field, end char
+            boolean digits = false;
+            for (int i = 0; i < spec.length(); i++) {
+                char c = spec.charAt(i);
+                if (c >= '0' && c <= '9' && !hasFlags) {
+                    position[part] = position[part] * 10 + (c - '0');
+                    digits = true;
+                } else if (c == '.' && (part == 0 || part == 2) && digits) {
+                    part++;
+                    digits = false;
+                } else if (c == ',' && part < 2 && position[0] > 0) {
+                    part = 2;
+                    digits = false;
+                } else if (c == 'n') {
+                    numeric = hasFlags = true;
+                } else if (c == 'r') {
+                    reverse = hasFlags = true;
+                } else if (c == 'b') {
+                    blanks = hasFlags = true;
+                } else {
+                    throw new IllegalArgumentException("sort: wrong key " + spec);
+                }
+            }
+            if (position[0] < 1 || (part >= 2 && position[2] < 1)) throw new IllegalArgumentException("sort: wrong key " + spec);
+            return new Key(position[0], Math.max(1, position[1]), position[2], position[3], numeric, reverse, blanks, hasFlags);
+        }
+
+        /**
+         * Checks if the key is a whole line.
+         *
+         * @return true/false
+         */
+        private boolean isWholeLine() {
+            return startField == 1 && startChar == 1 && endField == 0 && !blanks;
+        }
+
+        /**
+         * Finds the start of the key.
+         */
+        private int start(byte[] line, int separator) {
+            int at = fieldStart(line, startField, separator);
+            if (blanks) while (at < line.length && isBlank(line[at])) at++;
+            return Math.min(line.length, at + startChar - 1);
+        }
+
+        /**
+         * Finds the end of the key.
+         */
+        private int end(byte[] line, int separator) {
+            if (endField == 0) return line.length;
+            if (endChar == 0) return fieldEnd(line, fieldStart(line, endField, separator), separator);
+            int at = fieldStart(line, endField, separator);
+            if (blanks) while (at < line.length && isBlank(line[at])) at++;
+            return Math.min(fieldEnd(line, at, separator), at + endChar);
+        }
+
+        /**
+         * Finds the start of a field. Without a separator a field starts with the blanks in front of it.
+         */
+        private static int fieldStart(byte[] line, int field, int separator) {
+            int at = 0;
+            for (int f = 1; f < field && at < line.length; f++) {
+                if (separator == BLANKS) {
+                    while (at < line.length && isBlank(line[at])) at++;
+                    while (at < line.length && !isBlank(line[at])) at++;
+                } else {
+                    while (at < line.length && line[at] != separator) at++;
+                    if (at < line.length) at++;
+                    else return line.length;
+                }
+            }
+            return at;
+        }
+
+        /**
+         * Finds the end of a field starting at a position.
+         */
+        private static int fieldEnd(byte[] line, int at, int separator) {
+            if (separator == BLANKS) {
+                while (at < line.length && isBlank(line[at])) at++;
+                while (at < line.length && !isBlank(line[at])) at++;
+            } else {
+                while (at < line.length && line[at] != separator) at++;
+            }
+            return at;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package helpers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Reads text lines from an input. Bytes are read in blocks and each line is decoded at once, so multibyte
+ * characters are kept whole (a newline byte is never a part of a UTF-8 character). Lines are returned as soon
+ * as they are complete, the input is never buffered as a whole.
+ *
+ * @author Radek Bouda
+ */
+public class LineReader {
+    /** No stop byte */
+    public static final int NO_STOP = -1;
+    /** Size of the read buffer */
+    private static final int BUFFER_SIZE = 8192;
+
+    /** Input */
+    private final InputStream input;
+    /** Charset of the text */
+    private final Charset charset;
+    /** Read bytes */
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    /** First unread byte and end of the read bytes */
+    private int position = 0;
+    private int limit = 0;
+    /** Start of a line longer than the rest of the buffer */
+    private byte[] pending = new byte[256];
+    private int pendingLength = 0;
+    /** End of the input */
+    private boolean eof = false;
+    /** Last line ended with a newline */
+    private boolean terminated = true;
+
+    /**
+     * Creates a reader of UTF-8 text.
+     *
+     * @param input input
+     */
+    public LineReader(InputStream input) {
+        this(input, RecordBatch.CHARSET);
+    }
+
+    /**
+     * Creates a reader.
+     *
+     * @param input input
+     * @param charset charset of the text
+     */
+    public LineReader(InputStream input, Charset charset) {
+        this.input = input;
+        this.charset = charset;
+    }
+
+    /**
+     * Reads a line.
+     *
+     * @return line without the newline or null in case of end of the input
+     * @throws IOException if the input is closed
+     */
+    public String readLine() throws IOException {
+        return readLine(NO_STOP);
+    }
+
+    /**
+     * Reads a line. The stop byte ends the current read like the end of the input, the started line is dropped.
+     * Reading can continue after it. F.e. Control-D on a console.
+     *
+     * @param stop stop byte or NO_STOP
+     * @return line without the newline or null in case of end of the input or a stop byte
+     * @throws IOException if the input is closed
+     */
+    public String readLine(int stop) throws IOException {
+        pendingLength = 0;
+        while (fill()) {
+            int start = position;
+            for (int i = position; i < limit; i++) {
+                int b = buffer[i] & 0xFF;
+                if (b == '\n') {
+                    position = i + 1;
+                    terminated = true;
+                    return decode(start, i);
+                }
+                if (b == stop) {
+                    position = i + 1;
+                    pendingLength = 0;
+                    return null;
+                }
+            }
+            keep(start, limit);                         // Line continues in the next block
+            position = limit;
+        }
+        if (pendingLength == 0) return null;
+        terminated = false;                             // Last line without a newline
+        String line = new String(pending, 0, pendingLength, charset);
+        pendingLength = 0;
+        return line;
+    }
+
+    /**
+     * Reads the next block if the buffer is consumed.
+     *
+     * @return false in case of end of the input
+     * @throws IOException if the input is closed
+     */
+    private boolean fill() throws IOException {
+        if (position < limit) return true;
+        if (eof) return false;
+        int amount = input.read(buffer, 0, buffer.length);
+        if (amount < 0) {
+            eof = true;
+            return false;
+        }
+        position = 0;
+        limit = amount;
+        return true;
+    }
+
+    /**
+     * Decodes a line ending in the buffer.
+     *
+     * @param start start in the buffer
+     * @param end end in the buffer
+     * @return line
+     */
+    private String decode(int start, int end) {
+        if (pendingLength == 0) return new String(buffer, start, end - start, charset);
+        keep(start, end);
+        String line = new String(pending, 0, pendingLength, charset);
+        pendingLength = 0;
+        return line;
+    }
+
+    /**
+     * Keeps a part of a line.
+     *
+     * @param start start in the buffer
+     * @param end end in the buffer
+     */
+    private void keep(int start, int end) {
+        int length = end - start;
+        if (pendingLength + length > pending.length) {
+            byte[] bigger = new byte[Math.max(pending.length * 2, pendingLength + length)];
+            System.arraycopy(pending, 0, bigger, 0, pendingLength);
+            pending = bigger;
+        }
+        System.arraycopy(buffer, start, pending, pendingLength, length);
+        pendingLength += length;
+    }
+
+    /**
+     * Checks if the last line ended with a newline.
+     *
+     * @return true/false
+     */
+    public boolean isTerminated() {
+        return terminated;
+    }
+}
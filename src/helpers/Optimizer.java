@@ -0,0 +1,188 @@
+package helpers;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rewrites parsed pipelines into cheaper plans with the same output. It works on the commands
+ * between the parser and the start of the processes, the processes are not touched.
+ *
+ * Rules:
+ * cat f | grep [-flags] x  becomes  grep [-flags] x f  - the file is scanned by grep, no cat process
+ * cat f | wc                becomes  wc f               - newlines are counted straight in the file
+ * cat f | head [-n k]       becomes  head -n k f        - only the first lines of the file are read
+ * cat f | tail [-n k]       becomes  tail -n k f        - the file is read from its end
+ * sort | uniq               becomes  sort -u            - distinct lines by hashing, only those are sorted (byte order only)
+ * sort | head [-n k]        becomes  sort --top k       - bounded top-k instead of sorting everything
+ *
+ * @author Radek Bouda
+ */
+public class Optimizer {
+    /** Default number of lines of head */
+    private static final String HEAD_LINES = "10";
+    /** Help argument of the processes, such commands are not rewritten */
+    private static final String HELP = "--help";
+
+    /** Descriptions of the applied rules */
+    private final List<String> applied = new ArrayList<String>();
+
+    /**
+     * Rewrites a pipeline. Rules are applied until none of them matches.
+     *
+     * @param commands parsed pipeline
+     * @return optimized pipeline, a new list
+     */
+    public List<List<String>> optimize(List<List<String>> commands) {
+        List<List<String>> plan = new ArrayList<List<String>>();
+        for (List<String> command : commands) plan.add(new ArrayList<String>(command));
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 0; i + 1 < plan.size() && !changed; i++) {
+                List<String> first = plan.get(i);
+                List<String> second = plan.get(i + 1);
+                List<String> merged = merge(first, second);
+                if (merged != null) {
+                    applied.add(toString(first) + " | " + toString(second) + " -> " + toString(merged));
+                    plan.set(i, merged);
+                    plan.remove(i + 1);
+                    changed = true;
+                }
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Merges two adjacent commands.
+     *
+     * @param first command writing to the pipe
+     * @param second command reading the pipe
+     * @return merged command or null if no rule matches
+     */
+    private List<String> merge(List<String> first, List<String> second) {
+        if (first.contains(HELP) || second.contains(HELP)) return null;
+        String producer = first.get(0).toLowerCase();
+        String consumer = second.get(0).toLowerCase();
+        if (producer.equals("cat") && first.size() == 2) {
+            if (consumer.equals("grep") && readsPipe(second)) {
+                List<String> merged = new ArrayList<String>(second);
+                merged.add(first.get(1));
+                return merged;
+            }
+            if (consumer.equals("wc") && second.size() == 1) return command("wc", first.get(1));
+            if (consumer.equals("head") || consumer.equals("tail")) {
+                String lines = headLines(second);
+                if (lines != null) return command(consumer, "-n", lines, first.get(1));
+            }
+        }
+        if (producer.equals("sort") && !first.contains("--top")) {
+            if (consumer.equals("uniq") && second.size() == 1 && !first.contains("-u") && comparesBytes(first)) {
+                List<String> merged = new ArrayList<String>(first);
+                merged.add("-u");
+                return merged;
+            }
+            if (consumer.equals("head")) {
+                String lines = headLines(second);
+                if (lines == null) return null;
+                List<String> merged = new ArrayList<String>(first);
+                merged.add("--top");
+                merged.add(lines);
+                return merged;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks if grep has flags and a pattern, but no file.
+     *
+     * @param grep grep command
+     * @return true/false
+     */
+    private boolean readsPipe(List<String> grep) {
+        if (grep.size() < 2) return false;
+        for (int i = 1; i < grep.size() - 1; i++) {
+            if (!grep.get(i).startsWith("-") || grep.get(i).equals("--")) return false;
+        }
+        return !grep.get(grep.size() - 1).startsWith("-");
+    }
+
+    /**
+     * Checks if sort orders whole lines by bytes, so its distinct lines are the lines uniq keeps.
+     *
+     * @param sort sort command
+     * @return true/false
+     */
+    private boolean comparesBytes(List<String> sort) {
+        for (String option : sort) {
+            if (option.startsWith("-k") || option.startsWith("-t") || option.equals("--locale")) return false;
+            if (option.matches("-[umnr]+") && option.indexOf('n') > 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Gets the number of lines of head or tail.
+     *
+     * @param head head or tail command
+     * @return number of lines or null if the arguments are not known
+     */
+    private String headLines(List<String> head) {
+        if (head.size() == 1) return HEAD_LINES;
+        if (head.size() == 3 && head.get(1).equals("-n") && head.get(2).matches("\\d+")) return head.get(2);
+        return null;
+    }
+
+    /**
+     * Creates a command.
+     *
+     * @param parts name and arguments
+     * @return command
+     */
+    private static List<String> command(String... parts) {
+        List<String> command = new ArrayList<String>();
+        for (String part : parts) command.add(part);
+        return command;
+    }
+
+    /**
+     * Prints a command.
+     *
+     * @param command command
+     * @return command as typed
+     */
+    public static String toString(List<String> command) {
+        StringBuilder builder = new StringBuilder();
+        for (String part : command) {
+            if (builder.length() > 0) builder.append(' ');
+            builder.append(part.contains(" ") ? "\"" + part + "\"" : part);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Prints a pipeline.
+     *
+     * @param commands pipeline
+     * @param separator separator of the commands
+     * @return pipeline as typed
+     */
+    public static String toString(List<List<String>> commands, String separator) {
+        StringBuilder builder = new StringBuilder();
+        for (List<String> command : commands) {
+            if (builder.length() > 0) builder.append(separator);
+            builder.append(toString(command));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Gets descriptions of the applied rules.
+     *
+     * @return rules
+     */
+    public List<String> getApplied() {
+        return applied;
+    }
+}
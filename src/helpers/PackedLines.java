@@ -0,0 +1,390 @@
+package helpers;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Lines packed in large byte slabs with a primitive index, so a kept line costs its bytes, its length
+ * and 8 bytes of the index instead of an object. Lines are stored in the slabs after their lengths as varints.
+ * An entry of the index is one long - the first 3 bytes of the line, which decide most comparisons without
+ * touching the slabs, and the position of the line (slab, offset). Sorting moves only the entries of the index.
+ * The index is kept in pages, so it grows without copying.
+ *
+ * @author Radek Bouda
+ */
+public class PackedLines {
+    /** Memory of a line besides its bytes - length, entry of the index and a slot of the hash table */
+    public static final int LINE_MEMORY = 18;
+
+    /** Bits of an offset in a slab, size of the slabs */
+    private static final int SLAB_BITS = 20;
+    private static final int SLAB_SIZE = 1 << SLAB_BITS;
+    /** Bits of the position of a line in an entry, the prefix is above them */
+    private static final int POSITION_BITS = 40;
+    /** Bytes of the prefix */
+    private static final int PREFIX_LENGTH = 3;
+    /** Bits of the number of lines of a page of the index */
+    private static final int PAGE_BITS = 16;
+    private static final int PAGE_MASK = (1 << PAGE_BITS) - 1;
+    /** Ranges of the index of this size and larger are forked */
+    private static final int PARALLEL_SORT = 1 << 13;
+    /** Ranges of this size and smaller are sorted by insertion */
+    private static final int INSERTION_SORT = 16;
+
+    /** Slabs of bytes, lines longer than a slab get a slab of their own */
+    private final List<byte[]> slabs = new ArrayList<byte[]>();
+    /** Current slab and the end of its bytes */
+    private int slab = -1;
+    private int end = SLAB_SIZE;
+    /** Pages of the index, an entry of every line */
+    private long[][] pages = new long[16][];
+    private int size = 0;
+    /** Open addressing table of line numbers + 1 for distinct lines, null until needed */
+    private int[] table;
+
+    /**
+     * Adds a line.
+     *
+     * @param data bytes
+     * @param off start of the line
+     * @param len length of the line
+     */
+    public void add(byte[] data, int off, int len) {
+        int page = size >>> PAGE_BITS;
+        if (page == pages.length) pages = Arrays.copyOf(pages, pages.length * 2);
+        if (pages[page] == null) pages[page] = new long[1 << PAGE_BITS];
+        pages[page][size & PAGE_MASK] = prefix(data, off, len) | store(data, off, len);
+        size++;
+    }
+
+    /**
+     * Adds a line if it is not kept already.
+     *
+     * @param data bytes
+     * @param off start of the line
+     * @param len length of the line
+     * @return false if an equal line is kept
+     */
+    public boolean addDistinct(byte[] data, int off, int len) {
+        if (table == null || 2 * (size + 1) > table.length) rehash();
+        int mask = table.length - 1;
+        int slot = hash(data, off, len) & mask;
+        while (table[slot] != 0) {
+            long entry = entryOf(table[slot] - 1);
+            byte[] lineSlab = slabs.get(slabOf(entry));
+            int offset = offsetOf(entry);
+            int length = readLength(lineSlab, offset);
+            if (compareBytes(data, off, len, lineSlab, offset + lengthSize(length), length) == 0) return false;
+            slot = (slot + 1) & mask;
+        }
+        add(data, off, len);
+        table[slot] = size;
+        return true;
+    }
+
+    /**
+     * Gets the number of lines.
+     *
+     * @return number of lines
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Drops the lines, the slabs and pages are kept for the next ones.
+     */
+    public void clear() {
+        for (int i = slabs.size() - 1; i >= 0; i--) {
+            if (slabs.get(i).length != SLAB_SIZE) slabs.remove(i);             // Slabs of long lines
+        }
+        slab = -1;
+        end = SLAB_SIZE;
+        size = 0;
+        table = null;
+    }
+
+    /**
+     * Sorts the lines by their bytes, in parallel.
+     *
+     * @param reverse reverse order
+     */
+    public void sort(boolean reverse) {
+        Sort task = new Sort(reverse, 0, size - 1, 2 * (32 - Integer.numberOfLeadingZeros(size)));
+        if (size < PARALLEL_SORT) task.compute();
+        else ForkJoinPool.commonPool().invoke(task);
+    }
+
+    /**
+     * Copies the lines in the order of the index.
+     *
+     * @return lines
+     */
+    public byte[][] toArrays() {
+        byte[][] lines = new byte[size][];
+        for (int i = 0; i < size; i++) {
+            long entry = entryOf(i);
+            byte[] lineSlab = slabs.get(slabOf(entry));
+            int offset = offsetOf(entry);
+            int length = readLength(lineSlab, offset);
+            offset += lengthSize(length);
+            lines[i] = Arrays.copyOfRange(lineSlab, offset, offset + length);
+        }
+        return lines;
+    }
+
+    /**
+     * Pushes the first lines in the order of the index. The operator is not finished.
+     *
+     * @param count number of the lines
+     * @param next operator
+     * @throws IOException if the output is closed
+     */
+    public void push(int count, LineOperator next) throws IOException {
+        for (int i = 0; i < Math.min(count, size); i++) {
+            long entry = entryOf(i);
+            byte[] lineSlab = slabs.get(slabOf(entry));
+            int offset = offsetOf(entry);
+            int length = readLength(lineSlab, offset);
+            next.push(lineSlab, offset + lengthSize(length), length, true);
+        }
+    }
+
+    /**
+     * Copies a line with its length into the slabs.
+     *
+     * @return position of the line
+     */
+    private long store(byte[] data, int off, int len) {
+        int needed = lengthSize(len) + len;
+        if (needed > SLAB_SIZE) {                       // Own slab
+            slabs.add(slab + 1, new byte[needed]);
+            slab++;
+            writeLength(slabs.get(slab), 0, len);
+            System.arraycopy(data, off, slabs.get(slab), lengthSize(len), len);
+            end = SLAB_SIZE;                            // Next line starts a new slab
+            return (long) slab << SLAB_BITS;
+        }
+        if (end + needed > SLAB_SIZE) {
+            slab++;
+            if (slab == slabs.size()) slabs.add(new byte[SLAB_SIZE]);
+            end = 0;
+        }
+        byte[] current = slabs.get(slab);
+        long position = (long) slab << SLAB_BITS | end;
+        end = writeLength(current, end, len);
+        System.arraycopy(data, off, current, end, len);
+        end += len;
+        return position;
+    }
+
+    /**
+     * Builds the table of distinct lines again, with room for more lines.
+     */
+    private void rehash() {
+        table = new int[Math.max(1024, Integer.highestOneBit(Math.max(1, size)) * 4)];
+        int mask = table.length - 1;
+        for (int i = 0; i < size; i++) {
+            long entry = entryOf(i);
+            byte[] lineSlab = slabs.get(slabOf(entry));
+            int offset = offsetOf(entry);
+            int length = readLength(lineSlab, offset);
+            int slot = hash(lineSlab, offset + lengthSize(length), length) & mask;
+            while (table[slot] != 0) slot = (slot + 1) & mask;
+            table[slot] = i + 1;
+        }
+    }
+
+    private long entryOf(int line) {
+        return pages[line >>> PAGE_BITS][line & PAGE_MASK];
+    }
+
+    private static int slabOf(long entry) {
+        return (int) (entry >>> SLAB_BITS) & ((1 << (POSITION_BITS - SLAB_BITS)) - 1);
+    }
+
+    private static int offsetOf(long entry) {
+        return (int) entry & (SLAB_SIZE - 1);
+    }
+
+    /**
+     * Writes a length as a varint.
+     *
+     * @return end of the varint
+     */
+    private static int writeLength(byte[] slab, int offset, int length) {
+        while (length >= 0x80) {
+            slab[offset++] = (byte) (length | 0x80);
+            length >>>= 7;
+        }
+        slab[offset++] = (byte) length;
+        return offset;
+    }
+
+    private static int readLength(byte[] slab, int offset) {
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = slab[offset++];
+            length |= (b & 0x7F) << shift;
+            if (b >= 0) return length;
+        }
+    }
+
+    private static int lengthSize(int length) {
+        int size = 1;
+        while (length >= 0x80) {
+            length >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Gets the first bytes of a line above the position bits, shorter lines padded by zeros.
+     */
+    private static long prefix(byte[] data, int off, int len) {
+        long prefix = 0;
+        for (int i = 0; i < PREFIX_LENGTH; i++) prefix = prefix << 8 | (i < len ? data[off + i] & 0xFF : 0);
+        return prefix << POSITION_BITS;
+    }
+
+    private static int hash(byte[] data, int off, int len) {
+        int hash = 1;
+        for (int i = off; i < off + len; i++) hash = 31 * hash + data[i];
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Compares bytes as unsigned.
+     */
+    private static int compareBytes(byte[] a, int aOff, int aLen, byte[] b, int bOff, int bLen) {
+        int length = Math.min(aLen, bLen);
+        for (int i = 0; i < length; i++) {
+            int diff = (a[aOff + i] & 0xFF) - (b[bOff + i] & 0xFF);
+            if (diff != 0) return diff;
+        }
+        return aLen - bLen;
+    }
+
+    /**
+     * Sort of a range of the index - quicksort, forked for large ranges, heapsort for too deep ones.
+     */
+    private final class Sort extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final boolean reverse;
+        private final int low;
+        private final int high;
+        /** Remaining depth before heapsort */
+        private final int depth;
+        /** Forked parts, joined at the end */
+        private final List<Sort> parts = new ArrayList<Sort>();
+
+        Sort(boolean reverse, int low, int high, int depth) {
+            this.reverse = reverse;
+            this.low = low;
+            this.high = high;
+            this.depth = depth;
+        }
+
+        @Override
+        protected void compute() {
+            int low = this.low, high = this.high, depth = this.depth;
+            while (high - low > INSERTION_SORT) {
+                if (depth-- == 0) {                     // Bad pivots
+                    heapSort(low, high);
+                    low = high;
+                    break;
+                }
+                int middle = (low + high) >>> 1;        // Median of three as the pivot
+                if (compare(entryOf(middle), entryOf(low)) < 0) swap(middle, low);
+                if (compare(entryOf(high), entryOf(low)) < 0) swap(high, low);
+                if (compare(entryOf(high), entryOf(middle)) < 0) swap(high, middle);
+                long pivot = entryOf(middle);
+                int i = low - 1, j = high + 1;
+                while (true) {
+                    do i++; while (compare(entryOf(i), pivot) < 0);
+                    do j--; while (compare(entryOf(j), pivot) > 0);
+                    if (i >= j) break;
+                    swap(i, j);
+                }
+                if (j - low < high - j) {               // Smaller part first, the larger one in the loop
+                    sortPart(low, j, depth);
+                    low = j + 1;
+                } else {
+                    sortPart(j + 1, high, depth);
+                    high = j;
+                }
+            }
+            insertionSort(low, high);
+            for (Sort part : parts) part.join();
+        }
+
+        /**
+         * Sorts a part, forked if it is large.
+         */
+        private void sortPart(int low, int high, int depth) {
+            Sort part = new Sort(reverse, low, high, depth);
+            if (high - low < PARALLEL_SORT) {
+                part.compute();
+            } else {
+                part.fork();
+                parts.add(part);
+            }
+        }
+
+        private void insertionSort(int low, int high) {
+            for (int i = low + 1; i <= high; i++) {
+                for (int j = i; j > low && compare(entryOf(j), entryOf(j - 1)) < 0; j--) swap(j, j - 1);
+            }
+        }
+
+        private void heapSort(int low, int high) {
+            int count = high - low + 1;
+            for (int i = count / 2 - 1; i >= 0; i--) siftDown(low, i, count);
+            for (int last = count - 1; last > 0; last--) {
+                swap(low, low + last);
+                siftDown(low, 0, last);
+            }
+        }
+
+        private void siftDown(int base, int node, int count) {
+            while (2 * node + 1 < count) {
+                int child = 2 * node + 1;
+                if (child + 1 < count && compare(entryOf(base + child + 1), entryOf(base + child)) > 0) child++;
+                if (compare(entryOf(base + node), entryOf(base + child)) >= 0) return;
+                swap(base + node, base + child);
+                node = child;
+            }
+        }
+
+        /**
+         * Compares lines of entries, by their prefixes first.
+         */
+        private int compare(long a, long b) {
+            long aPrefix = a >>> POSITION_BITS, bPrefix = b >>> POSITION_BITS;
+            int result;
+            if (aPrefix != bPrefix) {
+                result = aPrefix < bPrefix ? -1 : 1;
+            } else {
+                byte[] aSlab = slabs.get(slabOf(a)), bSlab = slabs.get(slabOf(b));
+                int aOffset = offsetOf(a), bOffset = offsetOf(b);
+                int aLength = readLength(aSlab, aOffset), bLength = readLength(bSlab, bOffset);
+                int equal = Math.min(PREFIX_LENGTH, Math.min(aLength, bLength));     // Equal by the prefixes
+                result = compareBytes(aSlab, aOffset + lengthSize(aLength) + equal, aLength - equal,
+                        bSlab, bOffset + lengthSize(bLength) + equal, bLength - equal);
+            }
+            return reverse ? -result : result;
+        }
+
+        private void swap(int a, int b) {
+            long[] aPage = pages[a >>> PAGE_BITS], bPage = pages[b >>> PAGE_BITS];
+            long entry = aPage[a & PAGE_MASK];
+            aPage[a & PAGE_MASK] = bPage[b & PAGE_MASK];
+            bPage[b & PAGE_MASK] = entry;
+        }
+    }
+}
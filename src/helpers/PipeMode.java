@@ -0,0 +1,55 @@
+package helpers;
+
+import kernel.Kernel;
+
+import java.io.File;
+
+/**
+ * Modes of pipes between processes. Each mode knows how to create its pipe.
+ *
+ * @author Radek Bouda
+ */
+public enum PipeMode {
+    /** Lock-free ring of bytes */
+    RING {
+        @Override
+        public BBPipedInputStream createPipe(int pipeSize) {
+            return new BBPipedInputStream(pipeSize);
+        }
+    },
+    /** Hand-off of whole chunks, zero-copy for processes using the chunk API */
+    CHUNK {
+        @Override
+        public BBPipedInputStream createPipe(int pipeSize) {
+            return new BBChunkedInputStream(pipeSize);
+        }
+    },
+    /** Ring which spills to a memory-mapped file instead of blocking the writer */
+    SPILL {
+        @Override
+        public BBPipedInputStream createPipe(int pipeSize) {
+            return new BBSpillingInputStream(pipeSize, new File(Kernel.FILESYSTEM_FOLDER));
+        }
+    };
+
+    /**
+     * Creates a new unconnected pipe.
+     *
+     * @param pipeSize capacity of the pipe
+     * @return input side of the pipe
+     */
+    public abstract BBPipedInputStream createPipe(int pipeSize);
+
+    /**
+     * Finds a mode by its name. Case insensitive.
+     *
+     * @param name name of the mode
+     * @return mode or null if there is no such a mode
+     */
+    public static PipeMode fromName(String name) {
+        for (PipeMode mode : values()) {
+            if (mode.name().equalsIgnoreCase(name)) return mode;
+        }
+        return null;
+    }
+}
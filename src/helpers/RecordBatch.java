@@ -0,0 +1,172 @@
+package helpers;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Batch of line records passed between line-aware processes. Records are frames (offset and length)
+ * over one shared buffer, the delimiting newlines are not stored. Only the last record of the stream
+ * may be unterminated - when the stream did not end with a newline.
+ *
+ * @author Radek Bouda
+ */
+public class RecordBatch {
+    /** Maximal number of records in a batch */
+    public static final int MAX_RECORDS = 1024;
+    /** Charset of the records */
+    public static final Charset CHARSET = Charset.forName("UTF-8");
+
+    /** Bytes of the records */
+    byte[] data;
+    /** Whether data are a segment of the pool */
+    private boolean pooled;
+    /** Number of used bytes, including the open record */
+    int used = 0;
+    /** Start of the open (not yet delimited) record */
+    int start = 0;
+    /** Frames of the records */
+    final int[] offsets = new int[MAX_RECORDS];
+    final int[] lengths = new int[MAX_RECORDS];
+    /** Number of records */
+    int count = 0;
+    /** Whether the last record lacks its newline */
+    boolean unterminated = false;
+
+    /**
+     * Creates an empty batch.
+     *
+     * @param data buffer of the batch
+     * @param pooled whether the buffer is a segment of the pool
+     */
+    RecordBatch(byte[] data, boolean pooled) {
+        this.data = data;
+        this.pooled = pooled;
+    }
+
+    /**
+     * Empties the batch.
+     */
+    void clear() {
+        used = start = count = 0;
+        unterminated = false;
+    }
+
+    /**
+     * Checks if there is room for another record.
+     *
+     * @return true/false
+     */
+    boolean hasRecordRoom() {
+        return count < MAX_RECORDS;
+    }
+
+    /**
+     * Closes the open record.
+     */
+    void endRecord() {
+        offsets[count] = start;
+        lengths[count] = used - start;
+        count++;
+        start = used;
+    }
+
+    /**
+     * Drops records read before. Used when a batch is partially read as a stream.
+     *
+     * @param records number of whole records to drop
+     * @param bytes number of bytes to drop from the next record
+     */
+    void skip(int records, int bytes) {
+        if (records == count) {
+            count = 0;
+            return;
+        }
+        System.arraycopy(offsets, records, offsets, 0, count - records);
+        System.arraycopy(lengths, records, lengths, 0, count - records);
+        count -= records;
+        offsets[0] += bytes;
+        lengths[0] -= bytes;
+    }
+
+    /**
+     * Moves bytes of the open record to the start of an empty batch.
+     *
+     * @param next empty batch
+     */
+    void carryTo(RecordBatch next) {
+        int open = used - start;
+        if (open > next.data.length) next.grow(open);
+        System.arraycopy(data, start, next.data, 0, open);
+        next.used = open;
+        used = start;
+    }
+
+    /**
+     * Makes the buffer bigger, used by records longer than the buffer.
+     * A pooled buffer is given back to the pool.
+     *
+     * @param minimum minimal size of the buffer
+     */
+    void grow(int minimum) {
+        byte[] bigger = Arrays.copyOf(data, Math.max(minimum, data.length * 2));
+        if (pooled) SegmentPool.getInstance().release(data);
+        pooled = false;
+        data = bigger;
+    }
+
+    /**
+     * Gives a pooled buffer back.
+     *
+     * @param pool pool of segments
+     */
+    void release(SegmentPool pool) {
+        if (pooled) pool.release(data);
+        pooled = false;
+    }
+
+    /**
+     * Number of records.
+     *
+     * @return size
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Shared buffer of the records. Records must not be changed.
+     *
+     * @return buffer
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getOffset(int record) {
+        return offsets[record];
+    }
+
+    public int getLength(int record) {
+        return lengths[record];
+    }
+
+    /**
+     * Checks if the record was delimited by a newline.
+     *
+     * @param record index of the record
+     * @return true/false
+     */
+    public boolean isTerminated(int record) {
+        return !unterminated || record < count - 1;
+    }
+
+    /**
+     * Decodes a record.
+     *
+     * @param record index of the record
+     * @return record as a string
+     */
+    public String getString(int record) {
+        return new String(data, offsets[record], lengths[record], CHARSET);
+    }
+}
@@ -0,0 +1,161 @@
+package helpers;
+
+import java.io.IOException;
+
+/**
+ * Splits bytes into line records. Shared by the record pipe, which frames bytes of writers
+ * that are not line-aware, and by the RecordReader, which frames bytes of plain pipes.
+ * Full batches are published, the open record is carried over to the next batch.
+ *
+ * @author Radek Bouda
+ */
+abstract class RecordFramer {
+    /** Number of newlines found by one scan */
+    private static final int SCAN = 256;
+
+    /** Batch being filled */
+    RecordBatch batch;
+    /** Positions of the found newlines */
+    private final int[] newlines = new int[SCAN];
+
+    /**
+     * Gets an empty batch.
+     *
+     * @return empty batch
+     * @throws IOException if the pipe is closed
+     */
+    abstract RecordBatch emptyBatch() throws IOException;
+
+    /**
+     * Publishes a batch with at least one record.
+     *
+     * @param full batch
+     * @throws IOException if the pipe is closed
+     */
+    abstract void publish(RecordBatch full) throws IOException;
+
+    /**
+     * Frames bytes, every newline ends a record.
+     *
+     * @param b bytes
+     * @param off offset
+     * @param len length
+     * @throws IOException if the pipe is closed
+     */
+    void frame(byte[] b, int off, int len) throws IOException {
+        int end = off + len;
+        int found;
+        do {
+            found = ByteScan.find(b, off, end, '\n', newlines);
+            for (int k = 0; k < found; k++) {
+                append(b, off, newlines[k] - off);
+                endRecord();
+                off = newlines[k] + 1;
+            }
+        } while (found == SCAN);
+        append(b, off, end - off);
+    }
+
+    /**
+     * Frames a single byte.
+     *
+     * @param b byte
+     * @throws IOException if the pipe is closed
+     */
+    void frame(int b) throws IOException {
+        if (b == '\n') {
+            endRecord();
+            return;
+        }
+        if (batch == null || batch.used == batch.data.length) makeRoom();
+        batch.data[batch.used++] = (byte) b;
+    }
+
+    /**
+     * Adds a whole record. Bytes of an unfinished record are its prefix.
+     *
+     * @param b bytes
+     * @param off offset
+     * @param len length
+     * @throws IOException if the pipe is closed
+     */
+    void record(byte[] b, int off, int len) throws IOException {
+        append(b, off, len);
+        endRecord();
+    }
+
+    /**
+     * Adds bytes to the open record.
+     */
+    private void append(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (batch == null || batch.used == batch.data.length) makeRoom();
+            int amount = Math.min(len, batch.data.length - batch.used);
+            System.arraycopy(b, off, batch.data, batch.used, amount);
+            batch.used += amount;
+            off += amount;
+            len -= amount;
+        }
+    }
+
+    /**
+     * Closes the open record, publishes the batch if there is no room for the next one.
+     */
+    private void endRecord() throws IOException {
+        if (batch == null || !batch.hasRecordRoom()) makeRoom();
+        batch.endRecord();
+    }
+
+    /**
+     * Makes room in the current batch. Publishes the complete records, or grows the buffer
+     * if the open record fills the whole batch.
+     */
+    private void makeRoom() throws IOException {
+        if (batch == null) {
+            batch = emptyBatch();
+        } else if (batch.count > 0) {
+            flush();
+        } else {
+            batch.grow(0);
+        }
+    }
+
+    /**
+     * Publishes the complete records. The open record stays.
+     *
+     * @throws IOException if the pipe is closed
+     */
+    void flush() throws IOException {
+        if (batch == null || batch.count == 0) return;
+        RecordBatch full = batch;
+        batch = emptyBatch();
+        full.carryTo(batch);
+        publish(full);
+    }
+
+    /**
+     * Closes the open record as unterminated and publishes everything.
+     *
+     * @throws IOException if the pipe is closed
+     */
+    void finish() throws IOException {
+        if (batch == null) return;
+        if (batch.used > batch.start) {
+            if (!batch.hasRecordRoom()) flush();
+            batch.endRecord();
+            batch.unterminated = true;
+        }
+        RecordBatch last = batch;
+        batch = null;
+        if (last.count > 0) publish(last);
+        else drop(last);
+    }
+
+    /**
+     * Called with an empty batch which is not needed anymore.
+     *
+     * @param empty batch
+     */
+    void drop(RecordBatch empty) {
+    }
+}
@@ -0,0 +1,141 @@
+package helpers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Reads line records from an input. Batches of a record pipe are taken as they are,
+ * bytes of other inputs are framed here. A batch is valid until the next call of {@link #next()}.
+ *
+ * @author Radek Bouda
+ */
+public class RecordReader {
+    /** Size of the buffers of framed batches */
+    private static final int BUFFER_SIZE = 16384;
+
+    /** Record pipe or null */
+    private final BBRecordInputStream records;
+    /** Other input */
+    private final InputStream input;
+    /** Current batch */
+    private RecordBatch current;
+
+    /** Frames bytes of other inputs */
+    private RecordFramer framer;
+    /** Framed batches */
+    private ArrayDeque<RecordBatch> ready;
+    /** Read batches */
+    private ArrayDeque<RecordBatch> free;
+    /** Buffer for bytes without an array */
+    private byte[] buffer;
+    /** End of the input */
+    private boolean eof = false;
+
+    /**
+     * Creates a new reader.
+     *
+     * @param input input of a process
+     */
+    public RecordReader(InputStream input) {
+        this.input = input;
+        this.records = input instanceof BBRecordInputStream ? (BBRecordInputStream) input : null;
+        if (records == null) {
+            this.ready = new ArrayDeque<RecordBatch>();
+            this.free = new ArrayDeque<RecordBatch>();
+            this.framer = new RecordFramer() {
+                @Override
+                RecordBatch emptyBatch() {
+                    RecordBatch batch = free.poll();
+                    if (batch == null) return new RecordBatch(new byte[BUFFER_SIZE], false);
+                    batch.clear();
+                    return batch;
+                }
+
+                @Override
+                void publish(RecordBatch full) {
+                    ready.add(full);
+                }
+
+                @Override
+                void drop(RecordBatch empty) {
+                    free.add(empty);
+                }
+            };
+        }
+    }
+
+    /**
+     * Gets the next batch of records. The previous batch is released.
+     *
+     * @return batch or null in case of end of the input
+     * @throws IOException if the input is closed or the reader is interrupted
+     */
+    public RecordBatch next() throws IOException {
+        if (records != null) {
+            if (current != null) records.releaseRecords(current);
+            current = records.takeRecords();
+            return current;
+        }
+        if (current != null) free.add(current);
+        while (ready.isEmpty() && !eof) fill();
+        current = ready.poll();
+        return current;
+    }
+
+    /**
+     * Frames the next part of the input.
+     */
+    private void fill() throws IOException {
+        if (input instanceof BBPipedInputStream) {
+            BBPipedInputStream pipe = (BBPipedInputStream) input;
+            ByteBuffer chunk = pipe.takeChunk();
+            if (chunk == null) {
+                finish();
+                return;
+            }
+            if (chunk.hasArray()) {
+                framer.frame(chunk.array(), chunk.arrayOffset() + chunk.position(), chunk.remaining());
+            } else {
+                while (chunk.hasRemaining()) {          // F.e. a spilled segment
+                    int amount = Math.min(chunk.remaining(), buffer().length);
+                    chunk.get(buffer, 0, amount);
+                    framer.frame(buffer, 0, amount);
+                }
+            }
+            pipe.releaseChunk(chunk);
+        } else {
+            int amount = input.read(buffer());
+            if (amount < 0) finish();
+            else framer.frame(buffer, 0, amount);
+        }
+        framer.flush();
+    }
+
+    /**
+     * Publishes the last record.
+     */
+    private void finish() throws IOException {
+        framer.finish();
+        eof = true;
+    }
+
+    /**
+     * Gets the buffer for bytes without an array.
+     *
+     * @return buffer
+     */
+    private byte[] buffer() {
+        if (buffer == null) buffer = new byte[BUFFER_SIZE];
+        return buffer;
+    }
+
+    /**
+     * Releases the current batch. Called when the reader stops before the end of the input.
+     */
+    public void close() {
+        if (records != null && current != null) records.releaseRecords(current);
+        current = null;
+    }
+}
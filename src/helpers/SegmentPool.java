@@ -0,0 +1,125 @@
+package helpers;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Kernel-wide pool of small buffer segments used by pipes.
+ * Pipes take segments only when data are written and give them back when they are consumed
+ * or closed, so a pipe nobody writes to costs nothing. Idle segments are kept up to a limit,
+ * the rest is left to the garbage collector.
+ * Class is designed according to SINGLETON design pattern.
+ *
+ * @author Radek Bouda
+ */
+public class SegmentPool {
+    /** Size of one segment. Must be a power of two. 16kB */
+    public static final int SEGMENT_SIZE = 16384;
+    /** Maximal number of idle segments kept by the pool. 16MB */
+    public static final int MAX_IDLE = 1024;
+
+    /** Single instance of the pool */
+    private static final SegmentPool INSTANCE = new SegmentPool(SEGMENT_SIZE, MAX_IDLE);
+
+    /** Idle segments */
+    private final ConcurrentLinkedQueue<byte[]> idle;
+    /** Number of idle segments */
+    private final AtomicInteger idleCount;
+    /** Size of one segment */
+    private final int segmentSize;
+    /** Maximal number of idle segments */
+    private final int maxIdle;
+
+    /** Statistics */
+    private final AtomicLong requests;
+    private final AtomicLong hits;
+    private final AtomicLong outstanding;
+
+    /**
+     * Creates a new pool.
+     *
+     * @param segmentSize size of one segment, power of two
+     * @param maxIdle maximal number of idle segments
+     */
+    SegmentPool(int segmentSize, int maxIdle) {
+        if (segmentSize <= 0 || Integer.bitCount(segmentSize) != 1) {
+            throw new IllegalArgumentException("Segment size must be a power of two");
+        }
+        this.segmentSize = segmentSize;
+        this.maxIdle = maxIdle;
+        this.idle = new ConcurrentLinkedQueue<byte[]>();
+        this.idleCount = new AtomicInteger();
+        this.requests = new AtomicLong();
+        this.hits = new AtomicLong();
+        this.outstanding = new AtomicLong();
+    }
+
+    /**
+     * This static method returns the instance of the pool.
+     * @return One, always the same, instance of the pool.
+     */
+    public static SegmentPool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Takes a segment. Idle one if possible, otherwise a new one.
+     *
+     * @return segment of segmentSize bytes
+     */
+    public byte[] acquire() {
+        requests.incrementAndGet();
+        outstanding.incrementAndGet();
+        byte[] segment = idle.poll();
+        if (segment == null) return new byte[segmentSize];
+        idleCount.decrementAndGet();
+        hits.incrementAndGet();
+        return segment;
+    }
+
+    /**
+     * Gives a segment back. Segment is dropped if the pool is full.
+     *
+     * @param segment segment taken by acquire
+     */
+    public void release(byte[] segment) {
+        if (segment == null || segment.length != segmentSize) return;
+        outstanding.decrementAndGet();
+        if (idleCount.incrementAndGet() > maxIdle) {
+            idleCount.decrementAndGet();        // Full, let the GC take it
+            return;
+        }
+        idle.offer(segment);
+    }
+
+    // Getters
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+    public int getMaxIdle() {
+        return maxIdle;
+    }
+    public int getIdle() {
+        return idleCount.get();
+    }
+    public long getOutstanding() {
+        return outstanding.get();
+    }
+    public long getRequests() {
+        return requests.get();
+    }
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Ratio of requests served by an idle segment.
+     *
+     * @return hit rate from 0 to 1
+     */
+    public double getHitRate() {
+        long r = requests.get();
+        return r == 0 ? 0 : (double) hits.get() / r;
+    }
+}
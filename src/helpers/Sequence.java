@@ -0,0 +1,79 @@
+package helpers;
+
+/**
+ * @author Radek Bouda
+ * Monotonic position counter of a pipe. Each instance lives on its own cache line,
+ * so the producer's and the consumer's indices never share one (no false sharing).
+ * Only one thread ever writes the value, others just read it.
+ */
+public class Sequence extends SequenceRhsPadding {
+
+    /**
+     * Creates a new sequence starting at zero.
+     */
+    public Sequence() {
+        this(0);
+    }
+
+    /**
+     * Creates a new sequence starting at given value.
+     *
+     * @param initial initial value
+     */
+    public Sequence(long initial) {
+        value = initial;
+    }
+
+    /**
+     * Volatile read of the value.
+     *
+     * @return current value
+     */
+    public long get() {
+        return value;
+    }
+
+    /**
+     * Volatile write of the value. Full fence, so a following read of a "parked" flag
+     * can never be reordered before this write.
+     *
+     * @param value new value
+     */
+    public void set(long value) {
+        this.value = value;
+    }
+
+    /**
+     * Owner's cached copy of the opposite sequence. Plain field, touched only by the owner.
+     *
+     * @return cached value
+     */
+    public long getCached() {
+        return cached;
+    }
+
+    /**
+     * Sets owner's cached copy of the opposite sequence.
+     *
+     * @param cached cached value
+     */
+    public void setCached(long cached) {
+        this.cached = cached;
+    }
+}
+
+/** Padding before the value. */
+class SequenceLhsPadding {
+    protected long p1, p2, p3, p4, p5, p6, p7;
+}
+
+/** The value itself with owner's cache. */
+class SequenceValue extends SequenceLhsPadding {
+    protected volatile long value;
+    protected long cached;
+}
+
+/** Padding after the value. */
+class SequenceRhsPadding extends SequenceValue {
+    protected long p9, p10, p11, p12, p13, p14, p15;
+}
@@ -0,0 +1,261 @@
+package helpers;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorted runs of lines in temporary files, merged by a heap. Lines which do not fit into the memory
+ * of a sort are sorted in parts, each part is written as a run and the runs are merged at the end,
+ * so the memory does not grow with the input. Too many runs are merged into fewer runs first, level by level.
+ * Equal lines of different runs come in the order of the runs, so the first one of the input is kept by -u.
+ *
+ * @author Radek Bouda
+ */
+public class SortedRuns {
+    /** Maximal number of runs merged at once */
+    public static final int MAX_FAN_IN = 64;
+    /** Size of the buffers of the runs */
+    private static final int BUFFER_SIZE = 65536;
+
+    /** Directory of the runs */
+    private final File directory;
+    /** Order of the lines */
+    private final Comparator<byte[]> order;
+    /** Lines equal in it are kept once, null to keep all */
+    private final Comparator<byte[]> unique;
+    /** Written runs */
+    private final List<File> runs = new ArrayList<File>();
+
+    /**
+     * Creates an empty set of runs.
+     *
+     * @param directory directory of the temporary files
+     * @param order order of the lines
+     * @param unique lines equal in it are kept once, null to keep all
+     */
+    public SortedRuns(File directory, Comparator<byte[]> order, Comparator<byte[]> unique) {
+        this.directory = directory;
+        this.order = order;
+        this.unique = unique;
+    }
+
+    /**
+     * Gets an operator writing sorted lines as a new run, finishing it closes the run. Duplicates are dropped by the caller.
+     *
+     * @return operator
+     * @throws IOException if the run cannot be created
+     */
+    public LineOperator writer() throws IOException {
+        return writer(newRun());
+    }
+
+    /**
+     * Gets the number of written runs.
+     *
+     * @return number of runs
+     */
+    public int size() {
+        return runs.size();
+    }
+
+    /**
+     * Merges the runs and deletes them. The next operator is not finished.
+     *
+     * @param next operator of the merged lines
+     * @throws IOException if a run cannot be read or the output is closed
+     */
+    public void merge(LineOperator next) throws IOException {
+        List<File> level = new ArrayList<File>();
+        try {
+            while (runs.size() > MAX_FAN_IN) {          // Level by level, every line is written once per level
+                level = new ArrayList<File>(runs);
+                runs.clear();
+                for (int from = 0; from < level.size(); from += MAX_FAN_IN) {
+                    List<File> group = level.subList(from, Math.min(from + MAX_FAN_IN, level.size()));
+                    if (group.size() == 1) {
+                        runs.add(group.get(0));
+                        continue;
+                    }
+                    LineOperator out = writer(newRun());    // Runs of the next level keep the input order
+                    try {
+                        merge(open(group), order, unique, out);
+                    } finally {
+                        out.finish();
+                        for (File file : group) file.delete();
+                    }
+                }
+            }
+            merge(open(runs), order, unique, next);
+        } finally {
+            for (File file : level) file.delete();      // Not merged yet
+            delete();
+        }
+    }
+
+    /**
+     * Deletes the runs. Used when the sort stops before the merge.
+     */
+    public void delete() {
+        for (File run : runs) run.delete();
+        runs.clear();
+    }
+
+    /**
+     * Creates a file of a new run.
+     *
+     * @return file
+     * @throws IOException if the file cannot be created
+     */
+    private File newRun() throws IOException {
+        File run = File.createTempFile(".sort", ".run", directory);
+        run.deleteOnExit();                             // Killed sort
+        runs.add(run);
+        return run;
+    }
+
+    /**
+     * Gets an operator writing lines into a run, finishing it closes the run.
+     *
+     * @param run file of the run
+     * @return operator
+     * @throws IOException if the run cannot be opened
+     */
+    private static LineOperator writer(File run) throws IOException {
+        final OutputStream out = new BufferedOutputStream(new FileOutputStream(run), BUFFER_SIZE);
+        return new LineOperator() {
+            @Override
+            public void push(byte[] data, int off, int len, boolean terminated) throws IOException {
+                out.write(data, off, len);
+                out.write('\n');
+            }
+
+            @Override
+            public void finish() throws IOException {
+                out.close();
+            }
+        };
+    }
+
+    /**
+     * Opens runs.
+     *
+     * @param files runs
+     * @return inputs
+     * @throws IOException if a run cannot be opened
+     */
+    private static List<InputStream> open(List<File> files) throws IOException {
+        List<InputStream> inputs = new ArrayList<InputStream>();
+        try {
+            for (File file : files) inputs.add(new FileInputStream(file));
+        } catch (IOException e) {
+            for (InputStream input : inputs) input.close();
+            throw e;
+        }
+        return inputs;
+    }
+
+    /**
+     * Merges sorted inputs of lines by a heap of their first lines and closes them. The next operator is not finished.
+     *
+     * @param inputs sorted inputs
+     * @param order order of the lines
+     * @param unique lines equal in it are passed once, null to pass all
+     * @param next operator of the merged lines
+     * @throws IOException if an input cannot be read or the output is closed
+     */
+    public static void merge(List<InputStream> inputs, final Comparator<byte[]> order, Comparator<byte[]> unique, LineOperator next) throws IOException {
+        PriorityQueue<Run> heap = new PriorityQueue<Run>(Math.max(1, inputs.size()), new Comparator<Run>() {
+            @Override
+            public int compare(Run a, Run b) {
+                int result = order.compare(a.line, b.line);
+                return result != 0 ? result : a.index - b.index;    // Earlier input first
+            }
+        });
+        try {
+            for (int i = 0; i < inputs.size(); i++) {
+                Run run = new Run(inputs.get(i), i);
+                if (run.next()) heap.add(run);
+            }
+            byte[] last = null;
+            while (!heap.isEmpty()) {
+                Run run = heap.poll();
+                byte[] line = run.line;
+                if (unique == null || last == null || unique.compare(last, line) != 0) next.push(line, 0, line.length, true);
+                last = line;
+                if (run.next()) heap.add(run);
+            }
+        } finally {
+            for (InputStream input : inputs) input.close();
+        }
+    }
+
+    /**
+     * Reader of the lines of a sorted input.
+     */
+    private static final class Run {
+        private final InputStream input;
+        /** Position of the input among the merged ones */
+        private final int index;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int position = 0;
+        private int limit = 0;
+        /** Current line */
+        private byte[] line;
+
+        Run(InputStream input, int index) {
+            this.input = input;
+            this.index = index;
+        }
+
+        /**
+         * Reads the next line.
+         *
+         * @return false in case of end of the input
+         * @throws IOException if the input cannot be read
+         */
+        boolean next() throws IOException {
+            byte[] part = null;
+            int length = 0;
+            while (true) {
+                if (position == limit) {
+                    limit = input.read(buffer, 0, buffer.length);
+                    position = 0;
+                    if (limit <= 0) {
+                        limit = 0;
+                        if (part == null) return false;
+                        line = Arrays.copyOf(part, length);     // Last line without a newline
+                        return true;
+                    }
+                }
+                int end = position;
+                while (end < limit && buffer[end] != '\n') end++;
+                int amount = end - position;
+                if (part == null && end < limit) {
+                    line = Arrays.copyOfRange(buffer, position, end);
+                    position = end + 1;
+                    return true;
+                }
+                if (part == null) part = new byte[Math.max(256, amount * 2)];
+                if (length + amount > part.length) part = Arrays.copyOf(part, Math.max(part.length * 2, length + amount));
+                System.arraycopy(buffer, position, part, length, amount);
+                length += amount;
+                position = end;
+                if (end < limit) {
+                    position++;
+                    line = Arrays.copyOf(part, length);
+                    return true;
+                }
+            }
+        }
+    }
+}
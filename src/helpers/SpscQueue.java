@@ -0,0 +1,159 @@
+package helpers;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author Radek Bouda
+ * Bounded lock-free queue for exactly one producer and one consumer thread.
+ * Uses the same padded sequences and park/unpark protocol as BBPipedInputStream,
+ * it is used by the pipes which pass whole objects (chunks) instead of bytes.
+ *
+ * @param <E> type of items
+ */
+public class SpscQueue<E> {
+    /** Slots of the queue. Size is a power of two. */
+    private final Object[] items;
+    /** Mask of the slots. */
+    private final int mask;
+    /** Position of the next item to take. Owned by the consumer. */
+    private final Sequence head = new Sequence();
+    /** Position of the next item to put. Owned by the producer. */
+    private final Sequence tail = new Sequence();
+
+    private volatile boolean closed = false;
+    private volatile Thread producer;
+    private volatile Thread consumer;
+    private volatile boolean producerParked = false;
+    private volatile boolean consumerParked = false;
+
+    /**
+     * Creates a new queue.
+     *
+     * @param capacity minimal capacity, rounded up to a power of two
+     */
+    public SpscQueue(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity <= 0");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) size <<= 1;
+        items = new Object[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Puts an item into the queue. Blocks while the queue is full.
+     *
+     * @param item item
+     * @throws IOException if the queue is closed or the producer is interrupted
+     */
+    public void put(E item) throws IOException {
+        if (closed) throw new IOException("Pipe closed");
+        long t = tail.get();
+        if (t - tail.getCached() > mask) {
+            long h = head.get();
+            while (t - h > mask) {
+                producer = Thread.currentThread();
+                producerParked = true;              // Volatile write before re-reading head
+                h = head.get();
+                if (t - h > mask && !closed) LockSupport.park(this);
+                producerParked = false;
+                if (Thread.interrupted()) throw new InterruptedIOException();
+                if (closed) throw new IOException("Pipe closed");
+                h = head.get();
+            }
+            tail.setCached(h);
+        }
+        items[(int) t & mask] = item;
+        tail.set(t + 1);                            // Volatile write before reading the flag
+        if (consumerParked) LockSupport.unpark(consumer);
+    }
+
+    /**
+     * Takes an item without blocking.
+     *
+     * @return item or null if the queue is empty
+     */
+    public E poll() {
+        long h = head.get();
+        if (h == head.getCached()) {
+            head.setCached(tail.get());
+            if (h == head.getCached()) return null;
+        }
+        return remove(h);
+    }
+
+    /**
+     * Takes an item. Blocks while the queue is empty and not closed.
+     *
+     * @return item or null if the queue is closed and empty
+     * @throws IOException if the consumer is interrupted
+     */
+    public E take() throws IOException {
+        long h = head.get();
+        if (h == head.getCached()) {
+            long t = tail.get();
+            while (t == h) {
+                if (closed) {
+                    t = tail.get();                 // Item put just before close
+                    if (t == h) return null;
+                    break;
+                }
+                consumer = Thread.currentThread();
+                consumerParked = true;              // Volatile write before re-reading tail
+                t = tail.get();
+                if (t == h && !closed) LockSupport.park(this);
+                consumerParked = false;
+                if (Thread.interrupted()) throw new InterruptedIOException();
+                t = tail.get();
+            }
+            head.setCached(t);
+        }
+        return remove(h);
+    }
+
+    /**
+     * Removes the item at the head.
+     *
+     * @param h current head
+     * @return item
+     */
+    @SuppressWarnings("unchecked")
+    private E remove(long h) {
+        int index = (int) h & mask;
+        E item = (E) items[index];
+        items[index] = null;
+        head.set(h + 1);                            // Volatile write before reading the flag
+        if (producerParked) LockSupport.unpark(producer);
+        return item;
+    }
+
+    /**
+     * Number of items in the queue.
+     *
+     * @return size
+     */
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    /**
+     * Closes the queue. Wakes up both sides. Remaining items can still be taken.
+     */
+    public void close() {
+        closed = true;
+        LockSupport.unpark(consumer);
+        LockSupport.unpark(producer);
+    }
+
+    /**
+     * Checks if the queue is closed.
+     *
+     * @return true/false
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+}
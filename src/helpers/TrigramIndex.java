@@ -0,0 +1,511 @@
+package helpers;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Persistent trigram index of the files under a root. For every three bytes (ASCII letters in lower case)
+ * it lists the files containing them, so a search for a string needs to read only the files which have all
+ * of its trigrams. The index is updated incrementally - files with the same modification time and size
+ * keep their trigrams from the previous index.
+ *
+ * Format (big endian), memory-mapped when queried:
+ * header     magic, version, number of files, number of trigrams, length of names
+ * files      modification time (long), size (long), name offset, name length - per file
+ * names      UTF-8 names relative to the root, separated by '/'
+ * trigrams   trigram, offset of its postings - per trigram, sorted, and -1 with the end of the postings
+ * postings   ids of the files as variable length differences
+ *
+ * @author Radek Bouda
+ */
+public class TrigramIndex {
+    /** Name of the index file in the root */
+    public static final String FILE_NAME = ".bbindex";
+    /** Name of the index file while it is written */
+    public static final String TEMP_NAME = ".bbindex.tmp";
+    private static final int MAGIC = 0x42424958;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 20;
+    private static final int FILE_ENTRY_SIZE = 24;
+    private static final int TRIGRAM_ENTRY_SIZE = 8;
+    /** Size of blocks read from indexed files */
+    private static final int BLOCK_SIZE = 65536;
+
+    /** Mapped index */
+    private final ByteBuffer buffer;
+    private final int fileCount;
+    private final int trigramCount;
+    private final int namesAt;
+    private final int trigramsAt;
+    private final int postingsAt;
+    /** Ids of the files by name */
+    private final Map<String, Integer> ids = new HashMap<String, Integer>();
+
+    private TrigramIndex(ByteBuffer buffer) {
+        this.buffer = buffer;
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) throw new IllegalArgumentException("Not an index");
+        this.fileCount = buffer.getInt(8);
+        this.trigramCount = buffer.getInt(12);
+        this.namesAt = HEADER_SIZE + fileCount * FILE_ENTRY_SIZE;
+        this.trigramsAt = namesAt + buffer.getInt(16);
+        this.postingsAt = trigramsAt + (trigramCount + 1) * TRIGRAM_ENTRY_SIZE;
+        for (int id = 0; id < fileCount; id++) ids.put(getName(id), id);
+    }
+
+    /**
+     * Opens the index of a root.
+     *
+     * @param root root directory
+     * @return index or null if there is no valid index
+     */
+    public static TrigramIndex open(File root) {
+        File file = new File(root, FILE_NAME);
+        if (!file.isFile()) return null;
+        try {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                FileChannel channel = in.getChannel();
+                return new TrigramIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            } finally {
+                in.close();                             // Mapping stays valid
+            }
+        } catch (IOException e) {
+            return null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        } catch (IndexOutOfBoundsException e) {
+            return null;                                // Truncated file
+        } catch (BufferUnderflowException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Gets the number of indexed files.
+     *
+     * @return number of files
+     */
+    public int getFileCount() {
+        return fileCount;
+    }
+
+    /**
+     * Gets the number of distinct trigrams.
+     *
+     * @return number of trigrams
+     */
+    public int getTrigramCount() {
+        return trigramCount;
+    }
+
+    /**
+     * Gets the size of the index.
+     *
+     * @return bytes
+     */
+    public int getSize() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Checks if a file is indexed as it is now.
+     *
+     * @param name name relative to the root
+     * @param modified modification time
+     * @param size size
+     * @return true if the index describes the file
+     */
+    public boolean isFresh(String name, long modified, long size) {
+        Integer id = ids.get(name);
+        if (id == null) return false;
+        int entry = HEADER_SIZE + id * FILE_ENTRY_SIZE;
+        return buffer.getLong(entry) == modified && buffer.getLong(entry + 8) == size;
+    }
+
+    /**
+     * Finds the files which can contain a string.
+     *
+     * @param pattern bytes of the string
+     * @return names of the files or null if the string is too short to be looked up
+     */
+    public Set<String> candidates(byte[] pattern) {
+        int[] trigrams = trigrams(pattern);
+        if (trigrams.length == 0) return null;
+        int[] files = null;
+        for (int trigram : trigrams) {
+            int[] posting = posting(trigram);
+            files = files == null ? posting : intersect(files, posting);
+            if (files.length == 0) break;
+        }
+        Set<String> names = new HashSet<String>();
+        for (int id : files) names.add(getName(id));
+        return names;
+    }
+
+    /**
+     * Finds the files which can contain any of the strings.
+     *
+     * @param patterns bytes of the strings
+     * @return names of the files or null if some string is too short to be looked up
+     */
+    public Set<String> candidates(List<byte[]> patterns) {
+        Set<String> names = new HashSet<String>();
+        for (byte[] pattern : patterns) {
+            Set<String> found = candidates(pattern);
+            if (found == null) return null;
+            names.addAll(found);
+        }
+        return names;
+    }
+
+    /**
+     * Gets the name of a file.
+     *
+     * @param id id of the file
+     * @return name relative to the root
+     */
+    private String getName(int id) {
+        int entry = HEADER_SIZE + id * FILE_ENTRY_SIZE;
+        byte[] name = new byte[buffer.getInt(entry + 20)];
+        for (int i = 0; i < name.length; i++) name[i] = buffer.get(namesAt + buffer.getInt(entry + 16) + i);
+        return new String(name, RecordBatch.CHARSET);
+    }
+
+    /**
+     * Gets the files of a trigram.
+     *
+     * @param trigram trigram
+     * @return sorted ids of the files
+     */
+    private int[] posting(int trigram) {
+        int low = 0, high = trigramCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int found = buffer.getInt(trigramsAt + middle * TRIGRAM_ENTRY_SIZE);
+            if (found < trigram) low = middle + 1;
+            else if (found > trigram) high = middle - 1;
+            else return decode(middle);
+        }
+        return new int[0];
+    }
+
+    /**
+     * Decodes the postings of a trigram.
+     *
+     * @param index position of the trigram
+     * @return sorted ids of the files
+     */
+    private int[] decode(int index) {
+        int at = postingsAt + buffer.getInt(trigramsAt + index * TRIGRAM_ENTRY_SIZE + 4);
+        int end = postingsAt + buffer.getInt(trigramsAt + (index + 1) * TRIGRAM_ENTRY_SIZE + 4);
+        int[] ids = new int[16];
+        int count = 0, id = -1;
+        while (at < end) {
+            int delta = 0, shift = 0, b;
+            do {
+                b = buffer.get(at++);
+                delta |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            id += delta + 1;
+            if (count == ids.length) ids = Arrays.copyOf(ids, count * 2);
+            ids[count++] = id;
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+    /**
+     * Intersects sorted ids.
+     */
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int i = 0, j = 0, count = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) i++;
+            else if (a[i] > b[j]) j++;
+            else {
+                result[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Gets the distinct trigrams of a string.
+     *
+     * @param pattern bytes of the string
+     * @return trigrams
+     */
+    private static int[] trigrams(byte[] pattern) {
+        Set<Integer> found = new HashSet<Integer>();
+        for (int i = 0; i + 2 < pattern.length; i++) found.add(trigram(pattern[i], pattern[i + 1], pattern[i + 2]));
+        int[] trigrams = new int[found.size()];
+        int i = 0;
+        for (int trigram : found) trigrams[i++] = trigram;
+        return trigrams;
+    }
+
+    /**
+     * Packs three bytes into a trigram. ASCII letters are folded to lower case.
+     */
+    private static int trigram(int a, int b, int c) {
+        return fold(a) << 16 | fold(b) << 8 | fold(c);
+    }
+
+    private static int fold(int b) {
+        b &= 0xFF;
+        return b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b;
+    }
+
+    /**
+     * Updates the index of a root. Files which did not change keep their trigrams, the others are read.
+     *
+     * @param root root directory
+     * @return statistics of the update
+     * @throws IOException if the index cannot be written
+     */
+    public static Stats update(File root) throws IOException {
+        long start = System.nanoTime();
+        List<String> names = new ArrayList<String>();
+        List<File> files = new ArrayList<File>();
+        collect(root, "", names, files);
+
+        TrigramIndex previous = open(root);
+        int[][] old = previous == null ? null : previous.invert();
+        int[][] trigrams = new int[files.size()][];
+        long[] modified = new long[files.size()];
+        long[] sizes = new long[files.size()];
+        long[] bits = new long[1 << 18];                // One bit per trigram
+        int updated = 0;
+        for (int id = 0; id < files.size(); id++) {
+            File file = files.get(id);
+            modified[id] = file.lastModified();
+            sizes[id] = file.length();
+            Integer oldId = previous == null ? null : previous.ids.get(names.get(id));
+            if (oldId != null && previous.isFresh(names.get(id), modified[id], sizes[id])) {
+                trigrams[id] = old[oldId];
+            } else {
+                trigrams[id] = read(file, bits);
+                updated++;
+            }
+        }
+
+        long pairs = 0;
+        for (int[] set : trigrams) pairs += set.length;
+        if (pairs > Integer.MAX_VALUE - 8) throw new IOException("Too many trigrams");
+        long[] postings = new long[(int) pairs];       // Trigram and file id, sorted by both
+        int at = 0;
+        for (int id = 0; id < trigrams.length; id++) {
+            for (int trigram : trigrams[id]) postings[at++] = (long) trigram << 32 | id;
+        }
+        Arrays.sort(postings);
+
+        File temp = new File(root, TEMP_NAME);
+        write(temp, names, modified, sizes, postings);
+        Files.move(temp.toPath(), new File(root, FILE_NAME).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        TrigramIndex index = open(root);
+        return new Stats(files.size(), updated, index == null ? 0 : index.trigramCount, new File(root, FILE_NAME).length(),
+                (System.nanoTime() - start) / 1000000);
+    }
+
+    /**
+     * Gets the trigrams of each file from the postings.
+     *
+     * @return sorted trigrams by file id
+     */
+    private int[][] invert() {
+        int[] counts = new int[fileCount];
+        int[][] postings = new int[trigramCount][];
+        for (int i = 0; i < trigramCount; i++) {
+            postings[i] = decode(i);
+            for (int id : postings[i]) counts[id]++;
+        }
+        int[][] trigrams = new int[fileCount][];
+        for (int id = 0; id < fileCount; id++) trigrams[id] = new int[counts[id]];
+        Arrays.fill(counts, 0);
+        for (int i = 0; i < trigramCount; i++) {
+            int trigram = buffer.getInt(trigramsAt + i * TRIGRAM_ENTRY_SIZE);
+            for (int id : postings[i]) trigrams[id][counts[id]++] = trigram;
+        }
+        return trigrams;
+    }
+
+    /**
+     * Collects files of a tree sorted by name. Links and the index itself are skipped.
+     */
+    private static void collect(File directory, String prefix, List<String> names, List<File> files) {
+        File[] children = directory.listFiles();
+        if (children == null) return;
+        Arrays.sort(children);
+        for (File child : children) {
+            if (Files.isSymbolicLink(child.toPath()) || isIndexFile(child)) continue;
+            if (child.isDirectory()) collect(child, prefix + child.getName() + "/", names, files);
+            else if (child.isFile()) {
+                names.add(prefix + child.getName());
+                files.add(child);
+            }
+        }
+    }
+
+    /**
+     * Checks if a file is the index or its temporary file.
+     *
+     * @param file file
+     * @return true/false
+     */
+    public static boolean isIndexFile(File file) {
+        return file.getName().equals(FILE_NAME) || file.getName().equals(TEMP_NAME);
+    }
+
+    /**
+     * Reads the trigrams of a file. Trigrams over a newline are not kept, lines are searched.
+     *
+     * @param file file
+     * @param bits cleared bit set of all trigrams, cleared again on return
+     * @return sorted trigrams
+     * @throws IOException if the file cannot be read
+     */
+    private static int[] read(File file, long[] bits) throws IOException {
+        int[] found = new int[1024];
+        int count = 0;
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] block = new byte[BLOCK_SIZE];
+            int first = '\n', second = '\n';            // Last two bytes of the previous block
+            int amount;
+            while ((amount = in.read(block)) > 0) {
+                for (int i = 0; i < amount; i++) {
+                    int third = block[i];
+                    if (first != '\n' && second != '\n' && third != '\n') {
+                        int trigram = trigram(first, second, third);
+                        long bit = 1L << trigram;
+                        if ((bits[trigram >>> 6] & bit) == 0) {
+                            bits[trigram >>> 6] |= bit;
+                            if (count == found.length) found = Arrays.copyOf(found, count * 2);
+                            found[count++] = trigram;
+                        }
+                    }
+                    first = second;
+                    second = third;
+                }
+            }
+        } finally {
+            in.close();
+            for (int i = 0; i < count; i++) bits[found[i] >>> 6] = 0;
+        }
+        int[] trigrams = Arrays.copyOf(found, count);
+        Arrays.sort(trigrams);
+        return trigrams;
+    }
+
+    /**
+     * Writes an index.
+     *
+     * @param target file
+     * @param names names of the files
+     * @param modified modification times
+     * @param sizes sizes
+     * @param postings sorted trigrams and file ids
+     * @throws IOException if the file cannot be written
+     */
+    private static void write(File target, List<String> names, long[] modified, long[] sizes, long[] postings) throws IOException {
+        byte[][] encoded = new byte[names.size()][];
+        int namesLength = 0;
+        for (int id = 0; id < encoded.length; id++) {
+            encoded[id] = names.get(id).getBytes(RecordBatch.CHARSET);
+            namesLength += encoded[id].length;
+        }
+        int trigramCount = 0;
+        for (int i = 0; i < postings.length; i++) {
+            if (i == 0 || postings[i] >>> 32 != postings[i - 1] >>> 32) trigramCount++;
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(target), BLOCK_SIZE));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(names.size());
+            out.writeInt(trigramCount);
+            out.writeInt(namesLength);
+            int nameOffset = 0;
+            for (int id = 0; id < encoded.length; id++) {
+                out.writeLong(modified[id]);
+                out.writeLong(sizes[id]);
+                out.writeInt(nameOffset);
+                out.writeInt(encoded[id].length);
+                nameOffset += encoded[id].length;
+            }
+            for (byte[] name : encoded) out.write(name);
+
+            byte[] data = new byte[Math.max(16, postings.length * 2)];
+            int size = 0;
+            int previous = -1;
+            for (int i = 0; i < postings.length; i++) {
+                int trigram = (int) (postings[i] >>> 32);
+                int id = (int) postings[i];
+                if (i == 0 || trigram != (int) (postings[i - 1] >>> 32)) {
+                    out.writeInt(trigram);
+                    out.writeInt(size);
+                    previous = -1;
+                }
+                if (size + 5 > data.length) data = Arrays.copyOf(data, data.length * 2);
+                for (int delta = id - previous - 1; ; delta >>>= 7) {
+                    if (delta < 0x80) {
+                        data[size++] = (byte) delta;
+                        break;
+                    }
+                    data[size++] = (byte) (delta & 0x7F | 0x80);
+                }
+                previous = id;
+            }
+            out.writeInt(-1);                           // End of the last postings
+            out.writeInt(size);
+            out.write(data, 0, size);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Statistics of an update.
+     */
+    public static final class Stats {
+        private final int files;
+        private final int updated;
+        private final int trigrams;
+        private final long size;
+        private final long millis;
+
+        private Stats(int files, int updated, int trigrams, long size, long millis) {
+            this.files = files;
+            this.updated = updated;
+            this.trigrams = trigrams;
+            this.size = size;
+            this.millis = millis;
+        }
+
+        @Override
+        public String toString() {
+            return "index: " + files + " files (" + updated + " read), " + trigrams + " trigrams, " + size + " bytes, built in " + millis + " ms";
+        }
+    }
+}
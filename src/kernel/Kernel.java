@@ -4,15 +4,23 @@
  */
 package kernel;
 
-import helpers.BBPipedInputStream;
 import process.AbstractProcess;
 import process.Shell;
 
 import java.io.File;
 import java.io.IOException;
-import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
-import java.util.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Instance of this class represents the kernel of an operating system.
@@ -26,19 +34,46 @@ public class Kernel {
 	public static final String PACKAGE = "process";
 	/** Filesystem folder name */
 	public static final String FILESYSTEM_FOLDER = "filesystem";
-	/** PID counter */
-	private int PID;
+	/** Number of pids */
+	public static final int MAX_PID = 32768;
+	/** Pid allocator */
+	private final PidAllocator pids;
 	/** Table of processes */
-	private final Map<Integer, AbstractProcess> processes;
+	private final ProcessTable processes;
 	/** Pid of main shell */
 	public static final int MAIN_SHELL_PID = 1;
+	/** System property choosing the threads of processes: virtual or pool */
+	public static final String THREADS_PROPERTY = "bbshell.threads";
+	/** Maximal number of pooled threads */
+	public static final int MAX_THREADS = 4096;
+	/** Seconds an idle pooled thread waits for a process */
+	private static final long THREAD_KEEP_ALIVE = 30;
+	/** Milliseconds a killed process has to close its output itself */
+	public static final long KILL_TIMEOUT = 500;
+	/** Runs processes */
+	private final ExecutorService executor;
+	/** Runs the fallbacks of kills */
+	private final ScheduledExecutorService watchdog;
+	/** Factories of processes */
+	private final ProcessRegistry registry;
 
 	/**
 	 * Private constructor for singleton.
 	 */
 	private Kernel() {
-		processes = new HashMap<Integer, AbstractProcess>();
-		PID = MAIN_SHELL_PID;							// First is created main shell
+		processes = new ProcessTable();
+		registry = new ProcessRegistry(PACKAGE);
+		pids = new PidAllocator(MAX_PID);
+		pids.reserve(MAIN_SHELL_PID);					// First is created main shell
+		executor = createExecutor(System.getProperty(THREADS_PROPERTY, "virtual"));
+		watchdog = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "watchdog");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
 		checkFolders();
 	}
 
@@ -64,20 +99,44 @@ public class Kernel {
 	}
 
 	/**
-	 * Runs main shell.
+	 * Creates the executor of processes. Virtual threads are used if the platform has them, otherwise
+	 * processes run on a pool of platform threads. The pool does not queue - processes of a pipeline
+	 * wait for each other, so each of them needs its own thread. Idle threads are reused.
+	 *
+	 * @param threads virtual or pool
+	 * @return executor
 	 */
-	public void runShell() throws IOException {
-		AbstractProcess shell = new Shell(PID, 0, null, new ArrayList<List<String>>(), null);
-		increasePID();
-		processes.put(shell.getPid(), shell);
-		shell.start();
+	private ExecutorService createExecutor(String threads) {
+		if(threads.equalsIgnoreCase("virtual")) {
+			try {
+				return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			} catch (NoSuchMethodException e) {
+				// Older platform, pool is used
+			} catch (IllegalAccessException e) {
+				// Not accessible, pool is used
+			} catch (InvocationTargetException e) {
+				// Not enabled, pool is used
+			}
+		}
+		return new ThreadPoolExecutor(0, MAX_THREADS, THREAD_KEEP_ALIVE, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "process-" + count.incrementAndGet());
+				thread.setDaemon(true);					// Console window keeps the system alive
+				return thread;
+			}
+		});
 	}
 
 	/**
-	 * Increments pid.
+	 * Runs main shell.
 	 */
-	public void increasePID(){
-		PID++;
+	public void runShell() throws IOException {
+		AbstractProcess shell = new Shell(MAIN_SHELL_PID, 0, null, new ArrayList<List<String>>(), null);
+		processes.put(shell);
+		executor.execute(shell);
 	}
 
 	/**
@@ -85,53 +144,68 @@ public class Kernel {
 	 *
 	 * Errors:  -1 - Process not found
 	 * 		   	-2 - Wrong arguments of method
-	 *			-3 - Other errors
+	 *			-3 - Other errors, f.e. no free pid
 	 * @param process process name
 	 * @param arguments constructor parameters
 	 * @return pid or error
 	 */
 	public int newProcess(String process, Object[] arguments) {
+		int pid = pids.allocate();
+		if(pid == -1) return -3;									// Process table is full
+		boolean created = false;
 		try {
-			process = process.substring(0, 1).toUpperCase() +  process.substring(1, process.length()).toLowerCase(); // Makes processes case insensitive!
-			Class<?> myClass = Class.forName(PACKAGE + "." + process);		// Finds the class
-			Class<?>[] types = new Class[arguments.length];				// Types of arguments
-			types[0] = int.class;										// First always pid
-			types[1] = int.class;										// Second always father pid
-			types[2] = BBPipedInputStream.class;							// Third always input stream
-			types[3] = List.class;										// Fourth always List with rest of commands
-			types[4] = Shell.class;										// Fifth always shell
-			for(int i = 5; i < arguments.length; i++) types[i] = arguments[i].getClass();	// Fills optional arguments
-			Constructor<?> constructor = myClass.getConstructor(types);						// Gets constructor with given types.
-
-			arguments[0] = PID;											// Sets the pid
-			Object instance = constructor.newInstance(arguments);		// Initializes the object
-			AbstractProcess proc = (AbstractProcess) instance;			// Retypes to AbstractProcess
-			increasePID();												// Increases pid
-			processes.put(proc.getPid(), proc);							// Adds to the process table
-			return proc.getPid();										// Returns the process
-		} catch (ClassNotFoundException e) {
-			return -1;					// Process not found
+			ProcessRegistry.Entry entry = registry.lookup(process);		// Makes processes case insensitive!
+			if(entry == null) return -1;								// Process not found
+			arguments[0] = pid;											// Sets the pid
+			AbstractProcess proc = entry.newInstance(arguments);		// Initializes the object
+			processes.put(proc);										// Adds to the process table
+			created = true;
+			return pid;													// Returns the process
 		} catch (InvocationTargetException e) {
 			return -2;					// Invocation error -> wrong usage
 		} catch (NoSuchMethodException e) {
 			return -2;					// Wrong arguments
-		} catch (InstantiationException e) {
-			return -1;					// Can't be instance f.e. AbstractProcess -> Not found error
-		} catch (IllegalAccessException e) {
-			return -1;					// Do not have accesss -> Not found error
-		} catch (NoClassDefFoundError e) {
-			return -1;					// Not found error
+		} finally {
+			if(!created) pids.free(pid);	// Pid can be used again
 		}
 	}
 
 	/**
-	 * Start process from process table by pid.
+	 * Gets a process from the process table.
+	 *
+	 * @param pid process id
+	 * @return process or null if there is no such a process
+	 */
+	public AbstractProcess getProcess(int pid) {
+		return processes.get(pid);
+	}
+
+	/**
+	 * Gets the registry of processes.
+	 *
+	 * @return registry
+	 */
+	public ProcessRegistry getRegistry() {
+		return registry;
+	}
+
+	/**
+	 * Start process from process table by pid. The process runs on the executor.
 	 *
 	 * @param pid process id
-	 * @return abstractProcess
+	 * @return false if there is no thread for the process
 	 */
-	public void startProcess(int pid) {
-		processes.get(pid).start();
+	public boolean startProcess(int pid) {
+		AbstractProcess process = processes.get(pid);
+		if(process == null) return true;				// Ended meanwhile
+		try {
+			executor.execute(process);
+			return true;
+		} catch (RejectedExecutionException e) {
+			killProcess(pid);							// Never runs, pipes are closed by the fallback of the kill
+			removeReference(process);					// Does not remove itself
+			return false;
+		}
 	}
 
 	/**
@@ -142,48 +216,64 @@ public class Kernel {
 	 * @return true/false
 	 */
 	public boolean killProcess(int pid) {
-		if(!processes.containsKey(pid)) return false;
-        AbstractProcess toKill = processes.get(pid);
+		AbstractProcess toKill = processes.get(pid);
+		if(toKill == null) return false;
 
 		List<Integer> childsToKill = toKill.getChildPids();
-		for (int i = 0; i < childsToKill.size(); i++) {
-			this.killProcess(childsToKill.get(i));
+		for (Integer child : childsToKill) {
+			this.killProcess(child);
 		}
-		
+
 		// remove all children from the child list
-		while (!childsToKill.isEmpty()) {
-			childsToKill.remove(0);
-		}
-		
-		// delete original process
-		removeReference(toKill.getPid());
+		childsToKill.clear();
+
+		// the process removes itself at its end, its pid is not reused before
 		toKill.kill();
 		return true;
 	}
 
+	/**
+	 * Runs a fallback of a kill when the killed process had time to end.
+	 *
+	 * @param fallback task
+	 */
+	public void afterKill(Runnable fallback) {
+		watchdog.schedule(fallback, KILL_TIMEOUT, TimeUnit.MILLISECONDS);
+	}
+
 	/**
 	 * Kills main shell. Father of all processes.
 	 */
 	public void shutdown() {
 		killProcess(MAIN_SHELL_PID);
+		executor.shutdown();							// Running processes end by kill, idle threads end now
+	}
+
+	/**
+	 * Get processes records. The snapshot does not change, processes can be started and ended meanwhile.
+	 *
+	 * @return snapshot of the process table
+	 */
+	public ProcessTable.Snapshot getProcesses() {
+		return processes.snapshot();
 	}
 
 	/**
-	 * Get processes records.
+	 * Gets the pid allocator.
 	 *
-	 * @return all processes records
+	 * @return allocator
 	 */
-	public Set<Map.Entry<Integer, AbstractProcess>> getProcesses() {
-		return processes.entrySet();
+	public PidAllocator getPids() {
+		return pids;
 	}
 
 	/**
-	 * Removes a process with given pid from table of processes. It should be called only at the end of thread's run method.
+	 * Removes a process from table of processes and frees its pid. It should be called only at the end of thread's run method.
 	 *
-	 * @param pid pid
+	 * @param process process
 	 */
-	public void removeReference(int pid) {
-		if(processes.containsKey(pid)) processes.remove(pid);
+	public void removeReference(AbstractProcess process) {
+		if(processes.remove(process)) pids.free(process.getPid());	// Only the first removal frees the pid
 	}
 
 	/**
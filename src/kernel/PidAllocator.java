@@ -0,0 +1,117 @@
+package kernel;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free allocator of process ids. Ids are bits of a bitmap, a bit is taken and returned by compare-and-set.
+ * Search starts after the last allocated id, so freed ids are reused only when the counter wraps around.
+ *
+ * @author Radek Bouda
+ */
+public class PidAllocator {
+	/** Bits in a word of the bitmap */
+	private static final int WORD_BITS = 64;
+
+	/** Number of ids, 0 .. maxPid - 1 */
+	private final int maxPid;
+	/** Taken ids */
+	private final AtomicLongArray bitmap;
+	/** Last allocated id */
+	private final AtomicInteger last = new AtomicInteger(0);
+	/** Number of taken ids */
+	private final AtomicInteger used = new AtomicInteger(0);
+
+	/**
+	 * Creates an allocator. Id 0 is reserved as the parent of the main shell.
+	 *
+	 * @param maxPid number of ids, a multiple of 64
+	 */
+	public PidAllocator(int maxPid) {
+		if (maxPid <= 0 || maxPid % WORD_BITS != 0) throw new IllegalArgumentException("Number of ids must be a positive multiple of " + WORD_BITS);
+		this.maxPid = maxPid;
+		this.bitmap = new AtomicLongArray(maxPid / WORD_BITS);
+		reserve(0);
+	}
+
+	/**
+	 * Takes the next free id.
+	 *
+	 * @return id or -1 if all the ids are taken
+	 */
+	public int allocate() {
+		int start = (last.get() + 1) % maxPid;
+		int words = bitmap.length();
+		for (int scanned = 0; scanned <= words; scanned++) {			// One more to cover the start word below start
+			int index = (start / WORD_BITS + scanned) % words;
+			int from = scanned == 0 ? start % WORD_BITS : 0;
+			long word = bitmap.get(index);
+			long free = ~word & (-1L << from);
+			while (free != 0) {
+				int bit = Long.numberOfTrailingZeros(free);
+				if (bitmap.compareAndSet(index, word, word | (1L << bit))) {
+					int pid = index * WORD_BITS + bit;
+					last.set(pid);
+					used.incrementAndGet();
+					return pid;
+				}
+				word = bitmap.get(index);							// Lost a race, try again with the new word
+				free = ~word & (-1L << from);
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Takes the given id.
+	 *
+	 * @param pid id
+	 * @return true if the id was free
+	 */
+	public boolean reserve(int pid) {
+		int index = pid / WORD_BITS;
+		long mask = 1L << (pid % WORD_BITS);
+		long word;
+		do {
+			word = bitmap.get(index);
+			if ((word & mask) != 0) return false;
+		} while (!bitmap.compareAndSet(index, word, word | mask));
+		used.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Returns an id.
+	 *
+	 * @param pid id
+	 */
+	public void free(int pid) {
+		if (pid <= 0 || pid >= maxPid) return;					// Id 0 stays reserved
+		int index = pid / WORD_BITS;
+		long mask = 1L << (pid % WORD_BITS);
+		long word;
+		do {
+			word = bitmap.get(index);
+			if ((word & mask) == 0) return;						// Not taken
+		} while (!bitmap.compareAndSet(index, word, word & ~mask));
+		used.decrementAndGet();
+	}
+
+	/**
+	 * Gets the number of taken ids.
+	 *
+	 * @return number of ids
+	 */
+	public int getUsed() {
+		return used.get();
+	}
+
+	/**
+	 * Gets the number of ids.
+	 *
+	 * @return number of ids
+	 */
+	public int getMaxPid() {
+		return maxPid;
+	}
+}
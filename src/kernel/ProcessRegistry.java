@@ -0,0 +1,297 @@
+package kernel;
+
+import helpers.BBPipedInputStream;
+import process.AbstractProcess;
+import process.Shell;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Registry of processes. Classes of the process package are found once at startup and their constructors
+ * are resolved into method handles keyed by the number of optional arguments, so starting a process
+ * does not search classes and constructors again. Names which are not processes are remembered too.
+ * Names missed by the startup scan (f.e. an unusual class loader) are resolved on their first use.
+ *
+ * @author Radek Bouda
+ */
+public class ProcessRegistry {
+	/** Number of fixed constructor parameters - pid, parent pid, input, commands, shell */
+	private static final int FIXED_PARAMETERS = 5;
+	/** Maximal number of remembered unknown names */
+	private static final int MAX_UNKNOWN = 1024;
+	/** Type of created processes */
+	private static final MethodType FACTORY_TYPE = MethodType.methodType(AbstractProcess.class, Object[].class);
+	/** Lookup of public members */
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+	/** Marks a name which is not a process */
+	private static final Entry UNKNOWN = new Entry(null);
+
+	/** Package with processes */
+	private final String packageName;
+	/** Entries by lower case names */
+	private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+	/** Number of remembered unknown names */
+	private int unknown = 0;
+
+	/**
+	 * Creates a registry and registers processes of the package.
+	 *
+	 * @param packageName package with processes
+	 */
+	public ProcessRegistry(String packageName) {
+		this.packageName = packageName;
+		scan();
+	}
+
+	/**
+	 * Gets a process.
+	 *
+	 * @param name process name, case insensitive
+	 * @return entry or null if there is no such a process
+	 */
+	public Entry lookup(String name) {
+		if (name == null || name.isEmpty()) return null;
+		String key = name.toLowerCase();
+		Entry entry = entries.get(key);
+		if (entry == null) entry = resolve(key);
+		return entry == UNKNOWN ? null : entry;
+	}
+
+	/**
+	 * Resolves a name missed by the scan.
+	 *
+	 * @param key lower case name
+	 * @return entry or UNKNOWN
+	 */
+	private Entry resolve(String key) {
+		Entry entry = UNKNOWN;
+		try {
+			entry = register(load(key.substring(0, 1).toUpperCase() + key.substring(1)));
+		} catch (ClassNotFoundException e) {
+			// Not a process
+		} catch (LinkageError e) {
+			// Not a process f.e. a wrong case of a file name
+		}
+		if (entry == UNKNOWN) {
+			synchronized (this) {
+				if (++unknown > MAX_UNKNOWN) {			// Typos do not fill the memory
+					entries.values().remove(UNKNOWN);
+					unknown = 1;
+				}
+			}
+		}
+		Entry previous = entries.putIfAbsent(key, entry);
+		return previous == null ? entry : previous;
+	}
+
+	/**
+	 * Finds the classes of the package in directories and jars of the class path.
+	 */
+	private void scan() {
+		String path = packageName.replace('.', '/');
+		try {
+			Enumeration<URL> urls = ProcessRegistry.class.getClassLoader().getResources(path);
+			while (urls.hasMoreElements()) {
+				URL url = urls.nextElement();
+				if (url.getProtocol().equals("file")) {
+					String[] files = new File(URLDecoder.decode(url.getPath(), "UTF-8")).list();
+					if (files != null) for (String file : files) scanClass(file);
+				} else if (url.getProtocol().equals("jar")) {
+					JarFile jar = ((JarURLConnection) url.openConnection()).getJarFile();
+					Enumeration<JarEntry> jarEntries = jar.entries();
+					while (jarEntries.hasMoreElements()) {
+						String file = jarEntries.nextElement().getName();
+						if (file.startsWith(path + "/") && file.indexOf('/', path.length() + 1) < 0) scanClass(file.substring(path.length() + 1));
+					}
+				}
+			}
+		} catch (IOException e) {
+			return;										// Rest is resolved on demand
+		}
+	}
+
+	/**
+	 * Registers a class file of the package if it is a process.
+	 *
+	 * @param file file name
+	 */
+	private void scanClass(String file) {
+		if (!file.endsWith(".class") || file.indexOf('$') >= 0) return;		// Nested classes are not processes
+		String name = file.substring(0, file.length() - ".class".length());
+		if (name.isEmpty() || !name.equals(name.substring(0, 1).toUpperCase() + name.substring(1).toLowerCase())) return;	// Not reachable by a command
+		if (entries.containsKey(name.toLowerCase())) return;
+		try {
+			Entry entry = register(load(name));
+			if (entry != UNKNOWN) entries.putIfAbsent(name.toLowerCase(), entry);
+		} catch (ClassNotFoundException e) {
+			return;
+		} catch (LinkageError e) {
+			return;
+		}
+	}
+
+	/**
+	 * Loads a class of the package. Classes are not initialized, processes are created later.
+	 *
+	 * @param name simple name
+	 * @return class
+	 * @throws ClassNotFoundException if there is no such a class
+	 */
+	private Class<?> load(String name) throws ClassNotFoundException {
+		return Class.forName(packageName + "." + name, false, ProcessRegistry.class.getClassLoader());
+	}
+
+	/**
+	 * Resolves constructors of a process.
+	 *
+	 * @param type class
+	 * @return entry or UNKNOWN if the class is not a process
+	 */
+	private static Entry register(Class<?> type) {
+		if (!AbstractProcess.class.isAssignableFrom(type) || Modifier.isAbstract(type.getModifiers()) || !Modifier.isPublic(type.getModifiers())) return UNKNOWN;
+		Entry entry = new Entry(type);
+		for (Constructor<?> constructor : type.getConstructors()) {
+			Class<?>[] types = constructor.getParameterTypes();
+			if (types.length < FIXED_PARAMETERS || types[0] != int.class || types[1] != int.class || types[2] != BBPipedInputStream.class
+					|| types[3] != List.class || types[4] != Shell.class) continue;
+			boolean strings = true;
+			for (int i = FIXED_PARAMETERS; i < types.length; i++) strings &= types[i] == String.class;
+			try {
+				MethodHandle handle = LOOKUP.unreflectConstructor(constructor).asSpreader(Object[].class, types.length).asType(FACTORY_TYPE);
+				if (strings) entry.constructors.put(types.length - FIXED_PARAMETERS, handle);
+				else if (types.length == FIXED_PARAMETERS + 1 && types[FIXED_PARAMETERS] == String[].class) entry.options = handle;
+			} catch (IllegalAccessException e) {
+				continue;								// Not accessible
+			}
+		}
+		return entry;
+	}
+
+	/**
+	 * Registered process.
+	 */
+	public static final class Entry {
+		/** Missing static method */
+		private static final MethodHandle MISSING = MethodHandles.constant(Object.class, null);
+
+		/** Class of the process */
+		private final Class<?> type;
+		/** Constructors by the number of optional String arguments */
+		private final Map<Integer, MethodHandle> constructors = new HashMap<Integer, MethodHandle>();
+		/** Constructor with an array of options or null */
+		private MethodHandle options;
+		/** Resolved static methods by name and type */
+		private final ConcurrentHashMap<String, MethodHandle> statics = new ConcurrentHashMap<String, MethodHandle>();
+
+		private Entry(Class<?> type) {
+			this.type = type;
+		}
+
+		/**
+		 * Creates a process.
+		 *
+		 * @param arguments pid, parent pid, input, commands, shell and optional String arguments
+		 * @return process
+		 * @throws NoSuchMethodException if the process does not take such arguments
+		 * @throws InvocationTargetException if the constructor fails
+		 */
+		public AbstractProcess newInstance(Object[] arguments) throws NoSuchMethodException, InvocationTargetException {
+			MethodHandle constructor = constructors.get(arguments.length - FIXED_PARAMETERS);
+			if (constructor == null) {
+				if (options == null) throw new NoSuchMethodException(type.getName() + " with " + (arguments.length - FIXED_PARAMETERS) + " arguments");
+				constructor = options;
+				arguments = packOptions(arguments);		// Process with options
+			}
+			try {
+				return (AbstractProcess) constructor.invokeExact(arguments);
+			} catch (Error e) {
+				throw e;
+			} catch (Throwable e) {
+				throw new InvocationTargetException(e);
+			}
+		}
+
+		/**
+		 * Packs optional arguments into an array. Used by processes with variable number of options,
+		 * which have a constructor with String[] as the last parameter.
+		 *
+		 * @param arguments constructor parameters
+		 * @return five fixed parameters and an array of the optional ones
+		 */
+		private static Object[] packOptions(Object[] arguments) {
+			Object[] packed = new Object[FIXED_PARAMETERS + 1];
+			System.arraycopy(arguments, 0, packed, 0, FIXED_PARAMETERS);
+			String[] options = new String[arguments.length - FIXED_PARAMETERS];
+			for(int i = FIXED_PARAMETERS; i < arguments.length; i++) options[i - FIXED_PARAMETERS] = (String) arguments[i];
+			packed[FIXED_PARAMETERS] = options;
+			return packed;
+		}
+
+		/**
+		 * Gets a public static method of the process. Lookups are cached, missing methods too.
+		 *
+		 * @param name method name
+		 * @param methodType method type
+		 * @return method handle or null if there is no such a method
+		 */
+		public MethodHandle getStatic(String name, MethodType methodType) {
+			String key = name + methodType;
+			MethodHandle handle = statics.get(key);
+			if (handle == null) {
+				try {
+					handle = LOOKUP.findStatic(type, name, methodType);
+				} catch (NoSuchMethodException e) {
+					handle = MISSING;
+				} catch (IllegalAccessException e) {
+					handle = MISSING;
+				}
+				statics.putIfAbsent(key, handle);
+			}
+			return handle == MISSING ? null : handle;
+		}
+
+		/**
+		 * Gets the manual page of the process.
+		 *
+		 * @return manual page or null if the process has none
+		 * @throws InvocationTargetException if getMan fails
+		 */
+		public String getMan() throws InvocationTargetException {
+			MethodHandle man = getStatic("getMan", MethodType.methodType(String.class));
+			if (man == null) return null;
+			try {
+				return (String) man.invokeExact();
+			} catch (Error e) {
+				throw e;
+			} catch (Throwable e) {
+				throw new InvocationTargetException(e);
+			}
+		}
+
+		/**
+		 * Gets the class of the process.
+		 *
+		 * @return class
+		 */
+		public Class<?> getType() {
+			return type;
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package kernel;
+
+import process.AbstractProcess;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Table of running processes. Processes are added and removed by many threads at once without locking.
+ * Readers take snapshots optimistically - the table is copied and the copy is kept only if no change
+ * started or ended meanwhile, so observers never block spawning processes.
+ *
+ * @author Radek Bouda
+ */
+public class ProcessTable {
+	/** Attempts of a consistent snapshot before a weakly consistent one is returned */
+	private static final int SNAPSHOT_ATTEMPTS = 8;
+	/** Orders processes by pid */
+	private static final Comparator<AbstractProcess> BY_PID = new Comparator<AbstractProcess>() {
+		@Override
+		public int compare(AbstractProcess first, AbstractProcess second) {
+			return first.getPid() < second.getPid() ? -1 : (first.getPid() == second.getPid() ? 0 : 1);
+		}
+	};
+
+	/** Processes by pid */
+	private final ConcurrentHashMap<Integer, AbstractProcess> processes = new ConcurrentHashMap<Integer, AbstractProcess>();
+	/** Number of started changes */
+	private final AtomicLong started = new AtomicLong();
+	/** Number of finished changes, the version of the table */
+	private final AtomicLong finished = new AtomicLong();
+
+	/**
+	 * Adds a process.
+	 *
+	 * @param process process
+	 */
+	public void put(AbstractProcess process) {
+		started.incrementAndGet();
+		try {
+			processes.put(process.getPid(), process);
+		} finally {
+			finished.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Removes a process. A new process with the same (recycled) pid stays in the table.
+	 *
+	 * @param process process
+	 * @return true if the process was removed, false if it is not in the table
+	 */
+	public boolean remove(AbstractProcess process) {
+		if (processes.get(process.getPid()) != process) return false;	// Nothing changes
+		started.incrementAndGet();
+		try {
+			return processes.remove(process.getPid(), process);
+		} finally {
+			finished.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Gets a process.
+	 *
+	 * @param pid pid
+	 * @return process or null
+	 */
+	public AbstractProcess get(int pid) {
+		return processes.get(pid);
+	}
+
+	/**
+	 * Gets the version of the table. It grows with every change.
+	 *
+	 * @return version
+	 */
+	public long getVersion() {
+		return finished.get();
+	}
+
+	/**
+	 * Takes a snapshot of the table.
+	 *
+	 * @return processes ordered by pid
+	 */
+	public Snapshot snapshot() {
+		List<AbstractProcess> copy = new ArrayList<AbstractProcess>(processes.size() + 4);
+		for (int attempt = 0; attempt < SNAPSHOT_ATTEMPTS; attempt++) {
+			long version = finished.get();
+			if (started.get() != version) {							// A change in progress
+				Thread.yield();
+				continue;
+			}
+			copy.clear();
+			copy.addAll(processes.values());
+			if (started.get() == version) return new Snapshot(version, copy, true);
+		}
+		long version = finished.get();
+		copy.clear();
+		copy.addAll(processes.values());								// Weakly consistent, still safe to iterate
+		return new Snapshot(version, copy, false);
+	}
+
+	/**
+	 * Immutable copy of the table.
+	 */
+	public static final class Snapshot {
+		/** Version of the table */
+		private final long version;
+		/** Processes ordered by pid */
+		private final List<AbstractProcess> processes;
+		/** No change happened during the copy */
+		private final boolean consistent;
+
+		private Snapshot(long version, List<AbstractProcess> processes, boolean consistent) {
+			Collections.sort(processes, BY_PID);
+			this.version = version;
+			this.processes = Collections.unmodifiableList(processes);
+			this.consistent = consistent;
+		}
+
+		public long getVersion() {
+			return version;
+		}
+		public List<AbstractProcess> getProcesses() {
+			return processes;
+		}
+		public boolean isConsistent() {
+			return consistent;
+		}
+	}
+}
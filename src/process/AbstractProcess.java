@@ -1,23 +1,31 @@
 package process;
 
-import console.Console;
+import helpers.BBBufferedOutputStream;
 import helpers.BBPipedInputStream;
 import helpers.BBPipedOutputStream;
+import helpers.BBRecordInputStream;
+import helpers.LineOperator;
+import helpers.LineReader;
+import helpers.PipeMode;
+import helpers.RecordBatch;
+import helpers.RecordReader;
 import kernel.Kernel;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Abstract class which creates a primitive model for all the processes.
+ * Processes are not threads, kernel runs them on its executor. Killing interrupts the thread running the process.
  *
  * @author Jan Blaha, Radek Bouda, David Steinberger
  * @version 1.0.0
  */
-public abstract class AbstractProcess extends Thread {
+public abstract class AbstractProcess implements Runnable {
 	/** Process id */
 	private int pid;
 	/** Start time */
@@ -35,13 +43,26 @@ public abstract class AbstractProcess extends Thread {
 	/** Parent shell. In case of shell, shell itself. Shell to forward children. */
 	protected Shell shell;
 
-	/** Pipe buffer size. 4MB */
+	/** Pipe buffer size. 4MB at most, segments are taken from the pool on demand */
 	public static final int PIPE_BUFFER_SIZE = 4194304;
 	/** This command can be used to show process's help. */
 	public static final String HELP_COMMAND = "--help";
 	/** If process can have a parameter, this field show whether it is a HELP_COMMAND or not. */
 	protected boolean helpOnly;
 
+	/** Guards the runner and the kill flag */
+	private final Object runLock = new Object();
+	/** Thread running the process, null before and after the run */
+	private Thread runner;
+	/** Process was killed */
+	private volatile boolean killed;
+	/** Process ended, its pipes are closed */
+	private volatile boolean ended;
+	/** Input is a redirected file */
+	private boolean redirected;
+	/** File of the input redirect until it is read by the first process of the pipeline or handed to a child */
+	private InputStream redirect;
+
 	/**
 	 * Default constructor with default settings.
 	 *
@@ -52,14 +73,37 @@ public abstract class AbstractProcess extends Thread {
 	 * @param shell parent shell
 	 */
 	public AbstractProcess(int pid, int parentPid, BBPipedInputStream input, List<List<String>> commands, Shell shell) throws IOException {
-		this.childPids = new ArrayList<Integer>();
+		this.childPids = new CopyOnWriteArrayList<Integer>();
 		this.parentPid = parentPid;
 		this.pid = pid;
 		this.commands = commands;
 		this.shell = shell;
 		this.startTime = System.currentTimeMillis();
-		this.input = new BBPipedInputStream(PIPE_BUFFER_SIZE);
-		if(input != null) this.output = new BBPipedOutputStream(input);
+		this.input = createPipe();
+		if(input != null) this.output = new BBBufferedOutputStream(input);	// Lines for a user, blocks for processes
+	}
+
+	/**
+	 * Creates a new input pipe in the mode chosen by the shell. Line-aware processes get a record pipe,
+	 * unless the user asked for spilling pipes.
+	 *
+	 * @return unconnected pipe
+	 */
+	protected BBPipedInputStream createPipe() {
+		PipeMode mode = shell == null ? PipeMode.RING : shell.getPipeMode();
+		if (readsRecords() && mode != PipeMode.SPILL) return new BBRecordInputStream(PIPE_BUFFER_SIZE);
+		return mode.createPipe(PIPE_BUFFER_SIZE);
+	}
+
+	/**
+	 * Checks if the process reads its input by lines. Such a process reads by {@link #readRecords()}
+	 * and gets a record pipe, so the text is split into lines only once.
+	 * Called from the constructor, must not depend on fields.
+	 *
+	 * @return true/false
+	 */
+	protected boolean readsRecords() {
+		return false;
 	}
 
 	/**
@@ -85,16 +129,123 @@ public abstract class AbstractProcess extends Thread {
 	 */
 	@Override
 	public void run() {
-		callSubProcess();				// Creates subprocesses
-		processRun();					// Does own job
-		removeFromTable(); 				// Shells does not die
+		try {
+			if(!attach()) return;		// Killed before start
+			redirectInput();			// First process may read a file
+			callSubProcess();			// Creates subprocesses
+			processRun();				// Does own job
+		} finally {
+			closePipes();				// Nobody waits on a dead process
+			ended = true;
+			removeFromTable(); 			// Shells does not die
+			detach();
+		}
+	}
+
+	/**
+	 * Reads the input redirect if the process is the first one of the command.
+	 * The file replaces the pipe nobody writes into, so the process reads it as its piped input.
+	 */
+	private void redirectInput() {
+		if (redirect == null || commands.size() > 0) return;	// Handed to the next child
+		InputStream pipe = input;
+		input = redirect;
+		redirect = null;
+		redirected = true;
+		try {
+			pipe.close();
+		} catch (IOException e) {
+			return;						// Closed before.
+		}
+	}
+
+	/**
+	 * Binds the process to the current thread, so it can be interrupted.
+	 *
+	 * @return false if the process was killed meanwhile
+	 */
+	private boolean attach() {
+		synchronized (runLock) {
+			if(killed) return false;
+			runner = Thread.currentThread();
+			return true;
+		}
+	}
+
+	/**
+	 * Unbinds the process. Interrupt of a kill must not leak to the next task of the thread.
+	 */
+	private void detach() {
+		synchronized (runLock) {
+			runner = null;
+			Thread.interrupted();
+		}
+	}
+
+	/**
+	 * Interrupts the thread running the process. A process which does not run yet never starts.
+	 */
+	protected void interrupt() {
+		synchronized (runLock) {
+			killed = true;
+			if(runner != null) runner.interrupt();
+		}
+	}
+
+	/**
+	 * Checks if the process was killed.
+	 *
+	 * @return true/false
+	 */
+	protected boolean isInterrupted() {
+		return killed || Thread.currentThread().isInterrupted();
+	}
+
+	/**
+	 * Closes both ends of the process. Pipes don't watch threads of the other side,
+	 * so a reader blocked on this output gets EOF and a writer blocked on this input
+	 * gets an exception instead of waiting forever.
+	 */
+	protected void closePipes() {
+		try {
+			if (output != null) output.close();
+			input.close();
+		} catch (IOException e) {
+			return;						// Closed before.
+		} finally {
+			closeRedirect(redirect);	// Never read, f.e. killed before start
+		}
+	}
+
+	/**
+	 * Sets the file of the input redirect. It goes down the pipeline with the commands, so only
+	 * the first process of this command line reads it. The caller must not close it.
+	 *
+	 * @param file opened file or null
+	 */
+	protected void setRedirect(InputStream file) {
+		closeRedirect(redirect);
+		redirect = file;
+	}
+
+	/**
+	 * Closes a file of the input redirect which no process reads.
+	 *
+	 * @param file file or null
+	 */
+	private static void closeRedirect(InputStream file) {
+		try {
+			if (file != null) file.close();
+		} catch (IOException e) {
+			return;						// Closed before.
+		}
 	}
 
 	/**
 	 * Removes itself from process table.
 	 */
 	protected void removeFromTable() {
-		Kernel.getInstance().removeReference(pid);
+		Kernel.getInstance().removeReference(this);
 	}
 
 	/**
@@ -116,10 +267,18 @@ public abstract class AbstractProcess extends Thread {
 	 * Recursive call of subprocesses.
 	 */
 	protected int callSubProcess() {
-		if(commands == null || commands.size() < 1) return -1;	// Commands undefined or empty
+		InputStream file = redirect;						// Goes to the child with the commands
+		redirect = null;
+		if(commands == null || commands.size() < 1) {			// Commands undefined or empty
+			closeRedirect(file);
+			return -1;
+		}
 		int position = commands.size() - 1;					// Last position in commands
 		int arguments = commands.get(position).size() + 4;	// Arguments size depends on tokens in specific command. +4 stands for pid, parentPid, input, shell and commands list
-		if(builtin(commands.get(position))) return -1;			// Commands before builtin function are not executed (bash like)
+		if(builtin(commands.get(position))) {					// Commands before builtin function are not executed (bash like)
+			closeRedirect(file);
+			return -1;
+		}
 		Object args[] = new Object[arguments];				// LEAVE PID EMPTY FOR KERNEL!
 		args[1] = pid;
 		args[2] = input;
@@ -130,6 +289,14 @@ public abstract class AbstractProcess extends Thread {
 		}
 		int processPid = Kernel.getInstance().newProcess(commands.get(position).get(0), args);	// Asks kernel for process and gets pid.
 
+		AbstractProcess child = processPid < 0 ? null : Kernel.getInstance().getProcess(processPid);
+		if (child != null) {								// Set before the child starts
+			child.redirect = file;
+			prepare(child);
+		} else {
+			closeRedirect(file);							// Not created or killed meanwhile
+		}
+
 		if (processPid == -1) {            	// 	-1 - Process not found
 			shell.printError("-BBShell: " + commands.get(position).get(0) + " is not a valid process!\n");
 		} else if (processPid == -2) {    	// -2 - Wrong arguments of method
@@ -138,12 +305,23 @@ public abstract class AbstractProcess extends Thread {
 			shell.printError("-BBShell: Unkown error of " + commands.get(position).get(0));
 		} else {
 			addChildPid(processPid);
-			Kernel.getInstance().startProcess(processPid);        // Launch process
+			if(!Kernel.getInstance().startProcess(processPid)) {	// Launch process
+				closeRedirect(file);								// Never runs
+				shell.printError("-BBShell: " + commands.get(position).get(0) + " cannot be started, too many processes!");
+			}
 		}
 
 		return processPid;
 	}
 
+	/**
+	 * Prepares a created child before it starts.
+	 *
+	 * @param child child process
+	 */
+	protected void prepare(AbstractProcess child) {
+	}
+
 	/**
 	 * Checks shell builtin commands.
 	 *
@@ -164,43 +342,115 @@ public abstract class AbstractProcess extends Thread {
 	}
 
 	/**
-	 * Reads string from input stream.
+	 * Gets a reader of line records of the input. Records of a record pipe are taken as they are,
+	 * other inputs are split into lines by the reader.
 	 *
-	 * @return string
+	 * @return reader
 	 */
-	protected String getStringFromInput() {
-		try {
-			int c;
-			StringBuilder builder = new StringBuilder();
-			while ((c = input.read()) != -1) {
-				builder.append((char) c);
-			}
-			return builder.toString();
-		} catch (IOException e) {
-			return ""; // If output is null (error appears etc.), print just new line with shell prefix.
+	protected RecordReader readRecords() {
+		return new RecordReader(input);
+	}
+
+	/**
+	 * Gets a reader of text lines of the input. The input is read in blocks and decoded as UTF-8 line by line.
+	 *
+	 * @return reader
+	 */
+	protected LineReader readLines() {
+		return new LineReader(input);
+	}
+
+	/**
+	 * Writes a line to the output, the newline is added. A record pipe of the next process
+	 * gets the line as a record.
+	 *
+	 * @param b bytes of the line
+	 * @param off offset
+	 * @param len length without the newline
+	 * @throws IOException if the pipe is closed
+	 */
+	protected void writeRecord(byte[] b, int off, int len) throws IOException {
+		if (output instanceof BBPipedOutputStream) {
+			((BBPipedOutputStream) output).writeRecord(b, off, len);
+		} else {
+			output.write(b, off, len);
+			output.write('\n');
 		}
 	}
 
 	/**
-	 * Interrupts process.
+	 * Pushes all the lines of the input into an operator and finishes it.
+	 *
+	 * @param operator first operator of the chain
+	 * @throws IOException if a pipe is closed
 	 */
-	public void kill() {
-		try {
-			output.write(Console.CONTROL_C_BYTE);			// Interrupted flag. Don't print output.
-			output.close();
-			this.interrupt();
-		} catch (IOException e) {
-			return;											// Closed before.
+	protected void pipeRecords(LineOperator operator) throws IOException {
+		pushRecords(readRecords(), operator);
+	}
+
+	/**
+	 * Pushes all the lines of a reader into an operator and finishes it. Stops when the process is killed.
+	 *
+	 * @param reader reader of lines
+	 * @param operator first operator of the chain
+	 * @throws IOException if a pipe is closed or the process is killed
+	 */
+	protected void pushRecords(RecordReader reader, LineOperator operator) throws IOException {
+		RecordBatch batch;
+		while ((batch = reader.next()) != null) {
+			if (isInterrupted()) throw new InterruptedIOException();
+			byte[] data = batch.getData();
+			for (int i = 0; i < batch.size(); i++) operator.push(data, batch.getOffset(i), batch.getLength(i), batch.isTerminated(i));
 		}
+		operator.finish();
+	}
+
+	/**
+	 * Gets an operator which writes lines to the output. Output is not closed by finish.
+	 *
+	 * @return last operator of a chain
+	 */
+	protected LineOperator outputOperator() {
+		return new LineOperator() {
+			@Override
+			public void push(byte[] data, int off, int len, boolean terminated) throws IOException {
+				if (terminated) writeRecord(data, off, len);
+				else output.write(data, off, len);
+			}
+
+			@Override
+			public void finish() {
+			}
+		};
 	}
 
 	/**
-	 * Checks if the process has piped input.
+	 * Interrupts process. The process closes its output itself at its end, so the buffered bytes
+	 * are flushed by their only writer. The output of a process which does not end in time
+	 * (f.e. it never runs) is closed by the kernel, its buffered bytes are lost then.
+	 */
+	public void kill() {
+		this.interrupt();
+		Kernel.getInstance().afterKill(new Runnable() {
+			@Override
+			public void run() {
+				if (ended || output == null) return;
+				try {
+					output.close();						// Reader gets EOF
+				} catch (IOException e) {
+					return;								// Closed before.
+				}
+			}
+		});
+	}
+
+	/**
+	 * Checks if the process has piped input. A redirected file is read as a piped input.
 	 *
 	 * @return true/false
 	 */
 	protected boolean hasPipedInput() {
-		return commands.size() == 0 ? false:true;
+		return redirected || commands.size() != 0;
 	}
 
 	// Getters and setters
@@ -216,4 +466,7 @@ public abstract class AbstractProcess extends Thread {
 	public List<Integer> getChildPids() {
 		return childPids;
 	}
+	public InputStream getInput() {
+		return input;
+	}
 }
@@ -1,8 +1,16 @@
 package process;
 
 import helpers.BBPipedInputStream;
+import helpers.BBPipedOutputStream;
+import helpers.FileLines;
+import helpers.LineOperator;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -12,8 +20,13 @@ import java.util.List;
  */
 public class Cat extends AbstractProcess {
 
-    /** Path to file */
-    private String path;
+    /** Size of one mapped region */
+    private static final long REGION_SIZE = 1 << 30;
+    /** Largest part moved by one transfer, a kill is checked between them */
+    private static final long TRANSFER_SIZE = 64 << 20;
+
+    /** Paths to files, empty for stdin */
+    private final List<String> paths = new ArrayList<String>();
 
     /**
      * Create new process.
@@ -23,17 +36,16 @@ public class Cat extends AbstractProcess {
      * @param input PipedInputStream
      * @param commands List of commands
      * @param shell parent shell
-     * @param path Path to file
+     * @param paths Paths to files
      */
-    public Cat(int pid, int parentPid, BBPipedInputStream input, List<List<String>> commands, Shell shell, String path) throws IOException {
+    public Cat(int pid, int parentPid, BBPipedInputStream input, List<List<String>> commands, Shell shell, String[] paths) throws IOException {
         super(pid, parentPid, input, commands, shell);
 
-        if(path.equalsIgnoreCase(AbstractProcess.HELP_COMMAND)){
+        if(paths.length == 1 && paths[0].equalsIgnoreCase(AbstractProcess.HELP_COMMAND)){
             helpOnly = true;
-            this.path = null;
         } else {
             helpOnly = false;
-            this.path = shell.getPath(path);
+            this.paths.addAll(Arrays.asList(paths));
         }
 
     }
@@ -49,7 +61,6 @@ public class Cat extends AbstractProcess {
      */
     public Cat(int pid, int parentPid, BBPipedInputStream input, List<List<String>> commands, Shell shell) throws IOException {
         super(pid, parentPid, input, commands, shell);
-        this.path = null;
     }
 
     /**
@@ -66,7 +77,7 @@ public class Cat extends AbstractProcess {
                 return;                 // Killed process
             }
         }
-        if(path == null) {
+        if(paths.isEmpty()) {
             if(hasPipedInput()) pipedVersion();
             else stdinVersion();
         }
@@ -78,8 +89,7 @@ public class Cat extends AbstractProcess {
      */
     private void pipedVersion() {
         try {
-            String text = getStringFromInput();
-            output.write(text.getBytes());
+            pipeRecords(outputOperator());
             output.close();
         } catch (IOException e) {
             return;                     // Killed process
@@ -87,26 +97,140 @@ public class Cat extends AbstractProcess {
     }
 
     /**
-     * Version with arguments.
+     * Reads lines as records, piped version only passes them on.
+     *
+     * @return true
+     */
+    @Override
+    protected boolean readsRecords() {
+        return true;
+    }
+
+    /**
+     * Gets an operator of a fused pipeline. Cat passes lines on, the file of the first stage is its source.
+     *
+     * @param shell parent shell
+     * @param arguments command with arguments
+     * @param next next operator
+     * @return operator or null if the command cannot be fused
+     */
+    public static LineOperator fuse(Shell shell, List<String> arguments, LineOperator next) {
+        if (arguments.size() > 2 || arguments.contains(AbstractProcess.HELP_COMMAND)) return null;
+        return next;
+    }
+
+    /**
+     * Gets the input of a fused pipeline starting by cat of a file.
+     *
+     * @param shell parent shell
+     * @param arguments command with arguments
+     * @return file or null if the command is not a cat of an existing file
+     */
+    public static File source(Shell shell, List<String> arguments) {
+        if (arguments.size() != 2 || arguments.get(1).equalsIgnoreCase(AbstractProcess.HELP_COMMAND)) return null;
+        return existingFile(shell, arguments.get(1));
+    }
+
+    /**
+     * Finds an existing file.
+     *
+     * @param shell parent shell
+     * @param path rel/abs path
+     * @return file or null if there is no such a file
+     */
+    static File existingFile(Shell shell, String path) {
+        String file = shell.getPath(path);
+        if (file == null) return null;
+        File found = new File(file);
+        return found.isFile() ? found : null;
+    }
+
+    /**
+     * Version with arguments. Files follow each other. If the output goes into a file, they are
+     * transferred into it by the system without passing the pipe. Otherwise large files are mapped
+     * and copied straight into chunks of the pipe, small files are read into them.
      */
     private void argumentVersion() {
         try {
-            int c;
-            BufferedReader reader = new BufferedReader(new FileReader(new File(path)));
-            while((c = reader.read()) != -1) output.write(c);
-            output.close();
-        } catch (FileNotFoundException e) {
-            try {
-                shell.printError("cat: " + path + ": No such a file or directory");
-                output.close();
-            } catch (IOException e1) {
-                return;                 // Killed process
+            BBPipedOutputStream pipe = (BBPipedOutputStream) output;
+            FileChannel sink = pipe.fileSink();
+            for (String path : paths) {
+                File file = existingFile(shell, path);
+                if (file == null) {
+                    shell.printError("cat: " + path + ": No such a file or directory");
+                    continue;
+                }
+                FileChannel channel = new FileInputStream(file).getChannel();
+                try {
+                    if (sink != null) transfer(channel, sink);
+                    else if (channel.size() >= FileLines.MAP_THRESHOLD) mapped(channel, pipe);
+                    else read(channel, pipe);
+                } finally {
+                    channel.close();
+                }
             }
+            output.close();
         } catch (IOException e) {
             return;                     // Killed process
         }
     }
 
+    /**
+     * Transfers a file into the file of the output.
+     *
+     * @param channel file
+     * @param sink file of the output
+     * @throws IOException if the process is killed or a file cannot be written
+     */
+    private void transfer(FileChannel channel, FileChannel sink) throws IOException {
+        long size = channel.size();
+        for (long at = 0; at < size; ) {
+            if (isInterrupted()) throw new InterruptedIOException();
+            long moved = channel.transferTo(at, Math.min(TRANSFER_SIZE, size - at), sink);
+            if (moved <= 0) break;      // Truncated file
+            at += moved;
+        }
+    }
+
+    /**
+     * Copies a mapped file into chunks of the pipe.
+     *
+     * @param channel file
+     * @param pipe output
+     * @throws IOException if the process is killed or the pipe is closed
+     */
+    private void mapped(FileChannel channel, BBPipedOutputStream pipe) throws IOException {
+        long size = channel.size();
+        for (long at = 0; at < size; at += REGION_SIZE) {
+            MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, at, Math.min(REGION_SIZE, size - at));
+            while (region.hasRemaining()) {
+                if (isInterrupted()) throw new InterruptedIOException();
+                ByteBuffer chunk = pipe.acquireChunk();
+                ByteBuffer part = region.duplicate();
+                part.limit(part.position() + Math.min(chunk.remaining(), part.remaining()));
+                chunk.put(part);
+                region.position(part.position());
+                pipe.publishChunk(chunk);
+            }
+        }
+    }
+
+    /**
+     * Reads a file straight into chunks of the pipe.
+     *
+     * @param channel file
+     * @param pipe output
+     * @throws IOException if the pipe is closed
+     */
+    private void read(FileChannel channel, BBPipedOutputStream pipe) throws IOException {
+        int n;
+        do {
+            ByteBuffer chunk = pipe.acquireChunk();
+            n = channel.read(chunk);
+            pipe.publishChunk(chunk);
+        } while (n != -1);
+    }
+
     /**
      * Version without arguments. Stdin.
      */
@@ -128,8 +252,9 @@ public class Cat extends AbstractProcess {
     return "------------------ CAT PROCESS ------------------\n"+
             "- concatenate files and print on the standard output\n"+
             "- can be used with a relative or absolute path as a non-compulsory parameter\n\n"+
-            "Syntax: cat <file>\n"+
-            "- prints file in current directory (if the file exists)\n\n"+
+            "Syntax: cat <file>...\n"+
+            "- prints files in current directory one after another (if the files exist)\n"+
+            "- output redirected into a file is copied by the system, bypassing the pipe\n\n"+
             "Syntax: cat <relative/absolute path><file>\n"+
             "- prints file in directory at selected relative or absolute path (if the file exists)\n"+
             "------------------ MANUAL END ------------------";
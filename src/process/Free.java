@@ -0,0 +1,104 @@
+package process;
+
+import helpers.BBPipedInputStream;
+import helpers.BBSpillingInputStream;
+import helpers.SegmentPool;
+import kernel.Kernel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Free process prints occupancy of the pipe segment pool and buffers of the pipes of running processes.
+ *
+ * @author Radek Bouda
+ */
+public class Free extends AbstractProcess {
+
+    /**
+     * Create new process.
+     *
+     * @param pid process id
+     * @param parentPid parent process id
+     * @param input pipedInput
+     * @param commands list of commands
+     * @param shell parent shell
+     */
+    public Free(int pid, int parentPid, BBPipedInputStream input, List<List<String>> commands, Shell shell) throws IOException {
+        super(pid, parentPid, input, commands, shell);
+    }
+
+    /**
+     * Own job.
+     */
+    @Override
+    protected void processRun() {
+        try {
+            output.write(getStatistics(SegmentPool.getInstance()).getBytes());
+            output.write(getPipeHeaders().getBytes());
+            for (AbstractProcess process : Kernel.getInstance().getProcesses().getProcesses()) {
+                if(getPid() == process.getPid()) continue;                      // Own pipe is being read
+                InputStream pipe = process.getInput();
+                if(pipe instanceof BBPipedInputStream) output.write(getPipeRecord(process, (BBPipedInputStream) pipe).getBytes());
+            }
+            output.close();
+        } catch (IOException e) {
+            return;                                     // Killed process
+        }
+    }
+
+    /**
+     * Gets statistics of the pool.
+     *
+     * @param pool segment pool
+     * @return printable statistics
+     */
+    private String getStatistics(SegmentPool pool) {
+        long kB = pool.getSegmentSize() / 1024;
+        return "Segment size\t" + kB + " kB\n" +
+                "In use\t\t" + pool.getOutstanding() + " segments (" + pool.getOutstanding() * kB + " kB)\n" +
+                "Idle\t\t" + pool.getIdle() + " / " + pool.getMaxIdle() + " segments (" + pool.getIdle() * kB + " kB)\n" +
+                "Requests\t" + pool.getRequests() + "\n" +
+                "Hit rate\t" + String.format("%.1f", pool.getHitRate() * 100) + " %\n";
+    }
+
+    /**
+     * Gets headers of the pipes.
+     *
+     * @return headers
+     */
+    private String getPipeHeaders() {
+        return "\nPID\tProcess name\tBuffered\tSpilled\t\tSpill time\tMax spill\n";
+    }
+
+    /**
+     * Gets record of an input pipe of a process. Spill columns are filled only for spilling pipes.
+     *
+     * @param process process reading the pipe
+     * @param pipe input pipe of the process
+     * @return record
+     */
+    private String getPipeRecord(AbstractProcess process, BBPipedInputStream pipe) {
+        String record = process.getPid() + "\t" + process.getClass().getSimpleName() + "\t\t" + pipe.getBuffered() / 1024 + " kB\t\t";
+        if (!(pipe instanceof BBSpillingInputStream)) return record + "-\t\t-\t\t-\n";
+        BBSpillingInputStream spilling = (BBSpillingInputStream) pipe;
+        return record + spilling.getSpilledBytes() / 1024 + " kB\t\t" +
+                spilling.getSpillNanos() / 1000000 + " ms\t\t" +
+                spilling.getMaxSpillNanos() / 1000 + " us\n";
+    }
+
+    /**
+     * Returns a manual page of a process.
+     * @return Manual page
+     */
+    public static String getMan() {
+        return "------------------ FREE PROCESS ------------------\n"+
+                "- prints occupancy of the pool of pipe buffers\n\n"+
+                "Syntax: free\n"+
+                "- prints segments in use, idle segments and hit rate of the pool\n"+
+                "- prints bytes buffered by the input pipe of every process,\n"+
+                "  spilled bytes, total and maximal spill time of spilling pipes (pipe spill)\n"+
+                "------------------ MANUAL END ------------------";
+    }
+}
@@ -0,0 +1,230 @@
+package process;
+
+import helpers.BBPipedInputStream;
+import helpers.EnoughLinesException;
+import helpers.LineOperator;
+import helpers.RecordReader;
+import kernel.Kernel;
+import kernel.ProcessRegistry;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.util.List;
+
+/**
+ * Fused process runs a whole pipeline on its own thread. Shell appends it to pipelines made only
+ * of fusable processes - the first one reads a file (public static File source(Shell, List)), all of them
+ * are line operators (public static LineOperator fuse(Shell, List, LineOperator)). Stages are not
+ * started as processes, lines are passed by function calls instead of pipes. Killing the fused process
+ * stops the whole pipeline, so does a stage which needs no more lines (head).
+ *
+ * @author Radek Bouda
+ */
+public class Fused extends AbstractProcess {
+    /** Name of the process, appended to the fused pipeline */
+    public static final String NAME = "fused";
+    /** Prefix of a command line which is not fused */
+    public static final String NOFUSE = "nofuse";
+    /** Maximal number of fused stages, a line passes them in nested calls on one stack */
+    private static final int MAX_STAGES = 256;
+    /** Type of the source of the first stage */
+    private static final MethodType SOURCE_TYPE = MethodType.methodType(File.class, Shell.class, List.class);
+    /** Type of the operator of a stage */
+    private static final MethodType FUSE_TYPE = MethodType.methodType(LineOperator.class, Shell.class, List.class, LineOperator.class);
+
+    /** Operators prepared by the shell or null */
+    private Pipeline pipeline;
+
+    /**
+     * Create new process.
+     *
+     * @param pid process id
+     * @param parentPid parent process id
+     * @param input pipedInput
+     * @param commands fused pipeline
+     * @param shell parent shell
+     */
+    public Fused(int pid, int parentPid, BBPipedInputStream input, List<List<String>> commands, Shell shell) throws IOException {
+        super(pid, parentPid, input, commands, shell);
+    }
+
+    /**
+     * Stages of the pipeline run in this process, nothing is started.
+     *
+     * @return -1
+     */
+    @Override
+    protected int callSubProcess() {
+        return -1;
+    }
+
+    /**
+     * Own job.
+     */
+    @Override
+    protected void processRun() {
+        try {
+            Pipeline pipeline = this.pipeline != null ? this.pipeline : prepare(shell, commands);
+            if (pipeline == null) {
+                output.write(getMan().getBytes());              // Not a fusable pipeline
+            } else {
+                pipeline.output.next = outputOperator();
+                InputStream in = new FileInputStream(pipeline.file);
+                try {
+                    pushRecords(new RecordReader(in), pipeline.first);
+                } catch (EnoughLinesException e) {
+                    // The rest of the file is not needed, the chain is finished
+                } finally {
+                    in.close();
+                }
+            }
+            output.close();
+        } catch (IOException e) {
+            return;                                             // Killed process
+        }
+    }
+
+    /**
+     * Sets the operators prepared by the shell, so they are not created again.
+     *
+     * @param pipeline operators or null
+     */
+    void setPipeline(Pipeline pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    /**
+     * Creates the operators of a pipeline if it can be fused. The shell prepares them once per command line
+     * and hands them to the fused process.
+     *
+     * @param shell parent shell
+     * @param commands pipeline
+     * @return operators or null if the pipeline cannot be fused
+     */
+    public static Pipeline prepare(Shell shell, List<List<String>> commands) {
+        if (commands.size() < 2 || commands.size() > MAX_STAGES) return null;
+        File file = source(shell, commands.get(0));
+        if (file == null) return null;
+        Output output = new Output();
+        LineOperator first = chain(shell, commands, output);
+        return first == null ? null : new Pipeline(file, first, output);
+    }
+
+    /**
+     * Checks if a command is a line stage. Line stages without a file read their piped input.
+     *
+     * @param command command
+     * @return true/false
+     */
+    public static boolean isStage(List<String> command) {
+        return stageMethod(command.get(0), "fuse", FUSE_TYPE) != null;
+    }
+
+    /**
+     * Gets the file read by the first stage.
+     *
+     * @param shell parent shell
+     * @param command first command
+     * @return file or null if the stage is not a source
+     */
+    private static File source(Shell shell, List<String> command) {
+        MethodHandle source = stageMethod(command.get(0), "source", SOURCE_TYPE);
+        if (source == null) return null;
+        try {
+            return (File) source.invokeExact(shell, (List) command);
+        } catch (Throwable e) {
+            return null;                // Wrong arguments
+        }
+    }
+
+    /**
+     * Chains operators of all the stages. The first stage reads its file, its operator gets the lines
+     * (cat passes them, grep or wc of a file process them).
+     *
+     * @param shell parent shell
+     * @param commands pipeline
+     * @param last operator after the last stage
+     * @return first operator or null if a stage cannot be fused
+     */
+    private static LineOperator chain(Shell shell, List<List<String>> commands, LineOperator last) {
+        LineOperator next = last;
+        for (int i = commands.size() - 1; i >= 0 && next != null; i--) {
+            MethodHandle fuse = stageMethod(commands.get(i).get(0), "fuse", FUSE_TYPE);
+            if (fuse == null) return null;
+            try {
+                next = (LineOperator) fuse.invokeExact(shell, (List) commands.get(i), next);
+            } catch (Throwable e) {
+                return null;            // Wrong arguments
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Finds a static method of a process in the registry of the kernel.
+     *
+     * @param process process name
+     * @param name method name
+     * @param type method type
+     * @return method or null
+     */
+    private static MethodHandle stageMethod(String process, String name, MethodType type) {
+        ProcessRegistry.Entry entry = Kernel.getInstance().getRegistry().lookup(process);
+        return entry == null ? null : entry.getStatic(name, type);
+    }
+
+    /**
+     * Operators of a fused pipeline.
+     */
+    public static final class Pipeline {
+        /** File read by the first stage */
+        private final File file;
+        /** Operator of the first stage */
+        private final LineOperator first;
+        /** Output of the last stage */
+        private final Output output;
+
+        private Pipeline(File file, LineOperator first, Output output) {
+            this.file = file;
+            this.first = first;
+            this.output = output;
+        }
+    }
+
+    /**
+     * Passes lines of the last stage to the output of the fused process, which does not exist when
+     * the operators are created.
+     */
+    private static final class Output implements LineOperator {
+        /** Output operator of the fused process */
+        private LineOperator next;
+
+        @Override
+        public void push(byte[] data, int off, int len, boolean terminated) throws IOException {
+            next.push(data, off, len, terminated);
+        }
+
+        @Override
+        public void finish() throws IOException {
+            next.finish();
+        }
+    }
+
+    /**
+     * Returns a manual page of a process.
+     * @return Manual page
+     */
+    public static String getMan() {
+        return "------------------ FUSED PROCESS ------------------\n"+
+                "- runs a pipeline of line processes on one thread without pipes\n\n"+
+                "Syntax: <cat file|grep str file|wc file> { ' | ' <grep|sort|uniq|head|tail|wc|cat> {<argument>}}\n"+
+                "- shell fuses such pipelines automatically, the stages are not started as processes\n\n"+
+                "Syntax: nofuse <command line>\n"+
+                "- runs the command line without fusion\n"+
+                "------------------ MANUAL END ------------------";
+    }
+}
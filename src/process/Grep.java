@@ -1,19 +1,56 @@
 package process;
 
+import helpers.AhoCorasick;
 import helpers.BBPipedInputStream;
+import helpers.FileLines;
+import helpers.LineOperator;
+import helpers.LineReader;
+import helpers.RecordBatch;
+import helpers.TrigramIndex;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
 
 /**
  * This class represents the Grep process.
  * Grep process is used to find user-specific lines in file.
+ * Lines are matched as they come, strings by a Horspool search of bytes, regular expressions (-E)
+ * by a pattern compiled once. Patterns of a file (-f) are searched together in one pass by an Aho-Corasick
+ * automaton built once. Directory trees (-r) are scanned file by file in parallel on a fork-join pool,
+ * results are printed in the order of the files. The printed file streams its lines, only the files ahead
+ * of it are buffered. With --indexed the trigram index shortlists the files first.
  * @author Radek Bouda
  */
 public class Grep extends AbstractProcess {
-    /** String to be found in lines. */
-    private String stringToGrep;
+    /** Pool scanning files of a tree */
+    private static final ForkJoinPool POOL = ForkJoinPool.commonPool();
+    /** Files scanned ahead of the printed one, per thread of the pool */
+    private static final int FILES_AHEAD = 4;
+    /** Bytes of lines buffered for the files ahead of the printed one. A file with more is scanned again when printed */
+    private static final long MAX_BUFFERED = 64L << 20;
+
+    /** Options and the pattern */
+    private Options options;
 
     /**
      * Creates new process
@@ -23,14 +60,15 @@ public class Grep extends AbstractProcess {
      * @param input     PipedInputStream
      * @param commands  list with commands
      * @param shell     parent shell
+     * @param arguments options, the pattern and optionally the path to file
      */
-    public Grep(int pid, int parentPid, BBPipedInputStream input, List<List<String>> commands, Shell shell, String grep) throws IOException {
+    public Grep(int pid, int parentPid, BBPipedInputStream input, List<List<String>> commands, Shell shell, String[] arguments) throws IOException {
         super(pid, parentPid, input, commands, shell);
-        if (grep.equalsIgnoreCase(AbstractProcess.HELP_COMMAND)) {
+        if (arguments.length == 1 && arguments[0].equalsIgnoreCase(AbstractProcess.HELP_COMMAND)) {
             helpOnly = true;
         } else {
             helpOnly = false;
-            this.stringToGrep = grep;
+            this.options = new Options(Arrays.asList(arguments), shell);      // Throws on wrong arguments
         }
     }
 
@@ -42,7 +80,9 @@ public class Grep extends AbstractProcess {
         try {
             if (helpOnly) helpOnly();
             else {
-                if (hasPipedInput()) pipeVersion();
+                if (options.recursive) recursiveVersion();
+                else if (options.path != null) fileVersion();
+                else if (hasPipedInput()) pipeVersion();
                 else stdinVersion();
             }
         } catch (IOException e) {
@@ -50,6 +90,16 @@ public class Grep extends AbstractProcess {
         }
     }
 
+    /**
+     * Reads lines as records.
+     *
+     * @return true
+     */
+    @Override
+    protected boolean readsRecords() {
+        return true;
+    }
+
     /**
      * Prints help.
      *
@@ -67,45 +117,761 @@ public class Grep extends AbstractProcess {
      * @throws IOException
      */
     private void pipeVersion() throws IOException {
-        String text = getStringFromInput();
-        if (text == null || text.equals("")) {
-            output.write("\n".getBytes());
+        pipeRecords(options.matcher(outputOperator()));     // Lines are framed already, no splitting
+        output.close();
+    }
+
+    /**
+     * File version. Lines are taken straight from the file, there is no cat in front.
+     *
+     * @throws IOException
+     */
+    private void fileVersion() throws IOException {
+        String file = shell.getPath(options.path);
+        LineOperator matcher = options.matcher(outputOperator());
+        try {
+            if (file == null) throw new FileNotFoundException();
+            FileLines.push(new File(file), matcher);
+        } catch (FileNotFoundException e) {
+            shell.printError("grep: " + options.path + ": No such a file or directory");
+            matcher.finish();                               // As if the file was empty
+        }
+        output.close();
+    }
+
+    /**
+     * Recursive version. Files of the tree are scanned in parallel, a window of them ahead of the printed one,
+     * so the memory does not grow with the tree. Lines of a directory are prefixed by the file name.
+     *
+     * @throws IOException
+     */
+    private void recursiveVersion() throws IOException {
+        String typed = options.path == null ? "." : options.path;
+        String root = shell.getPath(typed);
+        File start = root == null ? null : new File(root);
+        if (start == null || !start.exists()) {
+            shell.printError("grep: " + typed + ": No such a file or directory");
+            output.close();
+            return;
+        }
+        List<File> files = new ArrayList<File>();
+        List<String> names = new ArrayList<String>();
+        if (start.isFile()) {
+            files.add(start);
+            names.add(null);                                // Single file, no names
         } else {
-            String[] lines = text.split("\n");
-            for (String line : lines) {
-                if (line.contains(stringToGrep)) {
-                    output.write(line.getBytes());
-                    output.write("\n".getBytes());
+            String prefix = options.path == null ? "" : typed.endsWith("/") ? typed : typed + "/";
+            collectFiles(start, prefix, files, names);
+        }
+
+        boolean[] skipped = new boolean[files.size()];
+        if (options.indexed) skipByIndex(files, skipped);
+
+        LineMatcher matcher = options.lineMatcher();
+        LineMatcher own = matcher.copy();
+        LineOperator out = outputOperator();
+        AtomicLong buffered = new AtomicLong();
+        ArrayDeque<Scan> window = new ArrayDeque<Scan>();
+        int ahead = FILES_AHEAD * POOL.getParallelism();
+        int next = 0;
+        try {
+            for (int i = 0; i < files.size(); i++) {
+                while (next < files.size() && window.size() < ahead && buffered.get() < MAX_BUFFERED) {
+                    Scan scan = new Scan(files.get(next), names.get(next), skipped[next], matcher.copy(), options, buffered);
+                    POOL.execute(scan);
+                    window.add(scan);
+                    next++;
+                }
+                if (isInterrupted()) throw new InterruptedIOException();
+                Scan scan = window.poll();
+                Found found = scan.claim() ? null : scan.get();
+                if (found == null || found.overflow) {
+                    stream(files.get(i), names.get(i), skipped[i], own, out);    // Not scanned yet or too many lines
+                    continue;
                 }
+                if (found.error != null) shell.printError(found.error);
+                found.replay(out);
+                buffered.addAndGet(-found.size);
             }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();             // Killed process
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            for (Scan scan : window) scan.cancel(false);
         }
         output.close();
     }
 
     /**
-     * Stdin version.
+     * Scans a file of a tree and passes its lines straight to the output.
+     *
+     * @param file file
+     * @param name printed name or null
+     * @param skipped file cannot match, it is not read
+     * @param matcher matcher of the process thread
+     * @param out output operator
+     * @throws IOException if the output is closed or the process is killed
+     */
+    private void stream(File file, String name, boolean skipped, LineMatcher matcher, LineOperator out) throws IOException {
+        Found found = new Found(name, out);
+        try {
+            Filter filter = new Filter(matcher, options, found);
+            if (skipped) filter.finish();
+            else FileLines.push(file, filter);
+        } catch (IOException e) {
+            if (found.failed != null) throw found.failed;
+            shell.printError("grep: " + name + ": cannot be read");
+        }
+    }
+
+    /**
+     * Marks files which cannot contain the strings by the trigram index. Files missing in the index
+     * or changed since it was built are kept, so a stale index gives the same lines, only slower.
+     *
+     * @param files files of the tree
+     * @param skipped files which need not be scanned
+     */
+    private void skipByIndex(List<File> files, boolean[] skipped) {
+        File root = new File(shell.getPath("/"));
+        TrigramIndex index = TrigramIndex.open(root);
+        List<byte[]> strings = options.indexedStrings();
+        if (index == null || strings == null) return;           // Every file is scanned
+        Set<String> candidates = index.candidates(strings);
+        if (candidates == null) return;
+        String prefix = root.getPath() + File.separator;
+        for (int i = 0; i < files.size(); i++) {
+            File file = files.get(i);
+            if (!file.getPath().startsWith(prefix)) continue;
+            String name = file.getPath().substring(prefix.length()).replace(File.separatorChar, '/');
+            skipped[i] = !candidates.contains(name) && index.isFresh(name, file.lastModified(), file.length());
+        }
+    }
+
+    /**
+     * Collects files of a tree sorted by name. Links are not followed, they could lead out of the root.
+     *
+     * @param directory directory
+     * @param prefix printed name of the directory
+     * @param files found files
+     * @param names printed names of the files
+     */
+    private static void collectFiles(File directory, String prefix, List<File> files, List<String> names) {
+        File[] children = directory.listFiles();
+        if (children == null) return;
+        Arrays.sort(children);
+        for (File child : children) {
+            if (Files.isSymbolicLink(child.toPath()) || TrigramIndex.isIndexFile(child)) continue;
+            if (child.isDirectory()) collectFiles(child, prefix + child.getName() + "/", files, names);
+            else if (child.isFile()) {
+                files.add(child);
+                names.add(prefix + child.getName());
+            }
+        }
+    }
+
+    /**
+     * Stdin version. Lines are matched as they are typed.
      *
      * @throws IOException
      */
     private void stdinVersion() throws IOException {
-        ArrayList<String> lines = new ArrayList<String>();
-        String currentLine = "";
+        LineOperator matcher = options.matcher(outputOperator());
+        String line;
+        while ((line = shell.getLine()) != null) {
+            byte[] bytes = line.getBytes(RecordBatch.CHARSET);
+            matcher.push(bytes, 0, bytes.length, true);
+        }
+        matcher.finish();
+        output.close();
+    }
+
+    /**
+     * Gets an operator of a fused pipeline.
+     *
+     * @param shell parent shell
+     * @param arguments command with arguments
+     * @param next next operator
+     * @return operator or null if the command cannot be fused
+     */
+    public static LineOperator fuse(Shell shell, List<String> arguments, LineOperator next) {
+        Options options = Options.parse(arguments, shell);
+        return options == null || options.recursive ? null : options.matcher(next);
+    }
+
+    /**
+     * Gets the input of a fused pipeline starting by grep of a file.
+     *
+     * @param shell parent shell
+     * @param arguments command with arguments
+     * @return file or null if the command does not scan an existing file
+     */
+    public static File source(Shell shell, List<String> arguments) {
+        Options options = Options.parse(arguments, shell);
+        if (options == null || options.path == null || options.recursive) return null;
+        return Cat.existingFile(shell, options.path);
+    }
+
+    /**
+     * Options of grep.
+     * -i  ignore case
+     * -v  lines which do not match
+     * -c  only the number of lines
+     * -n  line numbers
+     * -E  extended regular expression
+     * -f  patterns of a file, one per line, instead of the pattern
+     * -r  files of a directory tree, the current directory without a path
+     * --indexed  -r with files shortlisted by the trigram index
+     * Flags can be joined (-in), -- ends them. The name of the patterns file follows -f or the next argument.
+     */
+    private static final class Options {
+        private boolean ignoreCase = false;
+        private boolean invert = false;
+        private boolean count = false;
+        private boolean numbers = false;
+        private boolean regex = false;
+        private boolean recursive = false;
+        private boolean indexed = false;
+        private String pattern;
+        /** Patterns of a file or null */
+        private List<String> patterns;
+        private String path;
 
-        while ((currentLine = shell.getLine()) != null) {
-            lines.add(currentLine);
+        /**
+         * Parses arguments.
+         *
+         * @param arguments arguments without the name of the process
+         * @param shell parent shell, resolves the patterns file
+         * @throws IllegalArgumentException in case of unknown options, a wrong pattern or a missing patterns file
+         */
+        Options(List<String> arguments, Shell shell) {
+            String patternFile = null;
+            int i = 0;
+            for (; i < arguments.size(); i++) {
+                String argument = arguments.get(i);
+                if (argument.equals("--")) {
+                    i++;
+                    break;
+                }
+                if (argument.equals("--indexed")) {
+                    indexed = recursive = true;
+                    continue;
+                }
+                if (argument.length() < 2 || argument.charAt(0) != '-') break;
+                for (int j = 1; j < argument.length(); j++) {
+                    switch (argument.charAt(j)) {
+                        case 'i': ignoreCase = true; break;
+                        case 'v': invert = true; break;
+                        case 'c': count = true; break;
+                        case 'n': numbers = true; break;
+                        case 'E': regex = true; break;
+                        case 'r': recursive = true; break;
+                        case 'f':
+                            if (j + 1 < argument.length()) patternFile = argument.substring(j + 1);
+                            else if (++i < arguments.size()) patternFile = arguments.get(i);
+                            else throw new IllegalArgumentException("grep: -f needs a file");
+                            j = argument.length();
+                            break;
+                        default: throw new IllegalArgumentException("grep: unknown option " + argument);
+                    }
+                }
+            }
+            if (patternFile != null) {
+                if (arguments.size() - i > 1) throw new IllegalArgumentException("grep: at most one file expected");
+                patterns = readPatterns(shell, patternFile);
+            } else {
+                if (i == arguments.size() || arguments.size() - i > 2) throw new IllegalArgumentException("grep: pattern and at most one file expected");
+                pattern = arguments.get(i++);
+            }
+            if (i < arguments.size()) path = arguments.get(i);
+            if (regex) compile();                               // Wrong expressions fail now
         }
 
-        String[] linesField = new String[lines.size()];
-        lines.toArray(linesField);
-        for (String line : linesField) {
-            if (line.contains(stringToGrep)) {
-                output.write(line.getBytes());
-                output.write("\n".getBytes());
+        /**
+         * Parses a command.
+         *
+         * @param command command with arguments
+         * @param shell parent shell
+         * @return options or null in case of wrong arguments or help
+         */
+        static Options parse(List<String> command, Shell shell) {
+            if (command.size() < 2 || command.contains(AbstractProcess.HELP_COMMAND)) return null;
+            try {
+                return new Options(command.subList(1, command.size()), shell);
+            } catch (IllegalArgumentException e) {
+                return null;
             }
         }
-        output.close();
+
+        /**
+         * Reads patterns, one per line. An empty line matches every line.
+         *
+         * @param shell parent shell
+         * @param name patterns file
+         * @return patterns
+         * @throws IllegalArgumentException if the file cannot be read
+         */
+        private static List<String> readPatterns(Shell shell, String name) {
+            String file = shell.getPath(name);
+            if (file == null) throw new IllegalArgumentException("grep: " + name + ": No such a file or directory");
+            List<String> patterns = new ArrayList<String>();
+            try {
+                InputStream in = new FileInputStream(file);
+                try {
+                    LineReader reader = new LineReader(in);
+                    String line;
+                    while ((line = reader.readLine()) != null) patterns.add(line);
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                throw new IllegalArgumentException("grep: " + name + ": cannot be read");
+            }
+            return patterns;
+        }
+
+        /**
+         * Compiles the regular expression, or a string which needs Unicode case folding.
+         * Patterns of a file are joined into one alternative.
+         *
+         * @return pattern
+         */
+        private Pattern compile() {
+            int flags = ignoreCase ? Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE : 0;
+            if (patterns == null) return Pattern.compile(pattern, regex ? flags : flags | Pattern.LITERAL);
+            if (patterns.isEmpty()) return Pattern.compile("(?!)");   // No pattern matches nothing
+            StringBuilder alternative = new StringBuilder();
+            for (String one : patterns) {
+                if (alternative.length() > 0) alternative.append('|');
+                alternative.append("(?:").append(regex ? one : Pattern.quote(one)).append(')');
+            }
+            return Pattern.compile(alternative.toString(), flags);
+        }
+
+        /**
+         * Creates the matching operator.
+         *
+         * @param next next operator
+         * @return operator
+         */
+        LineOperator matcher(LineOperator next) {
+            return new Filter(lineMatcher(), this, next);
+        }
+
+        /**
+         * Gets the strings which every matching line contains one of, as the index can look them up.
+         *
+         * @return strings or null if any line can match (inverted match, regular expressions, Unicode case)
+         */
+        List<byte[]> indexedStrings() {
+            if (invert || regex) return null;
+            List<byte[]> strings = new ArrayList<byte[]>();
+            for (String one : patterns == null ? Arrays.asList(pattern) : patterns) {
+                byte[] bytes = one.getBytes(RecordBatch.CHARSET);
+                if (ignoreCase && !isAscii(bytes)) return null;     // Index folds ASCII only
+                strings.add(bytes);
+            }
+            return strings;
+        }
+
+        /**
+         * Creates the matcher of lines.
+         *
+         * @return matcher
+         */
+        LineMatcher lineMatcher() {
+            LineMatcher matcher;
+            if (patterns != null) {
+                List<byte[]> all = new ArrayList<byte[]>(patterns.size());
+                boolean ascii = true;
+                for (String one : patterns) {
+                    byte[] bytes = one.getBytes(RecordBatch.CHARSET);
+                    ascii &= isAscii(bytes);
+                    all.add(bytes);
+                }
+                if (regex || (ignoreCase && !ascii)) matcher = new RegexMatcher(compile());
+                else matcher = new MultiMatcher(new AhoCorasick(all, ignoreCase));
+            } else {
+                byte[] bytes = pattern.getBytes(RecordBatch.CHARSET);
+                if (regex || (ignoreCase && !isAscii(bytes))) matcher = new RegexMatcher(compile());
+                else matcher = new LiteralMatcher(bytes, ignoreCase);
+            }
+            return matcher;
+        }
     }
 
+    /**
+     * Matches a line.
+     */
+    private interface LineMatcher {
+        boolean matches(byte[] data, int off, int len);
+
+        /**
+         * Gets a matcher for another thread, matchers without state are shared.
+         */
+        LineMatcher copy();
+    }
+
+    /**
+     * Scans one file of a tree.
+     */
+    private static final class Scan extends RecursiveTask<Found> {
+        private static final long serialVersionUID = 1L;
+        private final File file;
+        private final String name;
+        /** File cannot match, it is not read */
+        private final boolean skipped;
+        private final LineMatcher matcher;
+        private final Options options;
+        /** Bytes buffered by all the scans */
+        private final AtomicLong buffered;
+        /** Scan was started by the pool or taken by the process */
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        Scan(File file, String name, boolean skipped, LineMatcher matcher, Options options, AtomicLong buffered) {
+            this.file = file;
+            this.name = name;
+            this.skipped = skipped;
+            this.matcher = matcher;
+            this.options = options;
+            this.buffered = buffered;
+        }
+
+        /**
+         * Takes the scan for the process if the pool has not started it.
+         *
+         * @return true if the process scans the file itself
+         */
+        boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+
+        @Override
+        protected Found compute() {
+            if (!claim()) return null;                      // Scanned by the process
+            Found found = new Found(name, buffered);
+            try {
+                Filter filter = new Filter(matcher, options, found);
+                if (skipped) filter.finish();              // As a file without matches, f.e. zero count
+                else FileLines.push(file, filter);
+            } catch (IOException e) {
+                if (found.overflow) found.release();
+                else found.error = "grep: " + name + ": cannot be read";
+            }
+            return found;
+        }
+    }
+
+    /**
+     * Lines found in a file, prefixed by its name. Lines of the printed file go straight to the output,
+     * lines of the files ahead are buffered until the budget of all the scans is spent.
+     */
+    private static final class Found implements LineOperator {
+        private final byte[] prefix;
+        private byte[] data = new byte[0];
+        private int size = 0;
+        /** Ends of the lines */
+        private int[] ends = new int[16];
+        private int lines = 0;
+        private String error;
+        /** Operator getting the lines at once or null if they are buffered */
+        private final LineOperator next;
+        /** Bytes buffered by all the scans */
+        private final AtomicLong buffered;
+        /** Budget was spent, the lines are dropped */
+        private boolean overflow;
+        /** Failure of the output, not of the file */
+        private IOException failed;
+
+        Found(String name, AtomicLong buffered) {
+            this.prefix = name == null ? new byte[0] : (name + ":").getBytes(RecordBatch.CHARSET);
+            this.next = null;
+            this.buffered = buffered;
+        }
+
+        Found(String name, LineOperator next) {
+            this.prefix = name == null ? new byte[0] : (name + ":").getBytes(RecordBatch.CHARSET);
+            this.next = next;
+            this.buffered = null;
+        }
+
+        @Override
+        public void push(byte[] line, int off, int len, boolean terminated) throws IOException {
+            int length = prefix.length + len;
+            if (next != null) {
+                stream(line, off, len, length);
+                return;
+            }
+            if (buffered.addAndGet(length) > MAX_BUFFERED) {
+                buffered.addAndGet(-length);
+                overflow = true;
+                throw new IOException("Too many lines to buffer");
+            }
+            if (size + length > data.length) data = Arrays.copyOf(data, Math.max(data.length * 2, size + length));
+            System.arraycopy(prefix, 0, data, size, prefix.length);
+            System.arraycopy(line, off, data, size + prefix.length, len);
+            size += length;
+            if (lines == ends.length) ends = Arrays.copyOf(ends, lines * 2);
+            ends[lines++] = size;
+        }
+
+        /**
+         * Passes a line with the prefix to the output.
+         */
+        private void stream(byte[] line, int off, int len, int length) throws IOException {
+            try {
+                if (prefix.length == 0) {
+                    next.push(line, off, len, true);
+                    return;
+                }
+                if (length > data.length) data = new byte[Math.max(length, 256)];
+                System.arraycopy(prefix, 0, data, 0, prefix.length);
+                System.arraycopy(line, off, data, prefix.length, len);
+                next.push(data, 0, length, true);
+            } catch (IOException e) {
+                failed = e;
+                throw e;
+            }
+        }
+
+        @Override
+        public void finish() {
+        }
+
+        /**
+         * Drops the buffered lines and returns their bytes to the budget.
+         */
+        void release() {
+            buffered.addAndGet(-size);
+            data = null;
+            size = 0;
+            lines = 0;
+        }
+
+        /**
+         * Pushes the found lines.
+         *
+         * @param next operator
+         * @throws IOException if the output is closed
+         */
+        void replay(LineOperator next) throws IOException {
+            int start = 0;
+            for (int i = 0; i < lines; i++) {
+                next.push(data, start, ends[i] - start, true);
+                start = ends[i];
+            }
+        }
+    }
+
+    /**
+     * Passes matching lines, their number or their count. Empty input gives one empty line, except in files of a tree.
+     */
+    private static final class Filter implements LineOperator {
+        private final LineMatcher matcher;
+        private final boolean invert;
+        private final boolean count;
+        private final boolean numbers;
+        private final boolean recursive;
+        private final LineOperator next;
+        private boolean empty = true;
+        private long lines = 0;
+        private long matched = 0;
+        /** Line with its number */
+        private byte[] numbered;
+
+        Filter(LineMatcher matcher, Options options, LineOperator next) {
+            this.matcher = matcher;
+            this.invert = options.invert;
+            this.count = options.count;
+            this.numbers = options.numbers;
+            this.recursive = options.recursive;
+            this.next = next;
+        }
+
+        @Override
+        public void push(byte[] data, int off, int len, boolean terminated) throws IOException {
+            empty = false;
+            lines++;
+            if (matcher.matches(data, off, len) == invert) return;
+            matched++;
+            if (count) return;
+            if (numbers) pushNumbered(data, off, len);
+            else next.push(data, off, len, true);
+        }
+
+        /**
+         * Pushes a line prefixed by its number and a colon.
+         */
+        private void pushNumbered(byte[] data, int off, int len) throws IOException {
+            if (numbered == null || numbered.length < len + 21) numbered = new byte[Math.max(len + 21, 256)];
+            int at = writeNumber(lines, numbered, 0);
+            numbered[at++] = ':';
+            System.arraycopy(data, off, numbered, at, len);
+            next.push(numbered, 0, at + len, true);
+        }
+
+        @Override
+        public void finish() throws IOException {
+            if (count) {
+                if (numbered == null) numbered = new byte[256];
+                next.push(numbered, 0, writeNumber(matched, numbered, 0), true);
+            } else if (empty && !recursive) {
+                next.push(new byte[0], 0, 0, true);               // Empty line
+            }
+            next.finish();
+        }
+
+        /**
+         * Writes a number in decimal.
+         *
+         * @return end of the number
+         */
+        private static int writeNumber(long number, byte[] target, int at) {
+            int digits = 1;
+            for (long rest = number / 10; rest > 0; rest /= 10) digits++;
+            for (int i = at + digits - 1; i >= at; i--) {
+                target[i] = (byte) ('0' + number % 10);
+                number /= 10;
+            }
+            return at + digits;
+        }
+    }
+
+    /**
+     * Horspool search of bytes. UTF-8 needs no decoding for that. Case of ASCII letters can be ignored.
+     */
+    private static final class LiteralMatcher implements LineMatcher {
+        /** Lower case of ASCII bytes, other bytes stay */
+        private static final byte[] FOLD = new byte[256];
+        static {
+            for (int i = 0; i < 256; i++) FOLD[i] = (byte) (i >= 'A' && i <= 'Z' ? i + ('a' - 'A') : i);
+        }
+
+        private final byte[] pattern;
+        private final boolean fold;
+        /** Shift by the last byte of the window */
+        private final int[] skip = new int[256];
+
+        LiteralMatcher(byte[] pattern, boolean fold) {
+            this.fold = fold;
+            this.pattern = pattern.clone();
+            if (fold) for (int i = 0; i < pattern.length; i++) this.pattern[i] = FOLD[pattern[i] & 0xFF];
+            Arrays.fill(skip, pattern.length);
+            for (int i = 0; i < pattern.length - 1; i++) skip[this.pattern[i] & 0xFF] = pattern.length - 1 - i;
+        }
+
+        @Override
+        public boolean matches(byte[] data, int off, int len) {
+            int m = pattern.length;
+            if (m == 0) return true;
+            int last = off + len - m;
+            if (fold) {
+                for (int i = off; i <= last; i += skip[FOLD[data[i + m - 1] & 0xFF] & 0xFF]) {
+                    int j = m - 1;
+                    while (j >= 0 && FOLD[data[i + j] & 0xFF] == pattern[j]) j--;
+                    if (j < 0) return true;
+                }
+            } else {
+                for (int i = off; i <= last; i += skip[data[i + m - 1] & 0xFF]) {
+                    int j = m - 1;
+                    while (j >= 0 && data[i + j] == pattern[j]) j--;
+                    if (j < 0) return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public LineMatcher copy() {
+            return this;
+        }
+    }
+
+    /**
+     * Search of many strings in one pass of the line.
+     */
+    private static final class MultiMatcher implements LineMatcher {
+        private final AhoCorasick automaton;
+
+        MultiMatcher(AhoCorasick automaton) {
+            this.automaton = automaton;
+        }
+
+        @Override
+        public boolean matches(byte[] data, int off, int len) {
+            return automaton.matches(data, off, len);
+        }
+
+        @Override
+        public LineMatcher copy() {
+            return this;
+        }
+    }
+
+    /**
+     * Regular expression search. Lines are decoded into one reused buffer, ASCII lines are just widened.
+     */
+    private static final class RegexMatcher implements LineMatcher {
+        private final java.util.regex.Matcher matcher;
+        private final CharsetDecoder decoder = RecordBatch.CHARSET.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private char[] chars = new char[256];
+        private CharBuffer line = CharBuffer.wrap(chars);
+        /** Last array of lines and its view */
+        private byte[] source;
+        private ByteBuffer bytes;
+
+        RegexMatcher(Pattern pattern) {
+            this.matcher = pattern.matcher("");
+        }
+
+        @Override
+        public LineMatcher copy() {
+            return new RegexMatcher(matcher.pattern());
+        }
+
+        @Override
+        public boolean matches(byte[] data, int off, int len) {
+            if (chars.length < len) {                   // UTF-8 has at least one byte per char
+                chars = new char[Math.max(len, chars.length * 2)];
+                line = CharBuffer.wrap(chars);
+            }
+            int i = 0;
+            while (i < len && data[off + i] >= 0) {
+                chars[i] = (char) data[off + i];
+                i++;
+            }
+            line.clear();
+            if (i == len) {
+                line.limit(len);
+            } else {
+                if (data != source) {
+                    source = data;
+                    bytes = ByteBuffer.wrap(data);
+                }
+                bytes.limit(off + len);
+                bytes.position(off);
+                decoder.reset();
+                decoder.decode(bytes, line, true);
+                decoder.flush(line);
+                line.flip();
+            }
+            return matcher.reset(line).find();
+        }
+    }
+
+    /**
+     * Checks if bytes are ASCII.
+     *
+     * @param bytes bytes
+     * @return true/false
+     */
+    private static boolean isAscii(byte[] bytes) {
+        for (byte b : bytes) {
+            if (b < 0) return false;
+        }
+        return true;
+    }
 
     /**
      * Returns a manual page of a process.
@@ -115,12 +881,29 @@ public class Grep extends AbstractProcess {
     public static String getMan() {
         return "------------------ GREP PROCESS ------------------\n" +
                 "- gets lines from standard input and prints those which contain string\n\n" +
+                "Syntax: grep [-i] [-v] [-c] [-n] [-E] <str> [\"file\"]\n" +
+                "        grep [-i] [-v] [-c] [-n] [-E] -f \"patterns\" [\"file\"]\n" +
+                "        grep -r [-i] [-v] [-c] [-n] [-E] <str> [\"directory\"]\n" +
+                "        grep --indexed [-i] [-c] [-n] <str> [\"directory\"]\n" +
+                "- -i ignores case, -v prints lines which do not match, -c prints only the number of lines,\n" +
+                "  -n prints line numbers, -E takes <str> as a regular expression,\n" +
+                "  -f takes the lines of the patterns file as strings, a line matching any of them is printed,\n" +
+                "  -r searches all the files of the directory tree (the current directory by default),\n" +
+                "  files are scanned in parallel, lines are printed file by file with the file name,\n" +
+                "  --indexed is -r reading only the files which can match by the index (see index),\n" +
+                "  files changed since the index was built are read always\n\n" +
                 "Example: grep <str>\n" +
                 "- gets lines from pipe and prints those which contain string\n\n" +
-                "Example: cat \"file\" | grep <str>\n" +
-                "- prints lines containing <str> from content of the selected file (rel/abs path) to the standard output\n\n" +
+                "Example: grep <str> \"file\"\n" +
+                "- prints lines of the selected file (rel/abs path) which contain string\n\n" +
+                "Example: grep -f \"ids\" \"file\"\n" +
+                "- prints lines of the selected file containing any of the strings of the file ids, in one pass\n\n" +
+                "Example: grep -r -n <str> \"directory\"\n" +
+                "- prints name, number and text of the lines containing string in all the files under the directory\n\n" +
+                "Example: cat \"file\" | grep -E -i \"^a.*z$\"\n" +
+                "- prints lines of the selected file (rel/abs path) matching the expression, whatever the case\n\n" +
                 "Example: cat \"file\" | grep <str> > \"output_file\"\n" +
                 "- saves lines containing <str> from content of the selected file (rel/abs path) to the output file\n" +
                 "------------------ MANUAL END -------------------";
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,199 @@
+package process;
+
+import helpers.BBPipedInputStream;
+import helpers.EnoughLinesException;
+import helpers.FileLines;
+import helpers.LineOperator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Head process prints the first lines of its input or a file. After the lines it stops reading
+ * and closes its input, so the processes writing into it stop too.
+ *
+ * @author Radek Bouda
+ */
+public class Head extends AbstractProcess {
+    /** Default number of lines */
+    public static final int DEFAULT_LINES = 10;
+
+    /** Number of lines to print and the file or null */
+    private Options options = new Options();
+
+    /**
+     * Create new process
+     *
+     * @param pid process ID
+     * @param parentPid process id of parent
+     * @param input PipedInputStream
+     * @param commands list with commands
+     * @param shell parent shell
+     */
+    public Head(int pid, int parentPid, BBPipedInputStream input, List<List<String>> commands, Shell shell) throws IOException {
+        super(pid, parentPid, input, commands, shell);
+    }
+
+    /**
+     * Create new process with options.
+     *
+     * @param pid process ID
+     * @param parentPid process id of parent
+     * @param input PipedInputStream
+     * @param commands list with commands
+     * @param shell parent shell
+     * @param options -n and number of lines, file
+     */
+    public Head(int pid, int parentPid, BBPipedInputStream input, List<List<String>> commands, Shell shell, String[] options) throws IOException {
+        super(pid, parentPid, input, commands, shell);
+        if (options.length == 1 && options[0].equalsIgnoreCase(AbstractProcess.HELP_COMMAND)) helpOnly = true;
+        else this.options = parse(Arrays.asList(options), "head");
+    }
+
+    /**
+     * Own job.
+     */
+    @Override
+    protected void processRun() {
+        try {
+            First first = new First(options.lines, outputOperator());
+            try {
+                if(helpOnly) {
+                    output.write(getMan().getBytes());
+                } else if(options.file != null) {
+                    File file = Cat.existingFile(shell, options.file);
+                    if (file == null) shell.printError("head: " + options.file + ": No such a file or directory");
+                    else FileLines.push(file, first);
+                } else if(hasPipedInput()) {
+                    pipeRecords(first);
+                } else {
+                    String line;
+                    for(int i = 0; i < options.lines && (line = shell.getLine()) != null; i++) {
+                        byte[] bytes = line.getBytes();
+                        first.push(bytes, 0, bytes.length, true);
+                    }
+                    first.finish();
+                }
+            } catch (EnoughLinesException e) {
+                input.close();      // Writers of the input stop
+            }
+            output.close();
+        } catch (IOException e) {
+            return;                 // Killed process
+        }
+    }
+
+    /**
+     * Reads lines as records.
+     *
+     * @return true
+     */
+    @Override
+    protected boolean readsRecords() {
+        return true;
+    }
+
+    /**
+     * Parses options of head or tail.
+     * -n k     number of lines
+     * Other argument is a file read instead of the input.
+     *
+     * @param arguments options
+     * @param name name of the process
+     * @return options
+     * @throws IllegalArgumentException in case of wrong options
+     */
+    static Options parse(List<String> arguments, String name) {
+        Options options = new Options();
+        for (int i = 0; i < arguments.size(); i++) {
+            String argument = arguments.get(i);
+            if (argument.equals("-n") && i + 1 < arguments.size()) {
+                options.lines = Integer.parseInt(arguments.get(++i));
+                if (options.lines < 0) throw new IllegalArgumentException(name + ": negative number of lines");
+            } else if (argument.startsWith("-") || options.file != null) {
+                throw new IllegalArgumentException(name + ": unknown options");
+            } else {
+                options.file = argument;
+            }
+        }
+        return options;
+    }
+
+    /**
+     * Options of head or tail.
+     */
+    static final class Options {
+        /** Number of lines */
+        int lines = DEFAULT_LINES;
+        /** File or null to read the input */
+        String file;
+    }
+
+    /**
+     * Gets an operator of a fused pipeline.
+     *
+     * @param shell parent shell
+     * @param arguments command with arguments
+     * @param next next operator
+     * @return operator or null if the command cannot be fused
+     */
+    public static LineOperator fuse(Shell shell, List<String> arguments, LineOperator next) {
+        try {
+            Options options = parse(arguments.subList(1, arguments.size()), "head");
+            return options.file == null ? new First(options.lines, next) : null;    // Files are not a pipeline
+        } catch (IllegalArgumentException e) {
+            return null;                // Wrong options
+        }
+    }
+
+    /**
+     * Passes the first lines. After them it finishes the next operator and throws EnoughLinesException,
+     * so the rest of the input is not read at all.
+     */
+    private static final class First implements LineOperator {
+        private final LineOperator next;
+        private int remaining;
+        private boolean finished = false;
+
+        First(int lines, LineOperator next) {
+            this.remaining = lines;
+            this.next = next;
+        }
+
+        @Override
+        public void push(byte[] data, int off, int len, boolean terminated) throws IOException {
+            if (remaining > 0) {
+                remaining--;
+                next.push(data, off, len, terminated);
+            }
+            if (remaining == 0) {
+                finish();
+                throw new EnoughLinesException();
+            }
+        }
+
+        @Override
+        public void finish() throws IOException {
+            if (finished) return;
+            finished = true;
+            next.finish();
+        }
+    }
+
+    /**
+     * Returns a manual page of a process.
+     * @return Manual page
+     */
+    public static String getMan() {
+        return "------------------ HEAD PROCESS ------------------\n"+
+                "- prints the first lines of standard input or of a file\n"+
+                "- stops reading after the lines, processes writing into it stop too\n\n"+
+                "Syntax: head [-n <lines>] [\"file\"]\n"+
+                "- prints the first 10 or <lines> lines\n\n"+
+                "Example: cat \"file\" | sort | head -n 5\n"+
+                "- prints the first 5 sorted lines of the selected file (rel/abs path)\n"+
+                "------------------ MANUAL END ------------------";
+    }
+}
@@ -0,0 +1,136 @@
+package process;
+
+import helpers.BBPipedInputStream;
+import helpers.RecordBatch;
+import helpers.TrigramIndex;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Index process builds the trigram index of the files under the root, used by grep --indexed.
+ * Only files changed since the last run are read again.
+ *
+ * @author Radek Bouda
+ */
+public class Index extends AbstractProcess {
+    /** Looked up string or null to update the index */
+    private String query;
+
+    /**
+     * Create new process, updates the index.
+     *
+     * @param pid process ID
+     * @param parentPid process id of parent
+     * @param input PipedInputStream
+     * @param commands list with commands
+     * @param shell parent shell
+     */
+    public Index(int pid, int parentPid, BBPipedInputStream input, List<List<String>> commands, Shell shell) throws IOException {
+        super(pid, parentPid, input, commands, shell);
+    }
+
+    /**
+     * Create new process with options.
+     *
+     * @param pid process ID
+     * @param parentPid process id of parent
+     * @param input PipedInputStream
+     * @param commands list with commands
+     * @param shell parent shell
+     * @param options -q and the looked up string
+     */
+    public Index(int pid, int parentPid, BBPipedInputStream input, List<List<String>> commands, Shell shell, String[] options) throws IOException {
+        super(pid, parentPid, input, commands, shell);
+        if (options.length == 1 && options[0].equalsIgnoreCase(AbstractProcess.HELP_COMMAND)) helpOnly = true;
+        else if (options.length == 2 && options[0].equals("-q")) this.query = options[1];
+        else throw new IllegalArgumentException("index: unknown options");
+    }
+
+    /**
+     * Own job.
+     */
+    @Override
+    protected void processRun() {
+        try {
+            if (helpOnly) output.write(getMan().getBytes());
+            else if (query == null) updateVersion();
+            else queryVersion();
+            output.close();
+        } catch (IOException e) {
+            return;                 // Killed process
+        }
+    }
+
+    /**
+     * Updates the index and prints its statistics.
+     *
+     * @throws IOException
+     */
+    private void updateVersion() throws IOException {
+        TrigramIndex.Stats stats;
+        try {
+            stats = TrigramIndex.update(new File(shell.getPath("/")));
+        } catch (IOException e) {
+            shell.printError("index: cannot be written");
+            return;
+        }
+        writeRecord(stats.toString());
+    }
+
+    /**
+     * Prints the files which can contain the string and the time of the look up.
+     *
+     * @throws IOException
+     */
+    private void queryVersion() throws IOException {
+        long start = System.nanoTime();
+        TrigramIndex index = TrigramIndex.open(new File(shell.getPath("/")));
+        if (index == null) {
+            shell.printError("index: no index, run index first");
+            return;
+        }
+        Set<String> found = index.candidates(query.getBytes(RecordBatch.CHARSET));
+        long micros = (System.nanoTime() - start) / 1000;
+        if (found == null) {
+            writeRecord("index: " + query + " is shorter than three bytes, all " + index.getFileCount() + " files are candidates");
+            return;
+        }
+        List<String> names = new ArrayList<String>(found);
+        Collections.sort(names);
+        for (String name : names) writeRecord("/" + name);
+        writeRecord("index: " + names.size() + " of " + index.getFileCount() + " files, " + index.getTrigramCount()
+                + " trigrams, " + index.getSize() + " bytes, looked up in " + micros + " us");
+    }
+
+    /**
+     * Writes a line.
+     *
+     * @param line line without the newline
+     * @throws IOException if the output is closed
+     */
+    private void writeRecord(String line) throws IOException {
+        byte[] bytes = line.getBytes(RecordBatch.CHARSET);
+        writeRecord(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Returns a manual page of a process.
+     *
+     * @return Manual page
+     */
+    public static String getMan() {
+        return "------------------ INDEX PROCESS ------------------\n" +
+                "- builds the trigram index of all the files under the root, used by grep --indexed\n" +
+                "- only files changed since the last run (modification time or size) are read again\n\n" +
+                "Syntax: index\n" +
+                "- updates the index and prints the number of files, trigrams, its size and the build time\n\n" +
+                "Syntax: index -q <str>\n" +
+                "- prints the files which can contain string and the time of the look up\n" +
+                "------------------ MANUAL END -------------------";
+    }
+}
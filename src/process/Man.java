@@ -2,10 +2,10 @@ package process;
 
 import helpers.BBPipedInputStream;
 import kernel.Kernel;
+import kernel.ProcessRegistry;
 
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.List;
 
 /**
@@ -72,8 +72,6 @@ public class Man extends AbstractProcess{
                 output.close();
             } catch (NoSuchMethodException e) {
                 notFoundError();            // manual page for a process is not defined (process class doesn't contain public static String getMan() method)
-            } catch (IllegalAccessException e) {
-                notFoundError();            // Can't access -> unknown command
             } catch (InvocationTargetException e) {
                 return;                     // Invocation error -> method prints error itself
             }
@@ -98,12 +96,14 @@ public class Man extends AbstractProcess{
      * @throws ClassNotFoundException
      * @throws IOException
      * @throws InvocationTargetException
-     * @throws IllegalAccessException
      * @throws NoSuchMethodException
      */
-    private void classicProcessVersion() throws ClassNotFoundException, IOException, InvocationTargetException, IllegalAccessException, NoSuchMethodException {
-        Method man = Class.forName(Kernel.PACKAGE + "." + manPage.substring(0, 1).toUpperCase() + manPage.substring(1, manPage.length()).toLowerCase()).getDeclaredMethod("getMan");
-        output.write(man.invoke(null, null).toString().getBytes());
+    private void classicProcessVersion() throws ClassNotFoundException, IOException, InvocationTargetException, NoSuchMethodException {
+        ProcessRegistry.Entry entry = Kernel.getInstance().getRegistry().lookup(manPage);
+        if (entry == null) throw new ClassNotFoundException(manPage);
+        String man = entry.getMan();
+        if (man == null) throw new NoSuchMethodException("getMan");
+        output.write(man.getBytes());
         output.close();
     }
 
@@ -114,7 +114,7 @@ public class Man extends AbstractProcess{
      * @throws IOException
      */
     private boolean builtInVersion() throws IOException {
-        if(manPage.equals("cd") || manPage.equals("echo") || manPage.equals("exit") || manPage.equals("pwd") || manPage.equals("builtin") || manPage.equals("builtins")) {
+        if(manPage.equals("cd") || manPage.equals("echo") || manPage.equals("exit") || manPage.equals("pwd") || manPage.equals("pipe") || manPage.equals("nofuse") || manPage.equals("explain") || manPage.equals("builtin") || manPage.equals("builtins")) {
             output.write(builtinMan().getBytes());
             output.close();
             return true;
@@ -166,6 +166,9 @@ public class Man extends AbstractProcess{
                 "echo - write arguments to the standard output\n usage: echo <args>\n\n" +
                 "exit - close current shell\n usage: exit\n\n" +
                 "pwd - print working directory\n usage: pwd \n\n" +
+                "pipe - print or set the mode of pipes (ring, chunk, spill)\n usage: pipe [mode]\n\n" +
+                "nofuse - run a command line without fusion of its processes\n usage: nofuse <command line>\n\n" +
+                "explain - print the plan of a command line (rewrites, fusion) without running it\n usage: explain <command line>\n\n" +
                 "---------------- MANUAL END -------------------\n";
     }
 
@@ -177,7 +180,10 @@ public class Man extends AbstractProcess{
     private String listOfProcesses() {
         return "---------- LIST OF IMPLEMENTED COMMANDS---------\n" +
                 "cat - print files\n" +
+                "free - print usage of pipe buffers\n" +
+                "fused - run a pipeline on one thread (started by shell)\n" +
                 "grep - print lines containing a pattern\n" +
+                "head - print the first lines\n" +
                 "kill - terminate a process\n" +
                 "ls - list directory contents\n" +
                 "man - display manual pages\n" +
@@ -185,6 +191,7 @@ public class Man extends AbstractProcess{
                 "shell - recursive shell\n" +
                 "shutdown - close down the system\n" +
                 "sort - sort lines of text files\n" +
+                "uniq - omit repeated adjacent lines\n" +
                 "wc - count lines\n" +
                 "------------------ END OF LIST -------------------\n" +
                 "---------- LIST OF BUILTIN SHELL COMMANDS --------\n" +
@@ -192,6 +199,9 @@ public class Man extends AbstractProcess{
                 "echo - write arguments to the standard output\n" +
                 "exit - close current shell\n" +
                 "pwd - print working directory\n" +
+                "pipe - print or set the mode of pipes\n" +
+                "nofuse - run a command line without fusion\n" +
+                "explain - print the plan of a command line\n" +
                 "------------------ END OF LIST -------------------\n";
     }
 }
@@ -2,14 +2,13 @@ package process;
 
 import helpers.BBPipedInputStream;
 import kernel.Kernel;
+import kernel.ProcessTable;
 
 import java.io.IOException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
 /**
  * Ps process serves as observer of processes in OS.
@@ -37,11 +36,11 @@ public class Ps extends AbstractProcess {
     @Override
     protected void processRun() {
         try {
-            Set<Map.Entry<Integer, AbstractProcess>> processes = Kernel.getInstance().getProcesses();
+            ProcessTable.Snapshot processes = Kernel.getInstance().getProcesses();   // Does not block starting processes
             output.write(getHeaders().getBytes());
-            for (Map.Entry<Integer, AbstractProcess> process : processes) {
-                if(getPid() == process.getKey()) continue;                      // Doesn't print itself.
-                output.write(getRecord(process.getValue()).getBytes());
+            for (AbstractProcess process : processes.getProcesses()) {
+                if(getPid() == process.getPid()) continue;                      // Doesn't print itself.
+                output.write(getRecord(process).getBytes());
             }
             output.close();
         } catch (IOException e) {
@@ -4,14 +4,23 @@ import console.Console;
 import console.ConsoleWindow;
 import helpers.BBPipedInputStream;
 import helpers.BBPipedOutputStream;
+import helpers.LineReader;
+import helpers.Optimizer;
 import helpers.Parser;
+import helpers.PipeMode;
+import helpers.RecordBatch;
+import helpers.RecordReader;
 import kernel.Kernel;
+import kernel.ProcessRegistry;
 import kernel.Run;
 
-import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.List;
@@ -27,8 +36,10 @@ public class Shell extends AbstractProcess {
 	private ConsoleWindow consoleWindow;
 	/** Console */
 	private Console console;
-	/** Console input pipe */
-	private BBPipedInputStream consoleInput;
+	/** Parent shell, errors of a shell process are printed on its console */
+	private Shell parent;
+	/** Lines of the console input pipe */
+	private LineReader consoleInput;
 	/** Current path */
 	private String path;
 	/** Root path */
@@ -39,11 +50,19 @@ public class Shell extends AbstractProcess {
 	private boolean process;
 	/** PID of current running process */
 	private int runningProcess;
+	/** Mode of pipes created by this shell */
+	private PipeMode pipeMode;
+	/** Operators of the fused pipeline of the current command, handed to the fused process */
+	private Fused.Pipeline pipeline;
 
 	/** Virtual filesystem directory name */
 	private static final String FILESYSTEM_DIR_NAME = "filesystem";
 	/** Virtual filesystem location */
 	private static final String PATH_PREFIX = FILESYSTEM_DIR_NAME + File.separatorChar;
+	/** Prefix of a command line which is only described */
+	private static final String EXPLAIN = "explain";
+	/** Size of blocks of copied output */
+	private static final int COPY_BLOCK_SIZE = 16384;
 
 	/**
 	 * Create new shell with own window.
@@ -56,10 +75,12 @@ public class Shell extends AbstractProcess {
 	 */
 	public Shell (int pid, int parentPid, BBPipedInputStream input, List<List<String>> commands, Shell shell) throws IOException {
 		super(pid, parentPid, input, commands, shell);
+		this.parent = shell;
 		this.shell = this;                                        // Shell to be forwarded
 		this.running = true;
 		this.root = new File(PATH_PREFIX).getCanonicalPath();
 		this.path = this.root;
+		this.pipeMode = shell != null ? shell.getPipeMode() : PipeMode.RING;	// Inherited from parent shell
 		if (commands.size() > 0) processInit();                    // Normal process
 		else consoleInit();										// Console
 	}
@@ -68,7 +89,7 @@ public class Shell extends AbstractProcess {
 	 * Initialization for basic process. Blocking parent shell.
 	 */
 	private void processInit() {
-		this.consoleInput = (BBPipedInputStream) this.input;			// Read commands from previous process
+		this.consoleInput = readLines();								// Read commands from previous process
 		this.process = true;										// Set process flag
 	}
 
@@ -91,16 +112,10 @@ public class Shell extends AbstractProcess {
 	@Override
 	protected void processRun() {
 		try {
-			int c;
 			while(running) {										// Loop until running
-				StringBuilder builder = new StringBuilder();
-				c = consoleInput.read();
-				while (c != -1 && c != '\n') {						// End of pipe or end of line
-					builder.append((char) c);
-					c = consoleInput.read();
-				}
-				executeCommand(builder.toString());					// Executes parsed commands
-				if(c == -1) {										// In case of process
+				String line = consoleInput.readLine();				// Null at the end of pipe
+				executeCommand(line == null ? "" : line);			// Executes parsed commands
+				if(line == null || !consoleInput.isTerminated()) {	// In case of process
 					output.close();									// Stop blocking parent shell
 					return;
 				}
@@ -119,15 +134,55 @@ public class Shell extends AbstractProcess {
 		if(!process) console.setInCommand(true);							// Console inside command
 		Parser parser = new Parser(line);   								// Parses the line
 		commands = parser.getAllCommands();
-		this.input = new BBPipedInputStream(PIPE_BUFFER_SIZE);
-		redirectInput(parser.getInputFile());
-		runningProcess = callSubProcess();
-		if(!running) return; 												// Self killing check
-		printOutput(parser.getOutputFile());
+		boolean explain = prefix(EXPLAIN);
+		boolean fuse = !prefix(Fused.NOFUSE);
+		this.input = createPipe();
+		((BBPipedInputStream) input).setInteractive(!process && parser.getOutputFile() == null);	// Lines shown as they come
+		FileOutputStream file = openOutput(parser.getOutputFile());
+		if (file != null) ((BBPipedInputStream) input).setFileSink(file.getChannel());
+		Optimizer optimizer = new Optimizer();
+		List<List<String>> plan = optimizer.optimize(withInput(parser.getInputFile()));
+		Fused.Pipeline fused = fuse ? Fused.prepare(this, plan) : null;		// Stages are created only once
+		String redirect = null;												// Input file read by the first process
+		if (parser.getInputFile() != null && fused == null && !readsInput(plan, parser.getInputFile())) {
+			Optimizer direct = new Optimizer();
+			List<List<String>> plain = direct.optimize(commands);
+			if (readsPipe(plain)) {											// Otherwise the cat stays in front
+				redirect = parser.getInputFile();
+				optimizer = direct;
+				plan = plain;
+				fused = fuse ? Fused.prepare(this, plan) : null;
+			}
+		}
+		commands = plan;
+		if (explain) {
+			printIntoInputPipe(explain(optimizer, fused != null, redirect), (BBPipedInputStream) input);
+			runningProcess = -1;
+		} else {
+			setRedirect(openInput(redirect));								// First process reads the file
+			if (fused != null) fuse(fused);
+			runningProcess = callSubProcess();
+			pipeline = null;
+		}
+		if(!running) {														// Self killing check
+			closeOutput(file);
+			return;
+		}
+		printOutput(parser.getOutputFile(), file);
 		if(!running) return; 												// Self killing check
 		if(!process) console.setInCommand(false);							// Console outside command
 	}
 
+	/**
+	 * Reads output of commands as line records.
+	 *
+	 * @return true
+	 */
+	@Override
+	protected boolean readsRecords() {
+		return true;
+	}
+
 	/**
 	 * Checks builtin commands. In case of builtin command no further execution is proceeded.
 	 *
@@ -153,52 +208,74 @@ public class Shell extends AbstractProcess {
 			echo(command, input);
 			return true;
 		}
+		if(first.equals("pipe")) {
+			pipe(command, input);
+			return true;
+		}
 		return false;
 	}
 
 	/**
 	 * Print results into pipe.
-	 * Separate thread because of the builtin command is called from the same thread as the following command.
+	 * Written by the current thread, the output is read after the builtin command is finished. The pipe holds
+	 * megabytes, results of builtin commands are short.
 	 *
 	 * @param text result
 	 * @param input input pipe
 	 */
-	private void printIntoInputPipe(final String text, final BBPipedInputStream input) {
-		Thread t = new Thread(new Runnable() {
-			@Override
-			public void run() {
-				try {
-					BBPipedOutputStream output = new BBPipedOutputStream(input);
-					output.write(text.getBytes());
-					output.close();
-				} catch (IOException e) {
-					return;					// Killed process
-				}
-			}
-		});
-		t.start();
+	private void printIntoInputPipe(String text, BBPipedInputStream input) {
+		try {
+			BBPipedOutputStream output = new BBPipedOutputStream(input);
+			output.write(text.getBytes());
+			output.close();
+		} catch (IOException e) {
+			return;					// Killed process
+		}
+	}
+
+	/**
+	 * Opens the file of the output redirect before the commands start, so they can write straight into it.
+	 *
+	 * @param output file or null
+	 * @return opened file or null if there is no redirect or the file cannot be opened yet
+	 */
+	private FileOutputStream openOutput(String output) {
+		if (output == null) return null;
 		try {
-			t.join();
-		} catch (InterruptedException e) {
-			return;				// Thread interrupted -> just finish
+			return new FileOutputStream(new File(getPath(output)));
+		} catch (IOException e) {
+			return null;							// Reported when the output is printed
+		}
+	}
+
+	/**
+	 * Closes the file of the output redirect which is not printed.
+	 *
+	 * @param file opened file or null
+	 */
+	private void closeOutput(OutputStream file) {
+		try {
+			if (file != null) file.close();
+		} catch (IOException e) {
+			return;									// Closed before
 		}
 	}
 
-	// TODO: UTF-8!
 	/**
 	 * Redirects output.
 	 *
 	 * @param output file
+	 * @param file opened file or null
 	 */
-	private void printOutput(String output) {
+	private void printOutput(String output, OutputStream file) {
 		try {
-			if (output != null) fileOutput(output);
+			if (output != null) fileOutput(output, file);
 			else {
 				if (!process) consoleOutput();
 				else pipeOutput();
 			}
 		} catch (IOException e) {
-			console.printResults("");				// Killed process
+			if (!process) console.printResults("");	// Killed process
 		}
 	}
 
@@ -206,14 +283,17 @@ public class Shell extends AbstractProcess {
 	 * Print output into a file.
 	 *
 	 * @param output file
+	 * @param file opened file or null
 	 * @throws IOException
 	 */
-	private void fileOutput(String output) throws IOException {
-		BufferedWriter bfw = new BufferedWriter(new FileWriter(new File(getPath(output))));
-		String txt = getStringFromInput();
+	private void fileOutput(String output, OutputStream file) throws IOException {
+		if (file == null) file = new FileOutputStream(new File(getPath(output)));
+		try {
+			copyInput(file);										// Bytes as they are, no decoding
+		} finally {
+			file.close();
+		}
 		if(!running) return;										// Self killing check
-		bfw.write(txt);
-		bfw.close();
 		if (!process) console.printResults("");						// Print new line in console.
 	}
 
@@ -223,19 +303,16 @@ public class Shell extends AbstractProcess {
 	 * @throws IOException
 	 */
 	private void consoleOutput() throws IOException {
-		while(running) {
-			int c = input.read();
-			StringBuilder builder = new StringBuilder();
-			while (c != -1 && c != '\n') {
-				builder.append((char) c);
-				c = input.read();
-			}
-			if (c == '\n') console.printNewLine(builder.toString() + "\n");
-			if (c == -1) {
-				console.printResults(builder.toString());
-				break;
+		RecordReader reader = readRecords();
+		RecordBatch batch;
+		String last = "";
+		while(running && (batch = reader.next()) != null) {			// Lines come framed
+			for (int i = 0; i < batch.size(); i++) {
+				if (batch.isTerminated(i)) console.printNewLine(batch.getString(i) + "\n");
+				else last = batch.getString(i);						// Only the end of the output
 			}
 		}
+		if (running) console.printResults(last);
 	}
 
 	/**
@@ -244,24 +321,153 @@ public class Shell extends AbstractProcess {
 	 * @throws IOException
 	 */
 	private void pipeOutput() throws IOException {
-		String txt = getStringFromInput() + "\n";
+		copyInput(this.output);										// Output to parent shell.
 		if(!running) return;										// Self killing check
-		this.output.write(txt.getBytes());			// Output to parent shell.
+		this.output.write('\n');
+		this.output.flush();										// Parent sees every command
 	}
 
 	/**
-	 * Redirects input using Cat process.
+	 * Copies the output of the command in blocks.
 	 *
-	 * @param input input file
+	 * @param target target stream
+	 * @throws IOException if the target is closed
 	 */
-	private void redirectInput(String input) {
-		if(input == null) return;						// No redirect needed
-		int last = commands.size() - 1;					// Last command
-		commands = commands.subList(last, last + 1);	// Redirect is possible only on the last command. Previous commands are discarded.
-		List<String> cat = new ArrayList<String>();		// Create cat process
+	private void copyInput(OutputStream target) throws IOException {
+		byte[] block = new byte[COPY_BLOCK_SIZE];
+		int amount;
+		while(running && (amount = readInput(block)) >= 0) target.write(block, 0, amount);
+	}
+
+	/**
+	 * Reads a block of the output of the command. A pipe nobody writes into (cd, an unknown or empty command)
+	 * or a closed one is an empty output.
+	 *
+	 * @param block block
+	 * @return number of bytes or -1 at the end
+	 */
+	private int readInput(byte[] block) {
+		try {
+			return input.read(block, 0, block.length);
+		} catch (IOException e) {
+			return -1;								// Not connected or killed
+		}
+	}
+
+	/**
+	 * Gets the pipeline with a cat of the input file in front of it. The optimizer can merge the cat into
+	 * the first command (f.e. grep x f, tail -n k f) or the pipeline can be fused with the file as its source.
+	 *
+	 * @param input input file or null
+	 * @return pipeline
+	 */
+	private List<List<String>> withInput(String input) {
+		if(input == null) return commands;
+		List<List<String>> pipeline = new ArrayList<List<String>>(commands);
+		List<String> cat = new ArrayList<String>();
 		cat.add("cat");
 		cat.add(input);
-		commands.add(0, cat);							// Adds to first position in commands
+		pipeline.add(0, cat);
+		return pipeline;
+	}
+
+	/**
+	 * Checks if an optimized pipeline reads the input file by itself, so the cat in front of it costs no process.
+	 * A fused pipeline reads it as well.
+	 *
+	 * @param plan optimized pipeline with the cat of the input file
+	 * @param input input file
+	 * @return true if the cat was merged
+	 */
+	private boolean readsInput(List<List<String>> plan, String input) {
+		List<String> first = plan.get(0);
+		return !(first.size() == 2 && first.get(0).equals("cat") && first.get(1).equals(input));
+	}
+
+	/**
+	 * Checks if the first process of a pipeline reads its piped input, so it can read the input file
+	 * in place of the pipe. Line stages do (cat, grep, sort, wc...), other processes (f.e. shell) get
+	 * the file from a cat.
+	 *
+	 * @param plan optimized pipeline without the input file
+	 * @return true/false
+	 */
+	private boolean readsPipe(List<List<String>> plan) {
+		return !plan.isEmpty() && Fused.isStage(plan.get(0));
+	}
+
+	/**
+	 * Opens the file of the input redirect. The first process of the command reads it instead of stdin,
+	 * so no cat process copies it. A missing file is an empty input.
+	 *
+	 * @param input input file or null
+	 * @return opened file or null if there is no redirect
+	 */
+	private InputStream openInput(String input) {
+		if(input == null) return null;					// No redirect needed
+		String file = getPath(input);
+		try {
+			return new FileInputStream(new File(file == null ? "" : file));
+		} catch (IOException e) {
+			printError("-BBShell: " + input + ": No such a file or directory");
+			return new ByteArrayInputStream(new byte[0]);
+		}
+	}
+
+	/**
+	 * Checks and removes a prefix of the command line (explain, nofuse).
+	 *
+	 * @param name prefix
+	 * @return true if the command line starts by the prefix
+	 */
+	private boolean prefix(String name) {
+		if (commands.isEmpty() || !commands.get(0).get(0).equalsIgnoreCase(name)) return false;
+		commands.get(0).remove(0);
+		if (commands.get(0).isEmpty()) commands.remove(0);
+		return true;
+	}
+
+	/**
+	 * Describes the plan of the command line instead of running it.
+	 *
+	 * @param optimizer optimizer of the command line
+	 * @param fuse whether the pipeline is fused
+	 * @param input file read by the first process or null
+	 * @return plan
+	 */
+	private String explain(Optimizer optimizer, boolean fuse, String input) {
+		StringBuilder plan = new StringBuilder();
+		plan.append("plan: ").append(Optimizer.toString(commands, " | "));
+		if (input != null) plan.append(" < ").append(input);
+		plan.append('\n');
+		for (String rule : optimizer.getApplied()) plan.append("rewrite: ").append(rule).append('\n');
+		if (optimizer.getApplied().isEmpty()) plan.append("rewrite: none\n");
+		if (fuse) plan.append("run: fused, 1 thread");
+		else plan.append("run: ").append(commands.size()).append(commands.size() == 1 ? " process" : " processes");
+		return plan.toString();
+	}
+
+	/**
+	 * Runs the pipeline in one fused process. The pipeline becomes its commands.
+	 *
+	 * @param fused operators of the pipeline
+	 */
+	private void fuse(Fused.Pipeline fused) {
+		List<String> name = new ArrayList<String>();
+		name.add(Fused.NAME);
+		commands = new ArrayList<List<String>>(commands);
+		commands.add(name);
+		pipeline = fused;
+	}
+
+	/**
+	 * Hands the prepared operators to the fused process.
+	 *
+	 * @param child created process
+	 */
+	@Override
+	protected void prepare(AbstractProcess child) {
+		if (child instanceof Fused) ((Fused) child).setPipeline(pipeline);
 	}
 
 	/**
@@ -271,7 +477,7 @@ public class Shell extends AbstractProcess {
 	 */
 	public void setConsoleInput(BBPipedOutputStream output) {
 		try {
-			consoleInput = new BBPipedInputStream(output);
+			consoleInput = new LineReader(new BBPipedInputStream(output));
 		} catch (IOException e) {
 			return;					// Killed process
 		}
@@ -283,19 +489,11 @@ public class Shell extends AbstractProcess {
 	 * @return line
 	 */
 	public String getLine() {
-		int c;
-		StringBuilder builder = new StringBuilder();
 		try {
-			c = consoleInput.read();
-			while (c != -1 && c != '\n' && c != Console.CONTROL_D_BYTE) {		// 0 - represents Control - D signal
-				builder.append((char) c);
-				c = consoleInput.read();
-			}
-			if(c == Console.CONTROL_D_BYTE) return null;							// Finishes stdin
+			return consoleInput.readLine(Console.CONTROL_D_BYTE);		// Control - D finishes stdin
 		} catch (IOException e) {
 			return null;									// Child is killed
 		}
-		return builder.toString();							// Loaded string
 	}
 
 	/**
@@ -349,10 +547,10 @@ public class Shell extends AbstractProcess {
 			if(path == null) return;							// Trying to go out of filesystem
 			File folder = new File(path);
 			if(!folder.exists()) {
-				console.printNewLine("No such a file or directory!");
+				printError("No such a file or directory!");
 			} else {
 				if(!folder.isDirectory()) {
-					console.printNewLine("Not a directory!");
+					printError("Not a directory!");
 				} else {
 					setPath(folder.getCanonicalPath());
 				}
@@ -367,7 +565,7 @@ public class Shell extends AbstractProcess {
 	 */
 	public void kill() {
 		running = false;
-		consoleWindow.closeConsole();
+		if (!process) consoleWindow.closeConsole();
 		this.interrupt();
 	}
 
@@ -393,6 +591,33 @@ public class Shell extends AbstractProcess {
 		printIntoInputPipe(text.substring(0, text.length() - 1), input);					// Kills last space
 	}
 
+	/**
+	 * Prints or sets the mode of pipes created by this shell.
+	 *
+	 * @param arguments arguments
+	 * @param input piped input
+	 */
+	private void pipe(List<String> arguments, BBPipedInputStream input) {
+		if(arguments.size() > 1) {
+			PipeMode mode = PipeMode.fromName(arguments.get(1));
+			if(mode == null) {
+				printIntoInputPipe("pipe: " + arguments.get(1) + ": Unknown mode!", input);
+				return;
+			}
+			pipeMode = mode;
+		}
+		printIntoInputPipe(pipeMode.name().toLowerCase(), input);
+	}
+
+	/**
+	 * Gets the mode of pipes created by this shell.
+	 *
+	 * @return pipe mode
+	 */
+	public PipeMode getPipeMode() {
+		return pipeMode;
+	}
+
 	/**
 	 * Exit current shell. If the main shell, call shutdown.
 	 */
@@ -435,16 +660,13 @@ public class Shell extends AbstractProcess {
 	 * @param process name
 	 */
 	public void printHelp(String process) {
+		ProcessRegistry.Entry entry = Kernel.getInstance().getRegistry().lookup(process);
+		if(entry == null) return;					// Getting for known class.
 		try {
-			printError((String) Class.forName(Kernel.PACKAGE + "." + process.substring(0, 1).toUpperCase() + process.substring(1).toLowerCase()).getMethod("getMan").invoke(null, null));
-		} catch (IllegalAccessException e) {
-			printError("Bad usage! No manual entry for " + process + ".");
+			String man = entry.getMan();
+			printError(man != null ? man : "Bad usage! No manual entry for " + process + ".");
 		} catch (InvocationTargetException e) {
 			printError("Bad usage! No manual entry for " + process + ".");
-		} catch (NoSuchMethodException e) {
-			printError("Bad usage! No manual entry for " + process + ".");
-		} catch (ClassNotFoundException e) {
-			return;					// Getting for known class.
 		}
 	}
 
@@ -454,7 +676,8 @@ public class Shell extends AbstractProcess {
 	 * @param error message
 	 */
 	public void printError(String error) {
-		console.printNewLine(error);
+		if (!process) console.printNewLine(error);
+		else if (parent != null) parent.printError(error);		// Shell process has no console
 	}
 
 	/**
@@ -1,18 +1,45 @@
 package process;
 
 import helpers.BBPipedInputStream;
+import helpers.FileLines;
+import helpers.LineOperator;
+import helpers.LineOrder;
+import helpers.PackedLines;
+import helpers.SortedRuns;
+import kernel.Kernel;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
 
 /**
  * This class represents the Sort process.
  * Process is used to sort data from STDIN.
+ * Lines are ordered by keys (fields, numbers, locale collation) or by bytes, sorted in parallel.
+ * Lines over the memory budget are sorted in runs spilled into the filesystem folder and merged at the end.
  * @author Radek Bouda
  */
 public class Sort extends AbstractProcess {
+    /** System property with the memory budget of a sort in bytes, f.e. 64M */
+    public static final String MEMORY_PROPERTY = "bbshell.sort.memory";
+    /** Default memory budget, at most an eighth of the heap */
+    private static final long DEFAULT_MEMORY = Math.min(64L << 20, Runtime.getRuntime().maxMemory() / 8);
+    /** Estimated memory of a line copied into an array for keyed sorting - array header, reference */
+    private static final int LINE_OVERHEAD = 32;
+    /** Estimated memory of a distinct line of the heap - buffer wrapping it, hash set entry */
+    private static final int DISTINCT_OVERHEAD = 80;
+
+    /** Parsed options */
+    private Sorter options = sorter(Collections.<String>emptyList(), null);
 
     /**
      * Creates new process
@@ -26,12 +53,39 @@ public class Sort extends AbstractProcess {
         super(pid, parentPid, input, commands, shell);
     }
 
+    /**
+     * Creates new process with options.
+     * @param pid process ID
+     * @param parentPid process id of parent
+     * @param input PipedInputStream
+     * @param commands list with commands
+     * @param shell parent shell
+     * @param options options of the sort
+     */
+    public Sort(int pid, int parentPid, BBPipedInputStream input, List<List<String>> commands, Shell shell, String[] options) throws IOException {
+        super(pid, parentPid, input, commands, shell);
+        if (Arrays.asList(options).contains(AbstractProcess.HELP_COMMAND)) {
+            helpOnly = true;
+            return;
+        }
+        this.options = sorter(Arrays.asList(options), null);      // Throws on unknown options
+    }
+
     /**
      * Own job of the process.
      */
     @Override
     protected void processRun() {
-        if(hasPipedInput()) {
+        if(helpOnly) {
+            try {
+                output.write(getMan().getBytes());
+                output.close();
+            } catch (IOException e) {
+                return;         // Killed process
+            }
+        } else if(!options.files.isEmpty()) {
+            fileInput();
+        } else if(hasPipedInput()) {
             pipedInput();
         } else {
             stdInput();
@@ -39,21 +93,60 @@ public class Sort extends AbstractProcess {
     }
 
     /**
-     * Piped input version. Reads from pipe.
+     * Reads lines as records.
+     *
+     * @return true
+     */
+    @Override
+    protected boolean readsRecords() {
+        return true;
+    }
+
+    /**
+     * Piped input version. Reads from pipe, lines come framed and are sorted as bytes.
      */
     private void pipedInput() {
+        Sorter sorter = options.copy(outputOperator());
         try {
-            String text = getStringFromInput();
-            if(text == null || text.equals("")){
-                output.write("\n".getBytes());
-            }
-            else {
-                String[] lines = text.split("\n");
-                Arrays.sort(lines);
-                for(String line : lines){
-                    output.write(line.getBytes());
-                    output.write("\n".getBytes());
+            pipeRecords(sorter);
+            output.close();
+        } catch (IOException e) {
+            return;             // Killed process
+        } finally {
+            sorter.discard();
+        }
+    }
+
+    /**
+     * File version. Files are sorted together, with -m sorted files are only merged.
+     */
+    private void fileInput() {
+        Sorter sorter = options.copy(outputOperator());
+        List<InputStream> inputs = new ArrayList<InputStream>();
+        try {
+            try {
+                List<File> files = new ArrayList<File>();
+                for (String name : options.files) {
+                    File file = Cat.existingFile(shell, name);
+                    if (file == null) {
+                        shell.printError("sort: " + name + ": No such a file or directory");
+                        output.close();
+                        return;
+                    }
+                    files.add(file);
+                }
+                if (options.merge) {
+                    for (File file : files) inputs.add(new FileInputStream(file));
+                    SortedRuns.merge(inputs, options.unique ? options.order.keysOnly() : options.order, options.unique ? options.order.keysOnly() : null, sorter.next);
+                    sorter.next.finish();
+                } else {
+                    LineOperator lines = sorter.lines();
+                    for (File file : files) FileLines.push(file, lines);
+                    sorter.finish();
                 }
+            } finally {
+                for (InputStream input : inputs) input.close();
+                sorter.discard();
             }
             output.close();
         } catch (IOException e) {
@@ -61,6 +154,359 @@ public class Sort extends AbstractProcess {
         }
     }
 
+    /**
+     * Gets an operator of a fused pipeline.
+     *
+     * @param shell parent shell
+     * @param arguments command with arguments
+     * @param next next operator
+     * @return operator or null if the command cannot be fused
+     */
+    public static LineOperator fuse(Shell shell, List<String> arguments, LineOperator next) {
+        try {
+            Sorter sorter = sorter(arguments.subList(1, arguments.size()), next);
+            return sorter.files.isEmpty() ? sorter : null;  // Files are not a pipeline
+        } catch (IllegalArgumentException e) {
+            return null;                                // Unknown options
+        }
+    }
+
+    /**
+     * Creates a sorter from options.
+     * -u           only distinct lines
+     * --top k      only the first k lines
+     * -S size      memory budget, bytes or with K, M, G
+     * -m           files are sorted already, they are only merged
+     * -k F[.C][,F[.C]][nrb]  key from the field F to the field F, fields count from 1, more keys are compared in turn
+     * -t c         separator of the fields, blanks by default
+     * -n           numeric order of the keys without own flags
+     * -r           reverse order of the keys without own flags and of the whole lines
+     * --locale tag keys are compared by the collation of the locale, f.e. cs-CZ
+     * --radix     radix sort by the first 8 bytes of the first key, numeric first keys are radix sorted always
+     * Single letter flags can be joined (-nr). Other arguments are files sorted instead of the input.
+     *
+     * @param options options
+     * @param next next operator
+     * @return sorter
+     * @throws IllegalArgumentException in case of unknown options
+     */
+    private static Sorter sorter(List<String> options, LineOperator next) {
+        boolean unique = false;
+        boolean merge = false;
+        boolean numeric = false;
+        boolean reverse = false;
+        int separator = LineOrder.BLANKS;
+        Locale locale = null;
+        boolean radix = false;
+        List<LineOrder.Key> keys = new ArrayList<LineOrder.Key>();
+        int top = -1;
+        long memory = defaultMemory();
+        List<String> files = new ArrayList<String>();
+        for (int i = 0; i < options.size(); i++) {
+            String option = options.get(i);
+            if (option.equals("--top") && i + 1 < options.size()) {
+                top = Integer.parseInt(options.get(++i));
+                if (top < 0) throw new IllegalArgumentException("sort: negative top");
+            } else if (option.equals("-S") && i + 1 < options.size()) {
+                memory = parseSize(options.get(++i));
+            } else if (option.equals("--locale") && i + 1 < options.size()) {
+                locale = Locale.forLanguageTag(options.get(++i));
+            } else if (option.equals("--radix")) {
+                radix = true;
+            } else if (option.startsWith("-k") || option.startsWith("-t")) {
+                String value = option.length() > 2 ? option.substring(2) : i + 1 < options.size() ? options.get(++i) : "";
+                if (option.startsWith("-k")) keys.add(LineOrder.Key.parse(value));
+                else separator = parseSeparator(value);
+            } else if (option.length() > 1 && option.matches("-[umnr]+")) {
+                unique |= option.indexOf('u') > 0;
+                merge |= option.indexOf('m') > 0;
+                numeric |= option.indexOf('n') > 0;
+                reverse |= option.indexOf('r') > 0;
+            } else if (option.startsWith("-")) {
+                throw new IllegalArgumentException("sort: unknown option " + option);
+            } else {
+                files.add(option);
+            }
+        }
+        LineOrder order = new LineOrder(separator, keys, numeric, reverse, locale, radix);
+        Sorter sorter = new Sorter(unique, top, memory, new File(Kernel.FILESYSTEM_FOLDER), order, next);
+        sorter.merge = merge;
+        sorter.files = files;
+        return sorter;
+    }
+
+    /**
+     * Parses a separator of fields.
+     *
+     * @param separator one ASCII character, \t for a tab
+     * @return separator
+     * @throws IllegalArgumentException in case of a wrong separator
+     */
+    private static int parseSeparator(String separator) {
+        if (separator.equals("\\t")) return '\t';
+        if (separator.length() != 1 || separator.charAt(0) > 127) throw new IllegalArgumentException("sort: wrong separator " + separator);
+        return separator.charAt(0);
+    }
+
+    /**
+     * Gets the memory budget of the system property or the default one.
+     *
+     * @return bytes
+     */
+    private static long defaultMemory() {
+        String memory = System.getProperty(MEMORY_PROPERTY);
+        try {
+            return memory == null ? DEFAULT_MEMORY : parseSize(memory);
+        } catch (IllegalArgumentException e) {
+            return DEFAULT_MEMORY;
+        }
+    }
+
+    /**
+     * Parses a size.
+     *
+     * @param size number of bytes, optionally with K, M or G
+     * @return bytes
+     * @throws IllegalArgumentException in case of a wrong size
+     */
+    private static long parseSize(String size) {
+        int shift = 0;
+        char unit = size.isEmpty() ? ' ' : Character.toUpperCase(size.charAt(size.length() - 1));
+        if (unit == 'K') shift = 10;
+        else if (unit == 'M') shift = 20;
+        else if (unit == 'G') shift = 30;
+        long bytes = Long.parseLong(shift == 0 ? size : size.substring(0, size.length() - 1)) << shift;
+        if (bytes <= 0) throw new IllegalArgumentException("sort: wrong size " + size);
+        return bytes;
+    }
+
+    /**
+     * Keeps copies of the lines and passes them sorted at the end. Empty input gives one empty line.
+     * Lines are packed in slabs and only their index is sorted by bytes, keyed orders copy them into arrays for sorting.
+     * Distinct lines are found by hashing before sorting, the first k lines are kept in a bounded heap.
+     * Lines with equal keys are distinct by their keys, those are dropped after sorting.
+     * When the kept lines exceed the memory budget, they are sorted and spilled as a run, runs are merged at the end.
+     */
+    private static final class Sorter implements LineOperator {
+        private final boolean unique;
+        private final int top;
+        /** Memory budget of the kept lines */
+        private final long memory;
+        /** Directory of the spilled runs */
+        private final File directory;
+        /** Order of the lines */
+        private final LineOrder order;
+        private final LineOperator next;
+        /** All the lines, or the first ones in a heap with the greatest on the top until they exceed the memory budget */
+        private PackedLines lines;
+        private PriorityQueue<byte[]> heap;
+        /** Distinct lines are hashed */
+        private final boolean hashed;
+        /** Lines of the heap, in case of distinct lines */
+        private HashSet<ByteBuffer> seen;
+        /** Estimated memory of the kept lines */
+        private long kept = 0;
+        /** Spilled runs or null */
+        private SortedRuns runs;
+        private boolean empty = true;
+        /** Files to sort and whether they are only merged */
+        private List<String> files = new ArrayList<String>();
+        private boolean merge = false;
+
+        Sorter(boolean unique, int top, long memory, File directory, LineOrder order, LineOperator next) {
+            this.unique = unique;
+            this.top = top;
+            this.memory = memory;
+            this.directory = directory;
+            this.order = order;
+            this.next = next;
+            this.hashed = unique && order.isPlain();            // Equal keys are equal bytes
+            boolean bounded = top > 0 && (hashed || !unique);
+            this.lines = top < 0 || !bounded ? new PackedLines() : null;
+            this.heap = bounded ? new PriorityQueue<byte[]>(top, Collections.reverseOrder(order)) : null;
+            this.seen = hashed && bounded ? new HashSet<ByteBuffer>() : null;
+        }
+
+        /**
+         * Creates a new sorter with the same options.
+         *
+         * @param next next operator
+         * @return sorter
+         */
+        Sorter copy(LineOperator next) {
+            Sorter sorter = new Sorter(unique, top, memory, directory, order, next);
+            sorter.files = files;
+            sorter.merge = merge;
+            return sorter;
+        }
+
+        @Override
+        public void push(byte[] data, int off, int len, boolean terminated) throws IOException {
+            empty = false;
+            if (top == 0) return;
+            if (lines != null) {
+                if (hashed) {
+                    if (!lines.addDistinct(data, off, len)) return;
+                } else {
+                    lines.add(data, off, len);
+                }
+                kept += lineMemory(len);
+                if (kept > memory) spill();
+                return;
+            }
+            if (seen != null && seen.contains(ByteBuffer.wrap(data, off, len))) return;
+            if (heap.size() == top) {
+                if (order.compare(data, off, len, heap.peek()) >= 0) return;     // Not among the first ones
+                byte[] dropped = heap.poll();
+                if (seen != null) seen.remove(ByteBuffer.wrap(dropped));
+                kept -= heapMemory(dropped.length);
+            }
+            byte[] line = Arrays.copyOfRange(data, off, off + len);
+            if (seen != null) seen.add(ByteBuffer.wrap(line));
+            heap.add(line);
+            kept += heapMemory(len);
+            if (kept > memory) unbound();
+        }
+
+        /**
+         * Gets the estimated memory of a packed line.
+         *
+         * @param len length of the line
+         * @return bytes
+         */
+        private long lineMemory(int len) {
+            return len + PackedLines.LINE_MEMORY + (order.isPlain() ? 0 : len + LINE_OVERHEAD + order.keyMemory(len));
+        }
+
+        /**
+         * Gets the estimated memory of a line of the heap.
+         *
+         * @param len length of the line
+         * @return bytes
+         */
+        private long heapMemory(int len) {
+            return len + LINE_OVERHEAD + (seen != null ? DISTINCT_OVERHEAD : 0);
+        }
+
+        /**
+         * Moves the lines of the heap into packed lines when they exceed the memory budget (a big count or long lines).
+         * The next lines are kept and spilled as without the count, only the first ones are passed at the end.
+         *
+         * @throws IOException if a run cannot be written
+         */
+        private void unbound() throws IOException {
+            lines = new PackedLines();
+            kept = 0;
+            for (byte[] line : heap) {
+                if (hashed) lines.addDistinct(line, 0, line.length);
+                else lines.add(line, 0, line.length);
+                kept += lineMemory(line.length);
+            }
+            heap = null;
+            seen = null;
+            if (kept > memory) spill();
+        }
+
+        /**
+         * Sorts the kept lines and passes the first ones.
+         *
+         * @param count number of the passed lines
+         * @param next operator of the sorted lines
+         * @throws IOException if the output is closed
+         */
+        private void sortLines(int count, LineOperator next) throws IOException {
+            if (order.isPlain()) {
+                lines.sort(order.isReversed());
+                lines.push(count, next);
+            } else {
+                byte[][] sorted = lines.toArrays();
+                count = Math.min(count, order.sort(sorted, unique));
+                for (int i = 0; i < count; i++) next.push(sorted[i], 0, sorted[i].length, true);
+            }
+            lines.clear();
+        }
+
+        /**
+         * Sorts the kept lines and writes them as a run.
+         *
+         * @throws IOException if the run cannot be written
+         */
+        private void spill() throws IOException {
+            if (runs == null) runs = new SortedRuns(directory, unique ? order.keysOnly() : order, unique ? order.keysOnly() : null);
+            LineOperator run = runs.writer();
+            try {
+                sortLines(Integer.MAX_VALUE, run);      // Duplicates of other runs are dropped by the merge
+            } finally {
+                run.finish();
+            }
+            kept = 0;
+        }
+
+        @Override
+        public void finish() throws IOException {
+            if (empty) {
+                if (top != 0) next.push(new byte[0], 0, 0, true);
+            } else if (runs != null) {
+                if (lines.size() > 0) spill();
+                runs.merge(top < 0 ? next : first(top));
+            } else if (lines != null) {
+                sortLines(top < 0 ? Integer.MAX_VALUE : top, next);
+            } else if (top != 0) {
+                byte[][] sorted = heap.toArray(new byte[heap.size()][]);
+                heap.clear();
+                int count = Math.min(order.sort(sorted, unique), top);
+                for (int i = 0; i < count; i++) next.push(sorted[i], 0, sorted[i].length, true);
+            }
+            next.finish();
+        }
+
+        /**
+         * Gets an operator passing only the first lines to the next one.
+         *
+         * @param count number of lines
+         * @return operator
+         */
+        private LineOperator first(final int count) {
+            return new LineOperator() {
+                private int passed = 0;
+
+                @Override
+                public void push(byte[] data, int off, int len, boolean terminated) throws IOException {
+                    if (passed++ < count) next.push(data, off, len, terminated);
+                }
+
+                @Override
+                public void finish() {
+                }
+            };
+        }
+
+        /**
+         * Gets an operator which keeps lines of several inputs, finishing them does not finish the sort.
+         *
+         * @return operator
+         */
+        LineOperator lines() {
+            return new LineOperator() {
+                @Override
+                public void push(byte[] data, int off, int len, boolean terminated) throws IOException {
+                    Sorter.this.push(data, off, len, terminated);
+                }
+
+                @Override
+                public void finish() {
+                }
+            };
+        }
+
+        /**
+         * Deletes spilled runs of a stopped sort.
+         */
+        void discard() {
+            if (runs != null) runs.delete();
+        }
+    }
+
     /**
      * Stdin version. Reads from stdin.
      */
@@ -73,12 +519,13 @@ public class Sort extends AbstractProcess {
                 lines.add(currentLine);
             }
 
-            String[] linesField = new String[lines.size()];
-            lines.toArray(linesField);
-            Arrays.sort(linesField);
-            for(String line : linesField){
-                output.write(line.getBytes());
-                output.write("\n".getBytes());
+            if(!lines.isEmpty()) {
+                Sorter sorter = options.copy(outputOperator());
+                for(String line : lines) {
+                    byte[] bytes = line.getBytes();
+                    sorter.push(bytes, 0, bytes.length, true);
+                }
+                sorter.finish();
             }
             output.close();
         } catch (IOException e) {
@@ -96,8 +543,19 @@ public class Sort extends AbstractProcess {
                 "Syntax: sort\n"+
                 "- executes standard input, reading lines\n"+
                 "- you can use CTRL+D to finish STDIN and print sorted lines\n\n"+
+                "Syntax: sort [-u] [-n] [-r] [-t <c>] [-k <key>]... [--locale <tag>] [--radix] [--top <k>] [-S <size>] [-m] [\"file\"...]\n"+
+                "- -u prints only distinct lines (distinct keys), --top prints only the first k sorted lines\n"+
+                "- -k F[.C][,F[.C]][nrb] sorts by a key from the field F (1, 2, ...) to the field F, more keys in turn,\n"+
+                "  n numeric, r reverse, b skips leading blanks; -t sets the separator of the fields (blanks by default)\n"+
+                "- -n numeric order, -r reverse order, --locale compares by the collation of the locale, f.e. en-US\n"+
+                "- numeric first keys are sorted by a radix sort, --radix radix sorts keys of fixed width (8 bytes at most) too\n"+
+                "- -S sets the memory of the sort (f.e. 512K, 64M), lines over it are sorted in parts\n"+
+                "  spilled into temporary files and merged, the default is set by -Dbbshell.sort.memory\n"+
+                "- files are sorted instead of the standard input, -m merges files which are sorted already\n\n"+
                 "Example: cat \"file\" | sort\n"+
                 "- prints the content of the selected file (rel/abs path) to the standard output, but lines are sorted\n\n"+
+                "Example: sort -t , -k 2,2n -k 1,1 \"file.csv\"\n"+
+                "- prints the lines of the file by the number in the second column, then by the first column\n\n"+
                 "Example: cat \"file\" | sort > \"output_file\"\n"+
                 "- saves the content of the selected file (rel/abs path) to the output file, but lines are sorted\n"+
                 "------------------ MANUAL END -------------------";
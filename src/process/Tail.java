@@ -0,0 +1,167 @@
+package process;
+
+import helpers.BBPipedInputStream;
+import helpers.FileLines;
+import helpers.LineOperator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tail process prints the last lines of its input or a file. Only the last lines are kept,
+ * a file is read from its end backwards until the lines are found.
+ *
+ * @author Radek Bouda
+ */
+public class Tail extends AbstractProcess {
+    /** Number of lines to print and the file or null */
+    private Head.Options options = new Head.Options();
+
+    /**
+     * Create new process
+     *
+     * @param pid process ID
+     * @param parentPid process id of parent
+     * @param input PipedInputStream
+     * @param commands list with commands
+     * @param shell parent shell
+     */
+    public Tail(int pid, int parentPid, BBPipedInputStream input, List<List<String>> commands, Shell shell) throws IOException {
+        super(pid, parentPid, input, commands, shell);
+    }
+
+    /**
+     * Create new process with options.
+     *
+     * @param pid process ID
+     * @param parentPid process id of parent
+     * @param input PipedInputStream
+     * @param commands list with commands
+     * @param shell parent shell
+     * @param options -n and number of lines, file
+     */
+    public Tail(int pid, int parentPid, BBPipedInputStream input, List<List<String>> commands, Shell shell, String[] options) throws IOException {
+        super(pid, parentPid, input, commands, shell);
+        if (options.length == 1 && options[0].equalsIgnoreCase(AbstractProcess.HELP_COMMAND)) helpOnly = true;
+        else this.options = Head.parse(Arrays.asList(options), "tail");
+    }
+
+    /**
+     * Own job.
+     */
+    @Override
+    protected void processRun() {
+        try {
+            if(helpOnly) {
+                output.write(getMan().getBytes());
+            } else if(options.file != null) {
+                fileVersion();
+            } else if(hasPipedInput()) {
+                pipeRecords(new Last(options.lines, outputOperator()));
+            } else {
+                Last last = new Last(options.lines, outputOperator());
+                String line;
+                while((line = shell.getLine()) != null) {
+                    byte[] bytes = line.getBytes();
+                    last.push(bytes, 0, bytes.length, true);
+                }
+                last.finish();
+            }
+            output.close();
+        } catch (IOException e) {
+            return;                 // Killed process
+        }
+    }
+
+    /**
+     * File version. Lines are pushed from the start of the last lines found from the end.
+     *
+     * @throws IOException if the output is closed
+     */
+    private void fileVersion() throws IOException {
+        File file = Cat.existingFile(shell, options.file);
+        if (file == null) {
+            shell.printError("tail: " + options.file + ": No such a file or directory");
+            return;
+        }
+        FileLines.push(file, FileLines.lastLines(file, options.lines), outputOperator());
+    }
+
+    /**
+     * Reads lines as records.
+     *
+     * @return true
+     */
+    @Override
+    protected boolean readsRecords() {
+        return true;
+    }
+
+    /**
+     * Gets an operator of a fused pipeline.
+     *
+     * @param shell parent shell
+     * @param arguments command with arguments
+     * @param next next operator
+     * @return operator or null if the command cannot be fused
+     */
+    public static LineOperator fuse(Shell shell, List<String> arguments, LineOperator next) {
+        try {
+            Head.Options options = Head.parse(arguments.subList(1, arguments.size()), "tail");
+            return options.file == null ? new Last(options.lines, next) : null;     // Files are not a pipeline
+        } catch (IllegalArgumentException e) {
+            return null;                // Wrong options
+        }
+    }
+
+    /**
+     * Keeps the last lines in a bounded queue and passes them at the end.
+     */
+    private static final class Last implements LineOperator {
+        private final LineOperator next;
+        private final int lines;
+        private final ArrayDeque<byte[]> kept = new ArrayDeque<byte[]>();
+        /** The last line ended with a newline */
+        private boolean terminated = true;
+
+        Last(int lines, LineOperator next) {
+            this.lines = lines;
+            this.next = next;
+        }
+
+        @Override
+        public void push(byte[] data, int off, int len, boolean terminated) throws IOException {
+            if (lines == 0) return;
+            if (kept.size() == lines) kept.removeFirst();
+            kept.addLast(Arrays.copyOfRange(data, off, off + len));
+            this.terminated = terminated;
+        }
+
+        @Override
+        public void finish() throws IOException {
+            while (!kept.isEmpty()) {
+                byte[] line = kept.removeFirst();
+                next.push(line, 0, line.length, !kept.isEmpty() || terminated);
+            }
+            next.finish();
+        }
+    }
+
+    /**
+     * Returns a manual page of a process.
+     * @return Manual page
+     */
+    public static String getMan() {
+        return "------------------ TAIL PROCESS ------------------\n"+
+                "- prints the last lines of standard input or of a file\n"+
+                "- a file is read from its end, only the last lines are read\n\n"+
+                "Syntax: tail [-n <lines>] [\"file\"]\n"+
+                "- prints the last 10 or <lines> lines\n\n"+
+                "Example: tail -n 5 \"file\"\n"+
+                "- prints the last 5 lines of the selected file (rel/abs path)\n"+
+                "------------------ MANUAL END ------------------";
+    }
+}
@@ -0,0 +1,120 @@
+package process;
+
+import helpers.BBPipedInputStream;
+import helpers.LineOperator;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Uniq process omits repeated adjacent lines.
+ *
+ * @author Radek Bouda
+ */
+public class Uniq extends AbstractProcess {
+
+    /**
+     * Create new process
+     *
+     * @param pid process ID
+     * @param parentPid process id of parent
+     * @param input PipedInputStream
+     * @param commands list with commands
+     * @param shell parent shell
+     */
+    public Uniq(int pid, int parentPid, BBPipedInputStream input, List<List<String>> commands, Shell shell) throws IOException {
+        super(pid, parentPid, input, commands, shell);
+    }
+
+    /**
+     * Own job.
+     */
+    @Override
+    protected void processRun() {
+        try {
+            if(hasPipedInput()) {
+                pipeRecords(new Filter(outputOperator()));
+            } else {
+                Filter filter = new Filter(outputOperator());
+                String line;
+                while((line = shell.getLine()) != null) {
+                    byte[] bytes = line.getBytes();
+                    filter.push(bytes, 0, bytes.length, true);
+                }
+                filter.finish();
+            }
+            output.close();
+        } catch (IOException e) {
+            return;                 // Killed process
+        }
+    }
+
+    /**
+     * Reads lines as records.
+     *
+     * @return true
+     */
+    @Override
+    protected boolean readsRecords() {
+        return true;
+    }
+
+    /**
+     * Gets an operator of a fused pipeline.
+     *
+     * @param shell parent shell
+     * @param arguments command with arguments
+     * @param next next operator
+     * @return operator or null if the command cannot be fused
+     */
+    public static LineOperator fuse(Shell shell, List<String> arguments, LineOperator next) {
+        if (arguments.size() != 1) return null;
+        return new Filter(next);
+    }
+
+    /**
+     * Passes a line only if it differs from the previous one.
+     */
+    private static final class Filter implements LineOperator {
+        private final LineOperator next;
+        private byte[] previous;
+
+        Filter(LineOperator next) {
+            this.next = next;
+        }
+
+        @Override
+        public void push(byte[] data, int off, int len, boolean terminated) throws IOException {
+            if (previous != null && previous.length == len && equals(data, off, previous)) return;
+            previous = Arrays.copyOfRange(data, off, off + len);
+            next.push(data, off, len, true);
+        }
+
+        @Override
+        public void finish() throws IOException {
+            next.finish();
+        }
+
+        private static boolean equals(byte[] data, int off, byte[] line) {
+            for (int i = 0; i < line.length; i++) {
+                if (data[off + i] != line[i]) return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Returns a manual page of a process.
+     * @return Manual page
+     */
+    public static String getMan() {
+        return "------------------ UNIQ PROCESS ------------------\n"+
+                "- omits repeated adjacent lines\n\n"+
+                "Syntax: uniq\n"+
+                "- reads lines from standard input\n\n"+
+                "Example: cat \"file\" | sort | uniq\n"+
+                "- prints distinct lines of the selected file (rel/abs path), sorted\n"+
+                "------------------ MANUAL END ------------------";
+    }
+}
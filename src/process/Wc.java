@@ -1,16 +1,47 @@
 package process;
 
 import helpers.BBPipedInputStream;
+import helpers.ByteScan;
+import helpers.LineOperator;
+import helpers.RecordBatch;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 /**
- * Wc process serves as line counter.
+ * Wc process counts lines, words, characters and bytes. Bytes are counted in fixed buffers,
+ * no strings are made. Large files are split into chunks counted in parallel.
  *
  * @Author David Steinberger
  */
 public class Wc extends AbstractProcess {
+    /** Pool of the counting of chunks */
+    private static final ForkJoinPool POOL = ForkJoinPool.commonPool();
+    /** Files of this size and larger are counted in parallel */
+    private static final long PARALLEL_THRESHOLD = 16 << 20;
+    /** Size of the chunks counted in parallel */
+    private static final long CHUNK_SIZE = 8 << 20;
+    /** Size of the read buffers */
+    private static final int BUFFER_SIZE = 1 << 20;
+    /** Whitespace bytes separating words */
+    private static final boolean[] SPACE = new boolean[256];
+    static {
+        for (char c : " \t\n\u000B\f\r".toCharArray()) SPACE[c] = true;
+    }
+    /** Newline of terminated records */
+    private static final byte[] NEWLINE = {'\n'};
+
+    /** Parsed options */
+    private Options options = Options.parse(Collections.<String>emptyList());
 
     /**
      * Create new process
@@ -25,12 +56,37 @@ public class Wc extends AbstractProcess {
         super(pid, parentPid, input, commands, shell);
     }
 
+    /**
+     * Create new process with options and files.
+     *
+     * @param pid process ID
+     * @param parentPid process id of parent
+     * @param input PipedInputStream
+     * @param commands list with commands
+     * @param shell parent shell
+     * @param options flags and paths to files
+     */
+    public Wc(int pid, int parentPid, BBPipedInputStream input, List<List<String>> commands, Shell shell, String[] options) throws IOException {
+        super(pid, parentPid, input, commands, shell);
+        if(options.length == 1 && options[0].equalsIgnoreCase(AbstractProcess.HELP_COMMAND)) helpOnly = true;
+        else this.options = Options.parse(Arrays.asList(options));
+    }
+
     /**
      * Own job.
      */
     @Override
     protected void processRun() {
-        if(hasPipedInput()) {
+        if(helpOnly) {
+            try {
+                output.write(getMan().getBytes());
+                output.close();
+            } catch (IOException e) {
+                return;             // Killed process
+            }
+        } else if(!options.files.isEmpty()) {
+            fileInput();
+        } else if(hasPipedInput()) {
             pipedInput();
         } else {
             stdInput();
@@ -38,42 +94,361 @@ public class Wc extends AbstractProcess {
     }
 
     /**
-     * Piped input version. Reads from pipe.
+     * Reads lines as records.
+     *
+     * @return true
+     */
+    @Override
+    protected boolean readsRecords() {
+        return true;
+    }
+
+    /**
+     * Piped input version. Reads from pipe, lines come framed, so they are just counted.
      */
     private void pipedInput() {
         try {
-            String text = getStringFromInput();
-            if(text == null || text.equals("")) output.write("0".getBytes());
-            else output.write((text.split("\n").length + "").getBytes());
+            pipeRecords(new Counter(options, outputOperator()));
             output.close();
         } catch (IOException e) {
             return;                 // Killed process
         }
     }
 
+    /**
+     * File version. Bytes are counted straight in the files, lines are not framed at all.
+     * An unterminated last line is a line too, same as in the piped version. More files get their names and a total.
+     */
+    private void fileInput() {
+        try {
+            Counts total = new Counts();
+            boolean named = options.files.size() > 1;
+            for(String path : options.files) {
+                File file = Cat.existingFile(shell, path);
+                if(file == null) {
+                    shell.printError("wc: " + path + ": No such a file or directory");
+                    continue;
+                }
+                Counts counts = count(file);
+                if(counts == null) return;                  // Killed process
+                total.add(counts);
+                if(named) writeRecord(options.format(counts, path));
+                else output.write(options.format(counts, null));
+            }
+            if(named) output.write(options.format(total, "total"));
+            output.close();
+        } catch (IOException e) {
+            return;                 // Killed process
+        }
+    }
+
+    /**
+     * Counts a file. Large files are split into chunks counted in parallel.
+     *
+     * @param file file
+     * @return counts or null if the process was killed
+     * @throws IOException if the file cannot be read
+     */
+    private Counts count(File file) throws IOException {
+        FileChannel channel = new FileInputStream(file).getChannel();
+        try {
+            long size = channel.size();
+            if(size >= PARALLEL_THRESHOLD) return POOL.invoke(new Chunk(channel, options, 0, size));
+            Counts counts = new Counts();
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(BUFFER_SIZE, Math.max(1, size)));
+            while(channel.read(buffer) != -1) {
+                if(isInterrupted()) return null;
+                counts.count(buffer.array(), 0, buffer.position(), options);
+                buffer.clear();
+            }
+            return counts;
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Writes a line.
+     *
+     * @param line bytes of the line without the newline
+     * @throws IOException if the output is closed
+     */
+    private void writeRecord(byte[] line) throws IOException {
+        writeRecord(line, 0, line.length);
+    }
+
+    /**
+     * Gets an operator of a fused pipeline.
+     *
+     * @param shell parent shell
+     * @param arguments command with arguments
+     * @param next next operator
+     * @return operator or null if the command cannot be fused
+     */
+    public static LineOperator fuse(Shell shell, List<String> arguments, LineOperator next) {
+        if (arguments.contains(AbstractProcess.HELP_COMMAND)) return null;
+        try {
+            Options options = Options.parse(arguments.subList(1, arguments.size()));
+            return options.files.size() > 1 ? null : new Counter(options, next);    // A file is the source
+        } catch (IllegalArgumentException e) {
+            return null;                // Wrong options
+        }
+    }
+
+    /**
+     * Gets the input of a fused pipeline starting by wc of a file.
+     *
+     * @param shell parent shell
+     * @param arguments command with arguments
+     * @return file or null if the command does not count an existing file
+     */
+    public static File source(Shell shell, List<String> arguments) {
+        if (arguments.contains(AbstractProcess.HELP_COMMAND)) return null;
+        try {
+            Options options = Options.parse(arguments.subList(1, arguments.size()));
+            return options.files.size() != 1 ? null : Cat.existingFile(shell, options.files.get(0));
+        } catch (IllegalArgumentException e) {
+            return null;                // Wrong options
+        }
+    }
+
+    /**
+     * Options - selected counts and files.
+     */
+    private static final class Options {
+        private boolean lines = false;
+        private boolean words = false;
+        private boolean chars = false;
+        private boolean bytes = false;
+        private final List<String> files = new ArrayList<String>();
+
+        /**
+         * Parses options.
+         * -l   lines
+         * -w   words
+         * -m   characters of UTF-8
+         * -c   bytes
+         * Flags can be joined (-lw), only lines are counted without flags. Other arguments are files.
+         *
+         * @param arguments options
+         * @return options
+         * @throws IllegalArgumentException in case of an unknown option
+         */
+        static Options parse(List<String> arguments) {
+            Options options = new Options();
+            for (String argument : arguments) {
+                if (argument.length() > 1 && argument.matches("-[lwmc]+")) {
+                    options.lines |= argument.indexOf('l') > 0;
+                    options.words |= argument.indexOf('w') > 0;
+                    options.chars |= argument.indexOf('m') > 0;
+                    options.bytes |= argument.indexOf('c') > 0;
+                } else if (argument.startsWith("-")) {
+                    throw new IllegalArgumentException("wc: unknown option " + argument);
+                } else {
+                    options.files.add(argument);
+                }
+            }
+            if (!options.words && !options.chars && !options.bytes) options.lines = true;
+            return options;
+        }
+
+        /**
+         * Formats counts - lines, words, characters and bytes as selected, separated by spaces.
+         *
+         * @param counts counts
+         * @param name name of the file or null
+         * @return bytes of the line without the newline
+         */
+        byte[] format(Counts counts, String name) {
+            StringBuilder line = new StringBuilder();
+            if (lines) line.append(counts.lines()).append(' ');
+            if (words) line.append(counts.words).append(' ');
+            if (chars) line.append(counts.chars).append(' ');
+            if (bytes) line.append(counts.bytes).append(' ');
+            line.setLength(line.length() - 1);
+            if (name != null) line.append(' ').append(name);
+            return line.toString().getBytes(RecordBatch.CHARSET);
+        }
+    }
+
+    /**
+     * Counts of consecutive bytes. Counts of neighbouring parts are added, a word split between them is counted once.
+     */
+    private static final class Counts {
+        private long newlines = 0;
+        private long words = 0;
+        private long chars = 0;
+        private long bytes = 0;
+        /** The first and the last byte are parts of words */
+        private boolean startsInWord = false;
+        private boolean endsInWord = false;
+        /** The last byte is a newline, true for no bytes */
+        private boolean endsLine = true;
+
+        /**
+         * Counts following bytes.
+         *
+         * @param data bytes
+         * @param off start
+         * @param len length
+         * @param options selected counts, only lines are fast
+         */
+        void count(byte[] data, int off, int len, Options options) {
+            if (len == 0) return;
+            int end = off + len;
+            long newlines = 0;
+            if (options.words || options.chars) {
+                long words = 0, chars = 0;
+                boolean inWord = endsInWord;
+                if (bytes == 0) startsInWord = !SPACE[data[off] & 0xFF];
+                for (int i = off; i < end; i++) {
+                    int b = data[i] & 0xFF;
+                    if (b == '\n') newlines++;
+                    if ((b & 0xC0) != 0x80) chars++;                    // Not a continuation of UTF-8
+                    boolean space = SPACE[b];
+                    if (!space && !inWord) words++;
+                    inWord = !space;
+                }
+                this.words += words;
+                this.chars += chars;
+                endsInWord = inWord;
+            } else {
+                newlines = ByteScan.count(data, off, end, '\n');
+            }
+            this.newlines += newlines;
+            bytes += len;
+            endsLine = data[end - 1] == '\n';
+        }
+
+        /**
+         * Adds counts of the following bytes.
+         *
+         * @param next counts of the following bytes
+         */
+        void add(Counts next) {
+            if (next.bytes == 0) return;
+            if (bytes == 0) startsInWord = next.startsInWord;
+            words += next.words - (endsInWord && next.startsInWord ? 1 : 0);
+            newlines += next.newlines;
+            chars += next.chars;
+            bytes += next.bytes;
+            endsInWord = next.endsInWord;
+            endsLine = next.endsLine;
+        }
+
+        /**
+         * Gets the number of lines, an unterminated last line is a line too.
+         *
+         * @return lines
+         */
+        long lines() {
+            return newlines + (endsLine ? 0 : 1);
+        }
+    }
+
+    /**
+     * Counting of a part of a file, split into halves counted in parallel down to the chunk size.
+     */
+    private static final class Chunk extends RecursiveTask<Counts> {
+        private static final long serialVersionUID = 1L;
+        private final FileChannel channel;
+        private final Options options;
+        private final long start;
+        private final long end;
+
+        Chunk(FileChannel channel, Options options, long start, long end) {
+            this.channel = channel;
+            this.options = options;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected Counts compute() {
+            if (end - start > CHUNK_SIZE) {
+                long middle = start + (end - start) / 2;
+                Chunk second = new Chunk(channel, options, middle, end);
+                second.fork();
+                Counts counts = new Chunk(channel, options, start, middle).compute();
+                counts.add(second.join());
+                return counts;
+            }
+            Counts counts = new Counts();
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(BUFFER_SIZE, end - start));
+            try {
+                for (long at = start; at < end; ) {
+                    buffer.clear().limit((int) Math.min(buffer.capacity(), end - at));
+                    int read = channel.read(buffer, at);                // Positional reads of the shared channel
+                    if (read <= 0) break;                               // Truncated file
+                    counts.count(buffer.array(), 0, read, options);
+                    at += read;
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return counts;
+        }
+    }
+
+    /**
+     * Counts lines and passes the counts without a newline at the end.
+     */
+    private static final class Counter implements LineOperator {
+        private final Options options;
+        private final LineOperator next;
+        private final Counts counts = new Counts();
+
+        Counter(Options options, LineOperator next) {
+            this.options = options;
+            this.next = next;
+        }
+
+        @Override
+        public void push(byte[] data, int off, int len, boolean terminated) {
+            counts.count(data, off, len, options);
+            if (terminated) counts.count(NEWLINE, 0, 1, options);
+            else counts.endsLine = false;               // Empty unterminated line
+        }
+
+        @Override
+        public void finish() throws IOException {
+            byte[] result = options.format(counts, null);
+            next.push(result, 0, result.length, false);
+            next.finish();
+        }
+    }
+
     /**
      * Stdin version. Reads from stdin.
      */
     private void stdInput() {
         try {
-            int count = 0;
-            while(shell.getLine() != null) count++;
-            output.write(("" + (count + 1)).getBytes());
+            Counter counter = new Counter(options, outputOperator());
+            String line;
+            while((line = shell.getLine()) != null) {
+                byte[] bytes = line.getBytes(RecordBatch.CHARSET);
+                counter.push(bytes, 0, bytes.length, true);
+            }
+            counter.finish();
             output.close();
         } catch (IOException e) {
             return;                     // Killed process
         }
     }
-    
+
    /**
     * Returns a manual page of a process.
     * @return Manual page
     */
     public static String getMan() {
     return "------------------ WC PROCESS ------------------\n"+
-            "- print the number of newlines in files\n\n"+
-            "Syntax: wc <file>\n"+
+            "- print the number of lines, words, characters or bytes in files\n\n"+
+            "Syntax: wc [-l] [-w] [-m] [-c] <file>...\n"+
             "- prints  the number of lines in file in directory at selected relative or absolute path (if the file exists)\n"+
+            "- -l lines, -w words, -m characters (UTF-8), -c bytes, in this order; only lines without flags\n"+
+            "- more files are printed with their names and a total, large files are counted in parallel\n\n"+
+            "Syntax: cat <file> | wc [-l] [-w] [-m] [-c]\n"+
+            "- prints the counts of the standard input\n"+
             "------------------ MANUAL END ------------------";
     }
 }